@@ -26,19 +26,36 @@
  */
 package dk.nsi.sdm4.ydelse.common.util;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 public class CprUtil {
 
-	private static final String CPR_REG_EX = "((((0[1-9]|1[0-9]|2[0-9]|3[0-1])(01|03|05|07|08|10|12))|"
-			+ "((0[1-9]|1[0-9]|2[0-9]|30)(04|06|09|11))|((0[1-9]|1[0-9]|2[0-9])(02)))[0-9]{6})|0000000000";
+	private static final int CPR_LENGTH = 10;
+
+	// the last valid day of each month; the 29th of February is accepted regardless of the year
+	private static final int[] LAST_DAY_OF_MONTH = {0, 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
 
-	private static final Pattern CPR_PATTERN = Pattern.compile(CPR_REG_EX);
-	
+	/**
+	 * Accepts ten ASCII digits that start with a day and month (ddmm) that exist in a leap year, and "0000000000".
+	 * Gives the same results as the regular expression that was used before, without running one for each cpr.
+	 */
 	public static boolean validateCpr(String cpr) {
-		Matcher matcher = CPR_PATTERN.matcher(cpr);
-		return matcher.matches();
+		if (cpr.length() != CPR_LENGTH) {
+			return false;
+		}
+		int digits = 0;
+		for (int i = 0; i < CPR_LENGTH; i++) {
+			char c = cpr.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+			digits |= c - '0';
+		}
+		if (digits == 0) {
+			return true; // 0000000000
+		}
+
+		int day = (cpr.charAt(0) - '0') * 10 + (cpr.charAt(1) - '0');
+		int month = (cpr.charAt(2) - '0') * 10 + (cpr.charAt(3) - '0');
+		return month >= 1 && month <= 12 && day >= 1 && day <= LAST_DAY_OF_MONTH[month];
 	}
 
 	private CprUtil() {
@@ -26,13 +26,23 @@
  */
 package dk.nsi.sdm4.ydelse.config;
 
+import dk.nsi.sdm4.ydelse.dao.ImportCheckpointDAO;
+import dk.nsi.sdm4.ydelse.dao.SSRReloadDAO;
 import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.dao.impl.ImportCheckpointDAOImpl;
 import dk.nsi.sdm4.ydelse.dao.impl.SSRDAOImpl;
+import dk.nsi.sdm4.ydelse.dao.impl.SSRLoadDataDAOImpl;
+import dk.nsi.sdm4.ydelse.dao.impl.SSRReloadDAOImpl;
+import dk.nsi.sdm4.ydelse.parser.DatasetWatcher;
 import dk.nsi.sdm4.ydelse.parser.YdelseInserter;
 import dk.nsi.sdm4.ydelse.parser.YdelseParser;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
@@ -40,21 +50,106 @@ import org.springframework.transaction.support.TransactionTemplate;
 @Configuration
 @EnableAsync
 public class YdelseimporterApplicationConfig {
+	@Value("${spooler.ydelseimporter.importthreads}")
+	private int importThreads;
+
+	@Value("${spooler.ydelseimporter.writerlanes}")
+	private int writerLanes;
+
+	/**
+	 * Hvor mange forbindelser importerne tilsammen højst må bruge fra datasourcens pulje. Hver import bruger én
+	 * forbindelse pr. skrivebane, så importthreads gange writerlanes må ikke overstige den
+	 */
+	@Value("${spooler.ydelseimporter.maxconnections}")
+	private int maxConnections;
+
+	private static final String STATEMENT_BINLOG_FORMAT = "STATEMENT";
+
+	private static final String LOAD_DATA_INSERTS = "loaddata";
+
+	/**
+	 * Hvordan en genindlæsning (mode=reload) skriver udtrækket i staging-tabellen: "batch" indsætter linierne med
+	 * INSERT-statements med mange rækker, "loaddata" indlæser dem med MySQL's LOAD DATA LOCAL INFILE, se
+	 * {@link SSRLoadDataDAOImpl}. De almindelige importer bruger altid INSERT, da en midlertidig fil pr. batch ikke
+	 * betaler sig for de få rækker, en daglig import ændrer, og de skriver i tabellen, læserne bruger
+	 */
+	@Value("${spooler.ydelseimporter.reloadinsertmethod}")
+	private String reloadInsertMethod;
+
 	@Bean
+	@Primary
 	public SSRWriteDAO writeDao() {
 		return new SSRDAOImpl();
 	}
 
+	@Bean
+	public SSRWriteDAO reloadWriteDao() {
+		if (LOAD_DATA_INSERTS.equals(reloadInsertMethod)) {
+			return new SSRLoadDataDAOImpl();
+		}
+		return new SSRDAOImpl();
+	}
+
+	@Bean
+	public ImportCheckpointDAO checkpointDao() {
+		return new ImportCheckpointDAOImpl();
+	}
+
+	@Bean
+	public SSRReloadDAO reloadDao() {
+		return new SSRReloadDAOImpl();
+	}
+
 	@Bean
     public YdelseParser parser() {
 		return new YdelseParser();
 	}
 
+	/**
+	 * Flere skrivebaner kører med READ COMMITTED, og den afviser InnoDB, når binlog_format er STATEMENT (standard før
+	 * MySQL 5.7.7), så hver skrivning ville fejle. Det opdages her ved opstart i stedet for ved den første import
+	 */
 	@Bean
-	public YdelseInserter inserter() {
+	public YdelseInserter inserter(JdbcTemplate jdbcTemplate) {
+		if (importThreads * writerLanes > maxConnections) {
+			throw new IllegalStateException(importThreads + " imports with " + writerLanes + " writer lanes each need "
+					+ importThreads * writerLanes + " connections, but maxconnections is " + maxConnections);
+		}
+		if (writerLanes > 1) {
+			String binlogFormat = jdbcTemplate.queryForObject("SELECT @@binlog_format", String.class);
+			if (STATEMENT_BINLOG_FORMAT.equalsIgnoreCase(binlogFormat)) {
+				throw new IllegalStateException(writerLanes + " writer lanes write with READ COMMITTED, which MySQL does "
+						+ "not allow with binlog_format=STATEMENT. Set binlog_format to ROW or MIXED, or set "
+						+ "spooler.ydelseimporter.writerlanes to 1");
+			}
+		}
 		return new YdelseInserter();
 	}
 
+	/**
+	 * Gør kun noget, når spooler.ydelseimporter.trigger er "watch"
+	 */
+	@Bean
+	public DatasetWatcher datasetWatcher() {
+		return new DatasetWatcher();
+	}
+
+	/**
+	 * Importerne kører i baggrunden på deres egne tråde, så spooleren og statussiden ikke står stille imens.
+	 * Trådene afbrydes ikke ved nedlukning, da det kan ramme en transaktion; parseren beder i stedet importen stoppe
+	 * ved næste batch-grænse, og der ventes på, at den gør det
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor importExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(importThreads);
+		executor.setMaxPoolSize(importThreads);
+		executor.setThreadNamePrefix("ydelseimporter-import-");
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(60);
+		return executor;
+	}
+
 	@Bean
 	public TransactionTemplate templateForNewTransactions(PlatformTransactionManager transactionManager) {
 		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
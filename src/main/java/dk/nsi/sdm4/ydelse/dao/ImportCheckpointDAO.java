@@ -0,0 +1,76 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.dao;
+
+import dk.nsi.sdm4.ydelse.relation.model.ImportCheckpoint;
+
+import java.util.List;
+
+/**
+ * Keeps track of how far an interrupted import has come, so it can be resumed. A checkpoint is saved in the same
+ * transaction as the actions it covers, one for each writer lane.
+ */
+public interface ImportCheckpointDAO {
+	/**
+	 * @param file a checkpoint for the file in question, only the file identity is used
+	 * @return the saved checkpoints of each writer lane for the same file, whatever table they were written to, or an
+	 * empty list if there are none
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public List<ImportCheckpoint> find(ImportCheckpoint file);
+
+	/**
+	 * Saves the checkpoint, replacing any earlier checkpoint for the same file and writer lane.
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public void save(ImportCheckpoint checkpoint);
+
+	/**
+	 * Deletes the checkpoints of every writer lane for the file, if any. Called when the import of the file has
+	 * completed.
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public void delete(ImportCheckpoint file);
+
+	/**
+	 * @return the generation of the delta fingerprints that match the SSR table, or 0 if no fingerprints match it
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public long findDeltaGeneration();
+
+	/**
+	 * Records which generation of delta fingerprints matches the SSR table. Saved in the same transaction as the last
+	 * batch of an import.
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public void saveDeltaGeneration(long generation);
+}
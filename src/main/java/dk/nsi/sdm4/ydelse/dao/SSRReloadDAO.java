@@ -0,0 +1,113 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.dao;
+
+/**
+ * Replaces the whole SSR table without readers seeing a half-loaded table. A full reload is written to a staging
+ * table with the same columns as SSR, but without its secondary indexes. The indexes are rebuilt once the load is
+ * done, and then the staging table replaces SSR in one atomic rename. The replaced table is kept until the next
+ * reload, so the reload can be rolled back.
+ * <p>
+ * The outcome is recorded on the latest row in ydelseimporterImportStatus, which is the row of the import that is
+ * running.
+ */
+public interface SSRReloadDAO {
+	public static final String SWAPPED = "SWAPPED";
+	public static final String REJECTED = "REJECTED";
+	public static final String ROLLED_BACK = "ROLLED_BACK";
+
+	/**
+	 * @return the name of the staging table, to be used with {@link SSRWriteDAO#inTable(String)}
+	 */
+	public String getStagingTable();
+
+	/**
+	 * @return whether a staging table is left from a reload that was interrupted
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public boolean stagingTableExists();
+
+	/**
+	 * Creates an empty staging table like SSR without its secondary indexes, replacing any staging table left from
+	 * an earlier reload. The index on externalReference is kept, as deletions in the staging table look up rows by it.
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public void createStagingTable();
+
+	/**
+	 * Adds the secondary indexes of SSR that {@link #createStagingTable()} left out to the staging table, after it has
+	 * been loaded.
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public void rebuildIndexes();
+
+	/**
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public long countRows();
+
+	/**
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public long countStagingRows();
+
+	/**
+	 * Replaces SSR with the staging table in one atomic RENAME TABLE. The replaced table is kept as the previous
+	 * table, replacing the one kept from the reload before.
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public void swap();
+
+	/**
+	 * Puts the previous table back in place of SSR in one atomic RENAME TABLE and drops the table that replaced it.
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if there is no previous table, or if something goes wrong in the process
+	 */
+	public void rollback();
+
+	/**
+	 * Records the outcome of a reload on the latest row in ydelseimporterImportStatus.
+	 * @param outcome {@link #SWAPPED} or {@link #REJECTED}
+	 * @param rows the number of rows in the staging table
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public void recordReload(String outcome, long rows);
+
+	/**
+	 * Records on the row of the latest swapped reload in ydelseimporterImportStatus that it has been rolled back.
+	 * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+	 *             if something goes wrong in the process
+	 */
+	public void recordRollback();
+}
@@ -28,6 +28,8 @@ package dk.nsi.sdm4.ydelse.dao;
 
 import dk.nsi.sdm4.ydelse.relation.model.SSR;
 
+import java.util.List;
+
 public interface SSRWriteDAO extends SSRReadDAO {
 
     /**
@@ -52,4 +54,44 @@ public interface SSRWriteDAO extends SSRReadDAO {
      *             if something goes wrong in the process
      */
     public void deleteByExternalReference(String externalReference);
+
+    /**
+     * Deletes all {@link SSR}s in the database with any of the given external
+     * references, using one statement for many references instead of one for
+     * each.
+     * 
+     * @param externalReferences
+     *            The external references of the records to delete
+     * @return the number of records deleted
+     * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+     *             if something goes wrong in the process
+     */
+    public int deleteByExternalReferences(List<String> externalReferences);
+
+    /**
+     * Executes the actions in the given order. Consecutive insertions are sent to
+     * the database as multi-row INSERT statements, which need no driver settings,
+     * and consecutive deletions are combined as
+     * in {@link #deleteByExternalReferences(List)}, so the actions cost a few
+     * round trips for each run of insertions or deletions instead of one for
+     * each action. The primary keys of the inserted rows are not retrieved.
+     * 
+     * @param actions
+     *            The actions in the order they must be executed; noops are
+     *            skipped
+     * @throws dk.nsi.sdm4.ydelse.common.exception.DAOException
+     *             if something goes wrong in the process
+     */
+    public void execute(List<SsrAction> actions);
+
+    /**
+     * Returns a DAO that writes in the same way as this one, but to another
+     * table with the same columns as SSR, such as the staging table of a full
+     * reload.
+     * 
+     * @param table
+     *            The name of the table
+     * @see SSRReloadDAO
+     */
+    public SSRWriteDAO inTable(String table);
 }
@@ -24,15 +24,14 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
  */
-package dk.nsi.sdm4.ydelse.parser;
+package dk.nsi.sdm4.ydelse.dao;
 
 import dk.nsi.sdm4.ydelse.common.exception.DAOException;
-import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
 import dk.nsi.sdm4.ydelse.relation.model.SSR;
 
 public class SsrAction {
 
-    enum ActionType {
+    public enum ActionType {
         INSERTION, DELETION, NOOP
     }
 
@@ -64,6 +63,32 @@ public class SsrAction {
 
     }
 
+    public boolean isInsertion() {
+        return actionType == ActionType.INSERTION;
+    }
+
+    public boolean isDeletion() {
+        return actionType == ActionType.DELETION;
+    }
+
+    public boolean isNoop() {
+        return actionType == ActionType.NOOP;
+    }
+
+    /**
+     * @return the SSR an insertion inserts, or null if this is not an insertion
+     */
+    public SSR getSsrForInsertion() {
+        return ssrForInsertion;
+    }
+
+    /**
+     * @return the external reference a deletion deletes, or null if this is not a deletion
+     */
+    public String getExternalReferenceForDeletion() {
+        return externalReferenceForDeletion;
+    }
+
     public void execute(SSRWriteDAO dao) throws DAOException {
         if (actionType == ActionType.INSERTION) {
             executeInsertion(dao);
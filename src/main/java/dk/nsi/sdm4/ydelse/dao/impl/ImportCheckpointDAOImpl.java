@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.dao.impl;
+
+import dk.nsi.sdm4.ydelse.common.exception.DAOException;
+import dk.nsi.sdm4.ydelse.dao.ImportCheckpointDAO;
+import dk.nsi.sdm4.ydelse.relation.model.ImportCheckpoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+public class ImportCheckpointDAOImpl implements ImportCheckpointDAO {
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Override
+	public List<ImportCheckpoint> find(ImportCheckpoint file) {
+		try {
+			return jdbcTemplate.query("SELECT * FROM ydelseimporterCheckpoint WHERE FileName=? AND FileSize=? AND FileChecksum=? ORDER BY Lane",
+					new CheckpointMapper(), file.getFileName(), file.getFileSize(), file.getFileChecksum());
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to find checkpoint for " + file.getFileName(), e);
+		}
+	}
+
+	@Override
+	public void save(ImportCheckpoint checkpoint) {
+		try {
+			jdbcTemplate.update("INSERT INTO ydelseimporterCheckpoint (FileName, FileSize, FileChecksum, Lane, Lanes, TargetTable, ByteOffset, LineNumber, Updated) " +
+					"VALUES (?, ?, ?, ?, ?, ?, ?, ?, NOW()) " +
+					"ON DUPLICATE KEY UPDATE Lanes=VALUES(Lanes), TargetTable=VALUES(TargetTable), ByteOffset=VALUES(ByteOffset), LineNumber=VALUES(LineNumber), Updated=VALUES(Updated)",
+					checkpoint.getFileName(), checkpoint.getFileSize(), checkpoint.getFileChecksum(), checkpoint.getLane(), checkpoint.getLanes(),
+					checkpoint.getTable(), checkpoint.getByteOffset(), checkpoint.getLineNumber());
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to save checkpoint " + checkpoint, e);
+		}
+	}
+
+	@Override
+	public void delete(ImportCheckpoint file) {
+		try {
+			jdbcTemplate.update("DELETE FROM ydelseimporterCheckpoint WHERE FileName=? AND FileSize=? AND FileChecksum=?",
+					file.getFileName(), file.getFileSize(), file.getFileChecksum());
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to delete checkpoint for " + file.getFileName(), e);
+		}
+	}
+
+	@Override
+	public long findDeltaGeneration() {
+		try {
+			List<Long> found = jdbcTemplate.queryForList("SELECT Generation FROM ydelseimporterDeltaGeneration WHERE Id=1", Long.class);
+			return found.isEmpty() ? 0 : found.get(0);
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to find delta generation", e);
+		}
+	}
+
+	@Override
+	public void saveDeltaGeneration(long generation) {
+		try {
+			jdbcTemplate.update("INSERT INTO ydelseimporterDeltaGeneration (Id, Generation, Updated) VALUES (1, ?, NOW()) " +
+					"ON DUPLICATE KEY UPDATE Generation=VALUES(Generation), Updated=VALUES(Updated)", generation);
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to save delta generation " + generation, e);
+		}
+	}
+
+	static class CheckpointMapper implements RowMapper<ImportCheckpoint> {
+		@Override
+		public ImportCheckpoint mapRow(ResultSet resultSet, int rowNum) throws SQLException {
+			return new ImportCheckpoint(resultSet.getString("FileName"), resultSet.getLong("FileSize"),
+					resultSet.getLong("FileChecksum"), resultSet.getString("TargetTable"), resultSet.getInt("Lane"), resultSet.getInt("Lanes"),
+					resultSet.getLong("ByteOffset"), resultSet.getLong("LineNumber"));
+		}
+	}
+}
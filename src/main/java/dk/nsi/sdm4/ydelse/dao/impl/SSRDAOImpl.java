@@ -29,6 +29,7 @@ package dk.nsi.sdm4.ydelse.dao.impl;
 import dk.nsi.sdm4.ydelse.common.exception.DAOException;
 import dk.nsi.sdm4.ydelse.common.splunk.SplunkLogger;
 import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
 import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
 import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
 import dk.nsi.sdm4.ydelse.relation.model.SSR;
@@ -37,28 +38,51 @@ import org.joda.time.Interval;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 
 import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
 public class SSRDAOImpl implements SSRWriteDAO {
     private static final SplunkLogger log = new SplunkLogger(SSRDAOImpl.class);
 
+	private static final String INSERT_SQL = "INSERT INTO %s (patientCpr, doctorOrganisationIdentifier, admittedStart, admittedEnd, externalReference) VALUES %s";
+	private static final String INSERT_ROW = "(?, ?, ?, ?, ?)";
+	private static final String DELETE_SQL = "DELETE FROM %s WHERE externalReference = ?";
+	private static final String DELETE_IN_SQL = "DELETE FROM %s WHERE externalReference IN (%s)";
+
+	/**
+	 * Kept well below max_allowed_packet, and small enough that each statement only locks a small part of the index
+	 */
+	static final int REFERENCES_PER_DELETE = 1000;
+
+	/**
+	 * About 100 bytes per row, so a statement stays well below max_allowed_packet
+	 */
+	static final int ROWS_PER_INSERT = 1000;
+
 	@Autowired
 	JdbcTemplate jdbcTemplate;
 	private SimpleJdbcInsert basedataInserter;
 
+	/**
+	 * The table written to and read from, SSR unless this DAO was made by {@link #inTable(String)}
+	 */
+	String table = "SSR";
+
 	@PostConstruct
 	protected void setupInserter() {
 		// vi bruger primært SimpleJdbcInsert fordi det er den letteste måde at få fat i den genererede primærnøgle fra databasen
 		basedataInserter = new SimpleJdbcInsert(jdbcTemplate)
-				.withTableName("SSR")
+				.withTableName(table)
 				.usingColumns("patientCpr", "doctorOrganisationIdentifier", "admittedStart", "admittedEnd", "externalReference")
 				.usingGeneratedKeyColumns("pk");
 	}
@@ -84,7 +108,7 @@ public class SSRDAOImpl implements SSRWriteDAO {
     @Override
     public SSR getUsingPrimaryKey(long pk) throws DAOException {
 	    try {
-            return jdbcTemplate.queryForObject("SELECT * FROM SSR WHERE pk=?", new SSRMapper(), pk);
+            return jdbcTemplate.queryForObject("SELECT * FROM " + table + " WHERE pk=?", new SSRMapper(), pk);
 	    } catch (EmptyResultDataAccessException e) {
 		    throw new DAOException("No SSR with primary key " + pk);
 	    } catch (RuntimeException e) {
@@ -100,7 +124,7 @@ public class SSRDAOImpl implements SSRWriteDAO {
 
         try {
             startQueryTimestamp = System.currentTimeMillis();
-            resultSSR = jdbcTemplate.query("SELECT * FROM SSR WHERE patientCpr=? AND doctorOrganisationIdentifier=?", new SSRMapper(),
+            resultSSR = jdbcTemplate.query("SELECT * FROM " + table + " WHERE patientCpr=? AND doctorOrganisationIdentifier=?", new SSRMapper(),
 		            patientCpr.getHashedCpr(), doctorOrganisationIdentifier.toString());
             endQueryTimestamp = System.currentTimeMillis();
         } catch (RuntimeException e) {
@@ -116,7 +140,7 @@ public class SSRDAOImpl implements SSRWriteDAO {
     @Override
     public void deleteByExternalReference(String externalReference) throws DAOException {
 	    try {
-	        int numRows = jdbcTemplate.update("DELETE FROM SSR WHERE externalReference = ?", externalReference);
+	        int numRows = jdbcTemplate.update(String.format(DELETE_SQL, table), externalReference);
             log.debug("Deleted " + numRows + " for externalReference " + externalReference);
         } catch (RuntimeException e) {
             throw new DAOException("Unable to delete records with external reference " + externalReference
@@ -124,6 +148,110 @@ public class SSRDAOImpl implements SSRWriteDAO {
         }
     }
 
+	@Override
+	public int deleteByExternalReferences(List<String> externalReferences) throws DAOException {
+		int rows = 0;
+		try {
+			for (int start = 0; start < externalReferences.size(); start += REFERENCES_PER_DELETE) {
+				List<String> part = externalReferences.subList(start, Math.min(externalReferences.size(), start + REFERENCES_PER_DELETE));
+				StringBuilder parameters = new StringBuilder(3 * part.size());
+				for (int i = 0; i < part.size(); i++) {
+					parameters.append(i == 0 ? "?" : ", ?");
+				}
+				rows += jdbcTemplate.update(String.format(DELETE_IN_SQL, table, parameters), part.toArray());
+			}
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to delete records with " + externalReferences.size() + " external references from database", e);
+		}
+		log.debug("Deleted records for a batch of external references", "count", Integer.toString(externalReferences.size()),
+				"rows", Integer.toString(rows));
+		return rows;
+	}
+
+	@Override
+	public SSRWriteDAO inTable(String table) {
+		SSRDAOImpl dao = newInstance();
+		dao.jdbcTemplate = jdbcTemplate;
+		dao.table = table;
+		dao.setupInserter();
+		return dao;
+	}
+
+	/**
+	 * @return a new DAO of the same kind as this one, used by {@link #inTable(String)}
+	 */
+	protected SSRDAOImpl newInstance() {
+		return new SSRDAOImpl();
+	}
+
+	@Override
+	public void execute(List<SsrAction> actions) throws DAOException {
+		List<SsrAction> run = new ArrayList<SsrAction>();
+		for (SsrAction action : actions) {
+			if (!action.isInsertion() && !action.isDeletion()) {
+				continue;
+			}
+			if (!run.isEmpty() && run.get(0).isInsertion() != action.isInsertion()) {
+				executeRun(run);
+				run.clear();
+			}
+			run.add(action);
+		}
+		if (!run.isEmpty()) {
+			executeRun(run);
+		}
+	}
+
+	private void executeRun(List<SsrAction> run) {
+		if (run.get(0).isInsertion()) {
+			insertAll(run);
+		} else {
+			deleteAll(run);
+		}
+	}
+
+	/**
+	 * Inserts a run of consecutive insertions with multi-row INSERT statements of up to {@value #ROWS_PER_INSERT} rows.
+	 * The statements are built here rather than with a JDBC batch, which MySQL Connector/J only sends as one
+	 * statement when rewriteBatchedStatements is set on the datasource.
+	 */
+	protected void insertAll(List<SsrAction> run) {
+		try {
+			for (int start = 0; start < run.size(); start += ROWS_PER_INSERT) {
+				final List<SsrAction> part = run.subList(start, Math.min(run.size(), start + ROWS_PER_INSERT));
+				StringBuilder rows = new StringBuilder((INSERT_ROW.length() + 2) * part.size());
+				for (int i = 0; i < part.size(); i++) {
+					rows.append(i == 0 ? INSERT_ROW : ", " + INSERT_ROW);
+				}
+				jdbcTemplate.update(String.format(INSERT_SQL, table, rows), new PreparedStatementSetter() {
+					@Override
+					public void setValues(PreparedStatement statement) throws SQLException {
+						int parameter = 1;
+						for (SsrAction action : part) {
+							SSR ssr = action.getSsrForInsertion();
+							statement.setString(parameter++, ssr.getPatientCpr().getHashedCpr());
+							statement.setString(parameter++, ssr.getDoctorOrganisationIdentifier().toString());
+							statement.setTimestamp(parameter++, new Timestamp(ssr.getTreatmentInterval().getStartMillis()));
+							statement.setTimestamp(parameter++, new Timestamp(ssr.getTreatmentInterval().getEndMillis()));
+							statement.setString(parameter++, ssr.getExternalReference());
+						}
+					}
+				});
+			}
+			log.debug("SSRs inserted", "count", Integer.toString(run.size()));
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to insert a batch of " + run.size() + " records into database", e);
+		}
+	}
+
+	private void deleteAll(List<SsrAction> run) {
+		List<String> externalReferences = new ArrayList<String>(run.size());
+		for (SsrAction action : run) {
+			externalReferences.add(action.getExternalReferenceForDeletion());
+		}
+		deleteByExternalReferences(externalReferences);
+	}
+
 	class SSRMapper implements RowMapper<SSR> {
 		@Override
 		public SSR mapRow(ResultSet resultSet, int rowNum) throws SQLException {
@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.dao.impl;
+
+import dk.nsi.sdm4.ydelse.common.exception.DAOException;
+import dk.nsi.sdm4.ydelse.common.splunk.SplunkLogger;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes runs of insertions with MySQL's bulk loader instead of multi-row INSERTs. Each run is written to a temporary
+ * tab-separated file, which is loaded into SSR with LOAD DATA LOCAL INFILE in the current transaction, so checkpoints
+ * and deletions work exactly as with {@link SSRDAOImpl}: deletions are still sent as DELETE statements, and a run is loaded
+ * before the deletions after it are executed.
+ * <p>
+ * The data source must allow local infiles, i.e. the MySQL JDBC URL must have allowLoadLocalInfile=true and the server
+ * must have local_infile enabled.
+ */
+public class SSRLoadDataDAOImpl extends SSRDAOImpl {
+	private static final SplunkLogger log = new SplunkLogger(SSRLoadDataDAOImpl.class);
+
+	private static final String LOAD_DATA_SQL = "LOAD DATA LOCAL INFILE '%s' INTO TABLE %s CHARACTER SET utf8"
+			+ " FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n'"
+			+ " (patientCpr, doctorOrganisationIdentifier, admittedStart, admittedEnd, externalReference)";
+
+	/**
+	 * MySQL reads datetimes in the connection's time zone, which is the time zone a Timestamp is sent in as well
+	 */
+	private static final DateTimeFormatter DATETIME_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss");
+
+	@Override
+	protected SSRDAOImpl newInstance() {
+		return new SSRLoadDataDAOImpl();
+	}
+
+	@Override
+	protected void insertAll(List<SsrAction> run) throws DAOException {
+		File file = null;
+		try {
+			file = File.createTempFile("ssr-load", ".tsv");
+			writeRows(run, file);
+			int rows = jdbcTemplate.update(String.format(LOAD_DATA_SQL, quote(file.getAbsolutePath()), table));
+			if (rows != run.size()) {
+				throw new DAOException("Loaded " + rows + " of " + run.size() + " records into database");
+			}
+			log.debug("SSRs loaded", "count", Integer.toString(rows));
+		} catch (DAOException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new DAOException("Unable to write a batch of " + run.size() + " records to " + file, e);
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to load a batch of " + run.size() + " records into database", e);
+		} finally {
+			if (file != null && !file.delete()) {
+				log.info("Could not delete temporary file", "file", file.getAbsolutePath());
+			}
+		}
+	}
+
+	private static void writeRows(List<SsrAction> run, File file) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 256 * 1024);
+		try {
+			StringBuilder row = new StringBuilder(128);
+			for (SsrAction action : run) {
+				row.setLength(0);
+				appendRow(row, action.getSsrForInsertion());
+				out.append(row);
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Appends the SSR as one line in the format LOAD_DATA_SQL reads
+	 */
+	static void appendRow(StringBuilder row, SSR ssr) {
+		appendField(row, ssr.getPatientCpr().getHashedCpr()).append('\t');
+		appendField(row, ssr.getDoctorOrganisationIdentifier().toString()).append('\t');
+		row.append(DATETIME_FORMAT.print(ssr.getTreatmentInterval().getStartMillis())).append('\t');
+		row.append(DATETIME_FORMAT.print(ssr.getTreatmentInterval().getEndMillis())).append('\t');
+		appendField(row, ssr.getExternalReference()).append('\n');
+	}
+
+	private static StringBuilder appendField(StringBuilder row, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '\t' || c == '\n') {
+				row.append('\\').append(c == '\t' ? 't' : c == '\n' ? 'n' : '\\');
+			} else {
+				row.append(c);
+			}
+		}
+		return row;
+	}
+
+	private static String quote(String path) {
+		return path.replace("\\", "\\\\").replace("'", "\\'");
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.dao.impl;
+
+import dk.nsi.sdm4.ydelse.common.exception.DAOException;
+import dk.nsi.sdm4.ydelse.common.splunk.SplunkLogger;
+import dk.nsi.sdm4.ydelse.dao.SSRReloadDAO;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SSRReloadDAOImpl implements SSRReloadDAO {
+	private static final SplunkLogger log = new SplunkLogger(SSRReloadDAOImpl.class);
+
+	private static final String TABLE = "SSR";
+	private static final String STAGING_TABLE = "SSR_staging";
+	private static final String PREVIOUS_TABLE = "SSR_previous";
+	/**
+	 * Kept on the staging table, as the deletions of a reload look up rows by externalReference
+	 */
+	static final String EXTERNAL_REFERENCE_INDEX = "SSR_EXTERNAL_REFERENCE_INDEX";
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Override
+	public String getStagingTable() {
+		return STAGING_TABLE;
+	}
+
+	@Override
+	public boolean stagingTableExists() {
+		return tableExists(STAGING_TABLE);
+	}
+
+	@Override
+	public void createStagingTable() {
+		try {
+			jdbcTemplate.execute("DROP TABLE IF EXISTS " + STAGING_TABLE);
+			jdbcTemplate.execute("CREATE TABLE " + STAGING_TABLE + " LIKE " + TABLE);
+			List<String> drops = new ArrayList<String>();
+			for (String index : secondaryIndexes().keySet()) {
+				drops.add("DROP INDEX " + index);
+			}
+			if (!drops.isEmpty()) {
+				jdbcTemplate.execute("ALTER TABLE " + STAGING_TABLE + " " + StringUtils.join(drops, ", "));
+			}
+			log.info("Staging table created", "table", STAGING_TABLE, "droppedIndexes", Integer.toString(drops.size()));
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to create staging table " + STAGING_TABLE, e);
+		}
+	}
+
+	@Override
+	public void rebuildIndexes() {
+		try {
+			List<String> adds = new ArrayList<String>();
+			for (Map.Entry<String, String> index : secondaryIndexes().entrySet()) {
+				adds.add("ADD " + index.getValue());
+			}
+			if (!adds.isEmpty()) {
+				long start = System.currentTimeMillis();
+				jdbcTemplate.execute("ALTER TABLE " + STAGING_TABLE + " " + StringUtils.join(adds, ", "));
+				log.info("Indexes rebuilt", "table", STAGING_TABLE, "indexes", Integer.toString(adds.size()),
+						"durationMillis", Long.toString(System.currentTimeMillis() - start));
+			}
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to rebuild indexes on " + STAGING_TABLE, e);
+		}
+	}
+
+	@Override
+	public long countRows() {
+		return count(TABLE);
+	}
+
+	@Override
+	public long countStagingRows() {
+		return count(STAGING_TABLE);
+	}
+
+	@Override
+	public void swap() {
+		try {
+			jdbcTemplate.execute("DROP TABLE IF EXISTS " + PREVIOUS_TABLE);
+			jdbcTemplate.execute("RENAME TABLE " + TABLE + " TO " + PREVIOUS_TABLE + ", " + STAGING_TABLE + " TO " + TABLE);
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to swap " + STAGING_TABLE + " in as " + TABLE, e);
+		}
+	}
+
+	@Override
+	public void rollback() {
+		if (!tableExists(PREVIOUS_TABLE)) {
+			throw new DAOException("There is no " + PREVIOUS_TABLE + " table to roll back to");
+		}
+		String replaced = TABLE + "_rolledback";
+		try {
+			jdbcTemplate.execute("DROP TABLE IF EXISTS " + replaced);
+			jdbcTemplate.execute("RENAME TABLE " + TABLE + " TO " + replaced + ", " + PREVIOUS_TABLE + " TO " + TABLE);
+			jdbcTemplate.execute("DROP TABLE " + replaced);
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to roll back to " + PREVIOUS_TABLE, e);
+		}
+	}
+
+	@Override
+	public void recordReload(String outcome, long rows) {
+		try {
+			int updated = jdbcTemplate.update("UPDATE ydelseimporterImportStatus SET ReloadOutcome=?, ReloadRows=?, ReloadTime=NOW() " +
+					"ORDER BY Id DESC LIMIT 1", outcome, rows);
+			if (updated == 0) {
+				log.info("No import status to record the reload on", "outcome", outcome, "rows", Long.toString(rows));
+			}
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to record reload outcome " + outcome, e);
+		}
+	}
+
+	@Override
+	public void recordRollback() {
+		try {
+			jdbcTemplate.update("UPDATE ydelseimporterImportStatus SET ReloadOutcome=?, ReloadTime=NOW() WHERE ReloadOutcome=? " +
+					"ORDER BY Id DESC LIMIT 1", ROLLED_BACK, SWAPPED);
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to record rollback", e);
+		}
+	}
+
+	private boolean tableExists(String table) {
+		try {
+			return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.TABLES WHERE TABLE_SCHEMA=DATABASE() AND TABLE_NAME=?",
+					Long.class, table) > 0;
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to find out whether " + table + " exists", e);
+		}
+	}
+
+	private long count(String table) {
+		try {
+			return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+		} catch (RuntimeException e) {
+			throw new DAOException("Unable to count rows in " + table, e);
+		}
+	}
+
+	/**
+	 * @return the definition of each secondary index on SSR that the staging table is loaded without, such as
+	 * "UNIQUE INDEX name (a, b)", by index name
+	 */
+	private Map<String, String> secondaryIndexes() {
+		List<Map<String, Object>> columns = jdbcTemplate.queryForList("SELECT INDEX_NAME, NON_UNIQUE, COLUMN_NAME, SUB_PART " +
+				"FROM information_schema.STATISTICS WHERE TABLE_SCHEMA=DATABASE() AND TABLE_NAME=? AND INDEX_NAME<>'PRIMARY' AND INDEX_NAME<>? " +
+				"ORDER BY INDEX_NAME, SEQ_IN_INDEX", TABLE, EXTERNAL_REFERENCE_INDEX);
+		Map<String, List<String>> columnsByIndex = new LinkedHashMap<String, List<String>>();
+		Map<String, Boolean> unique = new LinkedHashMap<String, Boolean>();
+		for (Map<String, Object> column : columns) {
+			String index = (String) column.get("INDEX_NAME");
+			if (!columnsByIndex.containsKey(index)) {
+				columnsByIndex.put(index, new ArrayList<String>());
+				unique.put(index, ((Number) column.get("NON_UNIQUE")).intValue() == 0);
+			}
+			Object subPart = column.get("SUB_PART");
+			columnsByIndex.get(index).add(column.get("COLUMN_NAME") + (subPart != null ? "(" + subPart + ")" : ""));
+		}
+
+		Map<String, String> indexes = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, List<String>> index : columnsByIndex.entrySet()) {
+			indexes.put(index.getKey(), (unique.get(index.getKey()) ? "UNIQUE " : "") + "INDEX " + index.getKey()
+					+ " (" + StringUtils.join(index.getValue(), ", ") + ")");
+		}
+		return indexes;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads an SSR file that is gzip or deflate compressed, decompressing it while it is read, so the extract does not have
+ * to be decompressed to disk first. Decompression runs on its own thread and overlaps with parsing.
+ * The input offset of each chunk is a position in the compressed file, so progress can be compared to the file size.
+ * <p>
+ * gzip and zlib-wrapped deflate are recognised from the first bytes of the file, raw deflate only from the file name
+ * ending in ".deflate". A file ending in ".gz" is always read as gzip. A stream is recognised the same way, from its
+ * name and its first bytes.
+ */
+public class CompressedSsrFileReader implements SsrChunkSource {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int READ_AHEAD_BLOCK_SIZE = 256 * 1024;
+	private static final int READ_AHEAD_BLOCKS = 8;
+
+	public enum Compression {
+		NONE, GZIP, ZLIB, RAW_DEFLATE
+	}
+
+	private final CountingInputStream compressed;
+	private final SsrLineReader lines;
+
+	public CompressedSsrFileReader(File file, int chunkSize) throws IOException {
+		this(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), compressionOf(file), chunkSize);
+	}
+
+	/**
+	 * Reads a compressed stream that is still arriving, for instance a pipe from the transfer of the extract
+	 * @see #compressionOf(String, InputStream)
+	 */
+	public CompressedSsrFileReader(InputStream in, Compression compression, int chunkSize) throws IOException {
+		if (compression == Compression.NONE) {
+			in.close();
+			throw new IllegalArgumentException("The input is not compressed");
+		}
+
+		compressed = new CountingInputStream(in);
+		try {
+			InputStream decompressed = new ReadAheadInputStream(decompressing(compressed, compression),
+					READ_AHEAD_BLOCK_SIZE, READ_AHEAD_BLOCKS, "ydelseimporter-inflater");
+			lines = new SsrLineReader(decompressed, SsrLineReader.DEFAULT_BUFFER_SIZE, chunkSize);
+		} catch (IOException e) {
+			compressed.close();
+			throw e;
+		}
+	}
+
+	private static InputStream decompressing(InputStream in, Compression compression) throws IOException {
+		switch (compression) {
+			case GZIP:
+				return new GZIPInputStream(in, BUFFER_SIZE);
+			case ZLIB:
+				return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE);
+			default:
+				return new InflaterInputStream(in, new Inflater(true), BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * @return how the file is compressed, judged from its name and its first two bytes
+	 */
+	static Compression compressionOf(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 2);
+		try {
+			return compressionOf(file.getName(), in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Looks at the first two bytes of the stream without consuming them
+	 * @param in a stream that supports mark and reset
+	 * @return how the stream is compressed, judged from its name and its first two bytes
+	 */
+	public static Compression compressionOf(String name, InputStream in) throws IOException {
+		String lowerCaseName = name.toLowerCase();
+		if (lowerCaseName.endsWith(".gz")) {
+			return Compression.GZIP;
+		}
+		if (lowerCaseName.endsWith(".deflate")) {
+			return Compression.RAW_DEFLATE;
+		}
+
+		in.mark(2);
+		int first = in.read();
+		int second = in.read();
+		in.reset();
+		if (first == 0x1f && second == 0x8b) {
+			return Compression.GZIP;
+		}
+		if (first >= 0 && second >= 0 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0) {
+			return Compression.ZLIB;
+		}
+		return Compression.NONE;
+	}
+
+	public static boolean isCompressed(File file) throws IOException {
+		return compressionOf(file) != Compression.NONE;
+	}
+
+	/**
+	 * Skips to the given offset in the decompressed bytes. The file has to be decompressed up to that point.
+	 * @see SsrLineReader#resumeAt(long, long)
+	 */
+	public void resumeAt(long offset, long lineNumber) throws IOException {
+		lines.resumeAt(offset, lineNumber);
+	}
+
+	@Override
+	public SsrChunk nextChunk() throws IOException {
+		SsrChunk chunk = lines.nextChunk();
+		if (chunk != null) {
+			chunk.setInputOffset(compressed.getByteCount());
+		}
+		return chunk;
+	}
+
+	/**
+	 * @return number of compressed bytes read from the file so far, including what has been read ahead
+	 */
+	public long getCompressedBytesRead() {
+		return compressed.getByteCount();
+	}
+
+	/**
+	 * @return number of decompressed bytes consumed so far
+	 */
+	public long getBytesRead() {
+		return lines.getBytesRead();
+	}
+
+	@Override
+	public void close() throws IOException {
+		lines.close();
+	}
+}
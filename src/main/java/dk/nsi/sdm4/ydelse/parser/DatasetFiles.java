@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bestemmer rækkefølgen af filerne i et datasæt. Handlingerne fra filerne udføres i denne rækkefølge, så hvis samme
+ * externalReference optræder i flere filer, er det handlingen fra den sidste fil, der står tilbage.
+ * <p>
+ * Indeholder datasættet en manifest-fil, bestemmer den rækkefølgen: ét filnavn pr. linie, tomme linier og linier der
+ * starter med # ignoreres. Alle filer i datasættet skal stå i manifestet, og alle filer i manifestet skal findes.
+ * Uden manifest sorteres filerne efter navn.
+ * <p>
+ * Mapper i datasættet ignoreres. Skjulte filer og editorers midlertidige filer, fx .DS_Store, .ssr.csv.swp og
+ * ssr.csv~, afviser datasættet, da de ellers først fejler dybt inde i læsningen uden at sige hvorfor.
+ */
+public class DatasetFiles {
+	public static final String MANIFEST_NAME = "manifest.txt";
+
+	private DatasetFiles() {
+	}
+
+	/**
+	 * @return filerne i datasættet i den rækkefølge, deres handlinger skal udføres, uden selve manifestet
+	 */
+	public static List<File> inOrder(File dataset) {
+		List<File> files = filesIn(dataset);
+		File manifest = new File(dataset, MANIFEST_NAME);
+		if (!manifest.isFile()) {
+			Collections.sort(files);
+			return files;
+		}
+
+		List<File> ordered = new ArrayList<File>();
+		for (String name : namesInManifest(manifest)) {
+			File file = new File(dataset, name);
+			if (!file.isFile() || !file.getParentFile().equals(dataset)) {
+				throw new ParserException("Manifest " + manifest.getAbsolutePath() + " lists " + name + ", which is not a file in the dataset. Will not continue.");
+			}
+			ordered.add(file);
+		}
+
+		Set<File> unlisted = new HashSet<File>(files);
+		unlisted.remove(manifest);
+		unlisted.removeAll(ordered);
+		if (!unlisted.isEmpty()) {
+			throw new ParserException("Dataset " + dataset.getAbsolutePath() + " contains " + unlisted.size() + " files that are not listed in " + MANIFEST_NAME + ", e.g. " + unlisted.iterator().next().getName() + ". Will not continue.");
+		}
+		return ordered;
+	}
+
+	/**
+	 * @return de almindelige filer i datasættet, i den rækkefølge listFiles giver dem
+	 */
+	private static List<File> filesIn(File dataset) {
+		File[] entries = dataset.listFiles();
+		if (entries == null) {
+			throw new ParserException("Dataset " + dataset.getAbsolutePath() + " is not a directory. Will not continue.");
+		}
+
+		List<File> files = new ArrayList<File>();
+		for (File entry : entries) {
+			if (!entry.isFile()) {
+				continue;
+			}
+			if (isHiddenOrTemporary(entry)) {
+				throw new ParserException("Dataset " + dataset.getAbsolutePath() + " contains the hidden or temporary file "
+						+ entry.getName() + ", which is not an SSR file. Will not continue.");
+			}
+			files.add(entry);
+		}
+		return files;
+	}
+
+	private static boolean isHiddenOrTemporary(File file) {
+		String name = file.getName();
+		return name.startsWith(".") || name.endsWith("~") || name.endsWith(".swp") || file.isHidden();
+	}
+
+	private static Set<String> namesInManifest(File manifest) {
+		List<String> lines;
+		try {
+			lines = FileUtils.readLines(manifest, "UTF-8");
+		} catch (IOException e) {
+			throw new ParserException("Could not read manifest " + manifest.getAbsolutePath(), e);
+		}
+
+		Set<String> names = new LinkedHashSet<String>();
+		for (String line : lines) {
+			String name = line.trim();
+			if (name.length() == 0 || name.startsWith("#")) {
+				continue;
+			}
+			if (!names.add(name)) {
+				throw new ParserException("Manifest " + manifest.getAbsolutePath() + " lists " + name + " more than once. Will not continue.");
+			}
+		}
+		return names;
+	}
+}
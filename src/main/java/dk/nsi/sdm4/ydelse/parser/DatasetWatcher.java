@@ -0,0 +1,356 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.Parser;
+import dk.nsi.sdm4.ydelse.common.splunk.SplunkLogger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Starter importen af et datasæt, så snart det er leveret, i stedet for at vente på spoolerens næste gennemløb.
+ * Bruges kun, når spooler.ydelseimporter.trigger er "watch".
+ * <p>
+ * Hvert datasæt er en undermappe i watch-mappen. Det regnes for færdigleveret, når det indeholder en {@value #COMPLETION_MARKER}-fil,
+ * eller når antal filer, størrelse og ændringstid har stået stille i den konfigurerede periode. Hændelser fra
+ * WatchService vækker kun tråden; mappen gennemgås igen efter hver bølge af hændelser og mindst en gang i sekundet,
+ * så hændelser, der går tabt, ikke efterlader et datasæt.
+ * <p>
+ * Et datasæt importeres aldrig to gange: det flyttes atomisk til {@value #PROCESSING_DIR}, før importen starter, og
+ * derefter til {@value #PROCESSED_DIR} eller, hvis importen fejler, til {@value #REJECTED_DIR}. Leveres et datasæt med
+ * samme navn igen, afvises det. Et datasæt, der stadig ligger i {@value #PROCESSING_DIR} ved opstart, blev afbrudt og
+ * fortsættes fra sine checkpoints.
+ */
+public class DatasetWatcher {
+	private static final SplunkLogger log = new SplunkLogger(DatasetWatcher.class);
+
+	static final String SCHEDULED_TRIGGER = "schedule";
+	static final String WATCH_TRIGGER = "watch";
+
+	public static final String COMPLETION_MARKER = "COMPLETE";
+	static final String PROCESSING_DIR = ".processing";
+	static final String PROCESSED_DIR = ".processed";
+	static final String REJECTED_DIR = ".rejected";
+
+	private static final long RESCAN_INTERVAL_MILLIS = 1000;
+	private static final long DEBOUNCE_MILLIS = 100;
+	private static final long MAX_BACKOFF_MILLIS = 60000;
+
+	@Autowired
+	Parser parser;
+
+	/**
+	 * "schedule" overlader datasættene til spooleren, "watch" starter importen, så snart et datasæt er leveret
+	 */
+	@Value("${spooler.ydelseimporter.trigger}")
+	String trigger = SCHEDULED_TRIGGER;
+
+	@Value("${spooler.ydelseimporter.watchdir}")
+	File watchDir;
+
+	/**
+	 * Så længe skal et datasæt uden {@value #COMPLETION_MARKER}-fil have stået uændret, før det importeres
+	 */
+	@Value("${spooler.ydelseimporter.watchquietmillis}")
+	long quietMillis = 5000;
+
+	private final Map<String, DatasetState> pending = new HashMap<String, DatasetState>();
+	private WatchService watchService;
+	private Thread thread;
+	private volatile boolean running;
+
+	@PostConstruct
+	public void start() throws IOException {
+		if (!WATCH_TRIGGER.equals(trigger)) {
+			return;
+		}
+		for (String dir : Arrays.asList(PROCESSING_DIR, PROCESSED_DIR, REJECTED_DIR)) {
+			Files.createDirectories(new File(watchDir, dir).toPath());
+		}
+		watchService = FileSystems.getDefault().newWatchService();
+		watchDir.toPath().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "ydelseimporter-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		log.info("Watching for datasets", "dir", watchDir.getAbsolutePath());
+	}
+
+	/**
+	 * En import, der kører, stoppes ved næste batch-grænse. Datasættet bliver liggende i {@value #PROCESSING_DIR} og
+	 * fortsættes ved næste opstart
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException, IOException {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		thread.interrupt();
+		thread.join();
+		watchService.close();
+		thread = null;
+	}
+
+	/**
+	 * Tråden stopper kun ved nedlukning. Fejler et gennemløb, fx fordi et datasæt ikke kan læses eller flyttes, logges
+	 * fejlen, og tråden prøver igen efter en pause, der fordobles for hver fejl i træk, op til et minut
+	 */
+	private void watch() {
+		boolean resumed = false;
+		int failures = 0;
+		try {
+			while (running) {
+				try {
+					if (!resumed) {
+						resumeInterrupted();
+						resumed = true;
+					}
+					awaitChanges();
+					scan();
+					importReady();
+					failures = 0;
+				} catch (ClosedWatchServiceException e) {
+					throw e;
+				} catch (RuntimeException e) {
+					long backoff = Math.min(MAX_BACKOFF_MILLIS, RESCAN_INTERVAL_MILLIS << Math.min(failures, 6));
+					failures++;
+					log.error(e, "Dataset watcher failed, retrying", "dir", watchDir.getAbsolutePath(),
+							"failures", String.valueOf(failures), "backoffMillis", String.valueOf(backoff));
+					Thread.sleep(backoff);
+				}
+			}
+		} catch (InterruptedException e) {
+			// Lukkes ned
+		} catch (ClosedWatchServiceException e) {
+			// Lukkes ned
+		}
+	}
+
+	private void resumeInterrupted() {
+		for (File interrupted : datasetsIn(new File(watchDir, PROCESSING_DIR))) {
+			log.info("Resuming interrupted dataset", "dataset", interrupted.getName());
+			importClaimed(interrupted);
+		}
+	}
+
+	/**
+	 * Venter, til der sker noget i watch-mappen, dog højst et sekund, og samler en bølge af hændelser til én
+	 */
+	private void awaitChanges() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + RESCAN_INTERVAL_MILLIS;
+		WatchKey key = watchService.poll(RESCAN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		while (key != null) {
+			key.pollEvents();
+			key.reset();
+			long remaining = deadline - System.currentTimeMillis();
+			key = remaining > 0 ? watchService.poll(Math.min(DEBOUNCE_MILLIS, remaining), TimeUnit.MILLISECONDS) : null;
+		}
+	}
+
+	/**
+	 * Noterer, hvilke datasæt der ligger i watch-mappen, og hvornår de sidst ændrede sig
+	 */
+	void scan() {
+		List<File> datasets = datasetsIn(watchDir);
+		List<String> names = new ArrayList<String>();
+		long now = System.currentTimeMillis();
+		for (File dataset : datasets) {
+			names.add(dataset.getName());
+			DatasetState state = new DatasetState(dataset, now);
+			DatasetState previous = pending.get(dataset.getName());
+			if (previous == null) {
+				register(dataset);
+				pending.put(dataset.getName(), state);
+			} else if (!previous.sameContentsAs(state)) {
+				pending.put(dataset.getName(), state);
+			}
+		}
+		pending.keySet().retainAll(names);
+	}
+
+	/**
+	 * Filer skrives ind i datasættets mappe, så den overvåges også, for at skrivningerne vækker tråden
+	 */
+	private void register(File dataset) {
+		try {
+			dataset.toPath().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+		} catch (IOException e) {
+			log.error(e, "Could not watch dataset, will rescan it periodically", "dataset", dataset.getAbsolutePath());
+		}
+	}
+
+	private void importReady() {
+		long now = System.currentTimeMillis();
+		List<String> names = new ArrayList<String>(pending.keySet());
+		Collections.sort(names);
+		for (String name : names) {
+			if (!running) {
+				return;
+			}
+			DatasetState state = pending.get(name);
+			if (state.completionMarked || (state.files > 0 && now - state.changedAt >= quietMillis)) {
+				pending.remove(name);
+				claimAndImport(new File(watchDir, name));
+			}
+		}
+	}
+
+	private void claimAndImport(File dataset) {
+		File claimed = new File(new File(watchDir, PROCESSING_DIR), dataset.getName());
+		if (new File(new File(watchDir, PROCESSED_DIR), dataset.getName()).exists() || claimed.exists()) {
+			log.error("Dataset has already been imported, rejecting it", "dataset", dataset.getName());
+			moveOrComplain(dataset, new File(watchDir, REJECTED_DIR));
+			return;
+		}
+		try {
+			Files.move(dataset.toPath(), claimed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.error(e, "Could not claim dataset, will try again", "dataset", dataset.getName());
+			return;
+		}
+		new File(claimed, COMPLETION_MARKER).delete();
+		importClaimed(claimed);
+	}
+
+	private void importClaimed(File claimed) {
+		try {
+			parser.process(claimed, claimed.getName());
+		} catch (RuntimeException e) {
+			if (!running) {
+				log.info("Import stopped by shutdown, will resume at next startup", "dataset", claimed.getName());
+				return;
+			}
+			log.error(e, "Import of dataset failed, rejecting it", "dataset", claimed.getName());
+			moveOrComplain(claimed, new File(watchDir, REJECTED_DIR));
+			return;
+		}
+		moveOrComplain(claimed, new File(watchDir, PROCESSED_DIR));
+	}
+
+	/**
+	 * Ligger der allerede et datasæt med samme navn, får det flyttede datasæt tidspunktet som endelse
+	 */
+	private void moveOrComplain(File dataset, File toDir) {
+		File target = new File(toDir, dataset.getName());
+		if (target.exists()) {
+			target = new File(toDir, dataset.getName() + "." + System.currentTimeMillis());
+		}
+		try {
+			Files.move(dataset.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.error(e, "Could not move dataset", "dataset", dataset.getAbsolutePath(), "to", target.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Datasættene er undermapperne; mapper der starter med punktum er watcherens egne
+	 */
+	private static List<File> datasetsIn(File dir) {
+		List<File> datasets = new ArrayList<File>();
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return datasets;
+		}
+		for (File file : files) {
+			if (file.isDirectory() && !file.getName().startsWith(".")) {
+				datasets.add(file);
+			}
+		}
+		Collections.sort(datasets);
+		return datasets;
+	}
+
+	/**
+	 * Det, der skal stå stille, før et datasæt uden {@value #COMPLETION_MARKER}-fil regnes for færdigleveret
+	 */
+	private static class DatasetState {
+		final int files;
+		final long size;
+		final long lastModified;
+		final boolean completionMarked;
+		final long changedAt;
+
+		DatasetState(File dataset, long now) {
+			File[] contents = dataset.listFiles();
+			int count = 0;
+			long totalSize = 0;
+			long newest = dataset.lastModified();
+			boolean marked = false;
+			if (contents != null) {
+				for (File file : contents) {
+					if (file.getName().equals(COMPLETION_MARKER)) {
+						marked = true;
+						continue;
+					}
+					count++;
+					totalSize += file.length();
+					newest = Math.max(newest, file.lastModified());
+				}
+			}
+			this.files = count;
+			this.size = totalSize;
+			this.lastModified = newest;
+			this.completionMarked = marked;
+			this.changedAt = now;
+		}
+
+		boolean sameContentsAs(DatasetState other) {
+			return files == other.files && size == other.size && lastModified == other.lastModified
+					&& completionMarked == other.completionMarked;
+		}
+	}
+}
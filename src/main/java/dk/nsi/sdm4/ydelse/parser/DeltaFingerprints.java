@@ -0,0 +1,355 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fingeraftryk af SSR-tabellen pr. externalReference, som delta-importen bruger til kun at sende de handlinger til
+ * databasen, der ændrer noget.
+ * <p>
+ * Fingeraftrykket for en reference er summen af et 64-bit hash af hver række med referencen, så det afhænger af
+ * rækkerne, men ikke af deres rækkefølge. Efter et udtræk kendes rækkerne for en reference, hvis udtrækket sletter
+ * referencen (de er så netop dem, der indsættes efter den sidste sletning), eller hvis de var kendt i forvejen.
+ * Ændrer udtrækket ikke fingeraftrykket for en reference, der slettes og indsættes igen, springes alle referencens
+ * handlinger over. Referencer der kun indsættes i, ændrer altid tabellen og udføres altid.
+ * <p>
+ * Referencer og rækker identificeres ved 64-bit hashes, så der bruges 16 bytes pr. reference på disken og cirka
+ * det dobbelte i hukommelsen for de referencer, udtrækket rører.
+ */
+public class DeltaFingerprints {
+	private static final long FILE_MAGIC = 0x5344454c54413031L; // "SDELTA01"
+
+	private static final long FINGERPRINT_MASK = (1L << 61) - 1;
+	private static final long DELETION_SEEN = 1L << 63;
+	private static final long PREVIOUS_UNKNOWN = 1L << 62;
+	private static final long CHANGED = 1L << 61;
+
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	// fingeraftryk fra sidste import, sorteret efter reference-hash
+	private final long[] previousReferences;
+	private final long[] previousFingerprints;
+
+	// referencer i dette udtræk: åben adressering, reference-hash 0 betyder tom plads
+	private long[] references = new long[INITIAL_CAPACITY];
+	private long[] states = new long[INITIAL_CAPACITY];
+	private int size;
+	private int changed;
+
+	private DeltaFingerprints(long[] previousReferences, long[] previousFingerprints) {
+		this.previousReferences = previousReferences;
+		this.previousFingerprints = previousFingerprints;
+	}
+
+	/**
+	 * @return fingeraftryk uden kendskab til tabellens indhold, så alle handlinger udføres
+	 */
+	public static DeltaFingerprints none() {
+		return new DeltaFingerprints(new long[0], new long[0]);
+	}
+
+	public static DeltaFingerprints read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024));
+		try {
+			if (in.readLong() != FILE_MAGIC) {
+				throw new IOException(file.getAbsolutePath() + " does not contain delta fingerprints");
+			}
+			int count = in.readInt();
+			long[] references = new long[count];
+			long[] fingerprints = new long[count];
+			for (int i = 0; i < count; i++) {
+				references[i] = in.readLong();
+				fingerprints[i] = in.readLong();
+				if (i > 0 && references[i] <= references[i - 1]) {
+					throw new IOException(file.getAbsolutePath() + " is not sorted at entry " + i);
+				}
+			}
+			return new DeltaFingerprints(references, fingerprints);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Første gennemløb: registrerer en handling fra udtrækket. Handlingerne skal komme i filens rækkefølge.
+	 */
+	public void add(SsrAction action) {
+		if (action.isNoop()) {
+			return;
+		}
+		boolean deletion = action.isDeletion();
+		String reference = deletion ? action.getExternalReferenceForDeletion() : action.getSsrForInsertion().getExternalReference();
+
+		int slot = slotFor(referenceHash(reference));
+		long state = states[slot];
+		if (deletion) {
+			state = DELETION_SEEN;
+		} else {
+			long fingerprint = (state + rowHash(action.getSsrForInsertion())) & FINGERPRINT_MASK;
+			state = (state & ~FINGERPRINT_MASK) | fingerprint;
+		}
+		states[slot] = state;
+	}
+
+	/**
+	 * Afgør efter første gennemløb, hvilke referencer der ændres af udtrækket.
+	 * @return antal ændrede referencer
+	 */
+	public int decideChanges() {
+		changed = 0;
+		for (int slot = 0; slot < references.length; slot++) {
+			if (references[slot] == 0) {
+				continue;
+			}
+			long state = states[slot];
+			boolean unchanged = false;
+			if ((state & DELETION_SEEN) != 0) {
+				int previous = findPrevious(references[slot]);
+				unchanged = previous >= 0 && previousFingerprints[previous] == (state & FINGERPRINT_MASK);
+			}
+			if (!unchanged) {
+				states[slot] = state | CHANGED;
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Andet gennemløb: skal handlingen sendes til databasen?
+	 */
+	public boolean isChanged(SsrAction action) {
+		if (action.isNoop()) {
+			return false;
+		}
+		String reference = action.isDeletion() ? action.getExternalReferenceForDeletion()
+				: action.getSsrForInsertion().getExternalReference();
+		int slot = findSlot(referenceHash(reference));
+		return slot < 0 || (states[slot] & CHANGED) != 0;
+	}
+
+	/**
+	 * @return antal referencer, udtrækket indeholder handlinger for
+	 */
+	public int getReferenceCount() {
+		return size;
+	}
+
+	public int getChangedReferenceCount() {
+		return changed;
+	}
+
+	/**
+	 * Skriver fingeraftrykkene for tabellen, som den ser ud efter udtrækket: de kendte referencer fra udtrækket og de
+	 * referencer fra sidste import, som udtrækket ikke rører. Filen skrives færdig og synkroniseres til disken, før
+	 * den omdøbes på plads.
+	 */
+	public void write(File file) throws IOException {
+		long[] newReferences = new long[size];
+		long[] newFingerprints = new long[size];
+		int known = 0;
+		for (int slot = 0; slot < references.length; slot++) {
+			if (references[slot] != 0 && (states[slot] & PREVIOUS_UNKNOWN) == 0) {
+				newReferences[known] = references[slot];
+				newFingerprints[known] = states[slot] & FINGERPRINT_MASK;
+				known++;
+			}
+		}
+		sort(newReferences, newFingerprints, 0, known - 1);
+
+		int count = known;
+		for (long previousReference : previousReferences) {
+			if (findSlot(previousReference) < 0) {
+				count++;
+			}
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tmp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1024 * 1024));
+		try {
+			out.writeLong(FILE_MAGIC);
+			out.writeInt(count);
+			int i = 0;
+			int j = 0;
+			while (i < known || j < previousReferences.length) {
+				if (j < previousReferences.length && findSlot(previousReferences[j]) >= 0) {
+					j++; // erstattet eller ukendt efter dette udtræk
+				} else if (j == previousReferences.length || (i < known && newReferences[i] < previousReferences[j])) {
+					out.writeLong(newReferences[i]);
+					out.writeLong(newFingerprints[i]);
+					i++;
+				} else {
+					out.writeLong(previousReferences[j]);
+					out.writeLong(previousFingerprints[j]);
+					j++;
+				}
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Could not rename " + tmp.getAbsolutePath() + " to " + file.getAbsolutePath());
+		}
+	}
+
+	private int slotFor(long reference) {
+		int slot = findSlot(reference);
+		if (slot >= 0) {
+			return slot;
+		}
+		if (2 * (size + 1) > references.length) {
+			grow();
+		}
+		slot = ~findSlot(reference);
+		references[slot] = reference;
+		int previous = findPrevious(reference);
+		states[slot] = previous >= 0 ? previousFingerprints[previous] : PREVIOUS_UNKNOWN;
+		size++;
+		return slot;
+	}
+
+	/**
+	 * @return pladsen for referencen, eller -(den tomme plads, den skal ind på) - 1
+	 */
+	private int findSlot(long reference) {
+		int mask = references.length - 1;
+		int slot = (int) (reference ^ (reference >>> 32)) & mask;
+		while (references[slot] != 0) {
+			if (references[slot] == reference) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return ~slot;
+	}
+
+	private void grow() {
+		long[] oldReferences = references;
+		long[] oldStates = states;
+		references = new long[oldReferences.length * 2];
+		states = new long[oldStates.length * 2];
+		for (int i = 0; i < oldReferences.length; i++) {
+			if (oldReferences[i] != 0) {
+				int slot = ~findSlot(oldReferences[i]);
+				references[slot] = oldReferences[i];
+				states[slot] = oldStates[i];
+			}
+		}
+	}
+
+	private int findPrevious(long reference) {
+		int index = Arrays.binarySearch(previousReferences, reference);
+		return index >= 0 ? index : -1;
+	}
+
+	static long referenceHash(String reference) {
+		long hash = mix(hash(0xcbf29ce484222325L, reference));
+		return hash != 0 ? hash : 1; // 0 markerer en tom plads
+	}
+
+	static long rowHash(SSR ssr) {
+		long hash = 0xcbf29ce484222325L;
+		hash = hash(hash, ssr.getPatientCpr().getHashedCpr());
+		hash = hash(hash, ssr.getDoctorOrganisationIdentifier().toString());
+		hash = hash(hash, ssr.getTreatmentInterval().getStartMillis());
+		hash = hash(hash, ssr.getTreatmentInterval().getEndMillis());
+		hash = hash(hash, ssr.getExternalReference());
+		return mix(hash);
+	}
+
+	// FNV-1a over tegnene, efterfulgt af en finalizer, så hashet kan lægges sammen uden at bits klumper sig
+	private static long hash(long hash, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= 0xff; // adskiller felterne
+		return hash * 0x100000001b3L;
+	}
+
+	private static long hash(long hash, long value) {
+		return (hash ^ mix(value)) * 0x100000001b3L;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static void sort(long[] keys, long[] values, int low, int high) {
+		while (low < high) {
+			long pivot = keys[(low + high) >>> 1];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (keys[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					long key = keys[i];
+					keys[i] = keys[j];
+					keys[j] = key;
+					long value = values[i];
+					values[i] = values[j];
+					values[j] = value;
+					i++;
+					j--;
+				}
+			}
+			// rekursion på den mindste halvdel holder stakken lille
+			if (j - low < high - i) {
+				sort(keys, values, low, j);
+				low = i;
+			} else {
+				sort(keys, values, i, high);
+				high = j;
+			}
+		}
+	}
+}
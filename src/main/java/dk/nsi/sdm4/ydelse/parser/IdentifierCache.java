@@ -0,0 +1,163 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
+import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Canonicalizing caches for the identifiers of the actions of an import. An extract holds only a few thousand distinct
+ * doctor organisation identifiers, and patients repeat heavily, so most lines can share an instance that has been
+ * validated and created once instead of creating and validating a new one.
+ * <p>
+ * Each cache is a direct mapped table: an identifier whose slot holds another identifier takes the slot over, so a
+ * cache never holds more identifiers than it has slots, and an identifier that has been pushed out is simply validated
+ * and created again the next time. The tables are shared by the parser threads without locks; the identifiers are
+ * immutable, so it does not matter which thread's instance ends up in a slot.
+ */
+public class IdentifierCache {
+	private static final int DOCTOR_BITS = 14;
+	private static final int PATIENT_BITS = 16;
+
+	// estimated size of an identifier with its String and char[] on a 64 bit JVM with compressed references
+	static final int DOCTOR_ORGANISATION_IDENTIFIER_BYTES = 72;
+	static final int HASHED_CPR_BYTES = 136;
+
+	private static final int DOCTOR_HITS = 0;
+	private static final int DOCTOR_MISSES = 1;
+	private static final int PATIENT_HITS = 2;
+	private static final int PATIENT_MISSES = 3;
+
+	private final AtomicReferenceArray<DoctorOrganisationIdentifier> doctors = new AtomicReferenceArray<DoctorOrganisationIdentifier>(1 << DOCTOR_BITS);
+	private final AtomicReferenceArray<HashedCpr> patients = new AtomicReferenceArray<HashedCpr>(1 << PATIENT_BITS);
+	private final StripedCounters counts = new StripedCounters(4, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * @param chars the identifier in the first length chars
+	 * @throws IllegalArgumentException like {@link DoctorOrganisationIdentifier#newInstance(String)}
+	 */
+	public DoctorOrganisationIdentifier doctorOrganisationIdentifier(char[] chars, int length) {
+		int slot = slot(chars, length, DOCTOR_BITS);
+		DoctorOrganisationIdentifier cached = doctors.get(slot);
+		if (cached != null && sameChars(cached.toString(), chars, length)) {
+			counts.increment(DOCTOR_HITS);
+			return cached;
+		}
+		DoctorOrganisationIdentifier created = DoctorOrganisationIdentifier.newInstance(new String(chars, 0, length));
+		doctors.lazySet(slot, created);
+		counts.increment(DOCTOR_MISSES);
+		return created;
+	}
+
+	/**
+	 * @param chars the hashed cpr in the first length chars
+	 * @throws IllegalArgumentException like {@link HashedCpr#buildFromHashedString(String)}
+	 */
+	public HashedCpr patientCpr(char[] chars, int length) {
+		int slot = slot(chars, length, PATIENT_BITS);
+		HashedCpr cached = patients.get(slot);
+		if (cached != null && sameChars(cached.getHashedCpr(), chars, length)) {
+			counts.increment(PATIENT_HITS);
+			return cached;
+		}
+		HashedCpr created = HashedCpr.buildFromHashedString(new String(chars, 0, length));
+		patients.lazySet(slot, created);
+		counts.increment(PATIENT_MISSES);
+		return created;
+	}
+
+	/**
+	 * Lets go of the cached identifiers, but keeps the counts
+	 */
+	public void clear() {
+		for (int i = 0; i < doctors.length(); i++) {
+			doctors.set(i, null);
+		}
+		for (int i = 0; i < patients.length(); i++) {
+			patients.set(i, null);
+		}
+	}
+
+	private static int slot(char[] chars, int length, int bits) {
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		return (hash * 0x9E3779B1) >>> (32 - bits);
+	}
+
+	private static boolean sameChars(String s, char[] chars, int length) {
+		if (s.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (s.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return how many times a doctor organisation identifier was shared instead of validated and created
+	 */
+	public long getDoctorOrganisationIdentifierHits() {
+		return counts.get(DOCTOR_HITS);
+	}
+
+	public long getDoctorOrganisationIdentifierMisses() {
+		return counts.get(DOCTOR_MISSES);
+	}
+
+	/**
+	 * @return how many times a hashed cpr was shared instead of validated and created
+	 */
+	public long getPatientCprHits() {
+		return counts.get(PATIENT_HITS);
+	}
+
+	public long getPatientCprMisses() {
+		return counts.get(PATIENT_MISSES);
+	}
+
+	/**
+	 * @return an estimate of the memory that would have been allocated for the identifiers that were shared
+	 */
+	public long getBytesSaved() {
+		return getDoctorOrganisationIdentifierHits() * DOCTOR_ORGANISATION_IDENTIFIER_BYTES + getPatientCprHits() * HASHED_CPR_BYTES;
+	}
+
+	@Override
+	public String toString() {
+		return "doctorOrganisationIdentifierHits=" + getDoctorOrganisationIdentifierHits()
+				+ ", doctorOrganisationIdentifierMisses=" + getDoctorOrganisationIdentifierMisses()
+				+ ", patientCprHits=" + getPatientCprHits() + ", patientCprMisses=" + getPatientCprMisses()
+				+ ", bytesSaved=" + getBytesSaved();
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Håndtag til en import, der kører i baggrunden. Giver fremdriften undervejs og kan afbryde importen.
+ * Afbrydelse sker ved samarbejde: importen stopper først efter den batch, der er ved at blive skrevet, så tabellen og
+ * checkpoints altid passer sammen, og en senere import fortsætter, hvor denne slap. Importens tråde afbrydes aldrig,
+ * da det kunne ramme databaseforbindelsen midt i en transaktion.
+ */
+public class ImportHandle implements Future<List<ImportProgress>> {
+	/**
+	 * Selve importen, der kører i baggrunden og melder fremdrift tilbage gennem håndtaget
+	 */
+	interface Task {
+		List<ImportProgress> run(ImportHandle handle) throws Exception;
+	}
+
+	private final FutureTask<List<ImportProgress>> future;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private final List<ImportProgress> progress = new CopyOnWriteArrayList<ImportProgress>();
+	private volatile long batchesCommitted;
+	private volatile long linesRejected;
+	private final ParseErrorCounters parseErrors = new ParseErrorCounters();
+	private final IdentifierCache identifiers = new IdentifierCache();
+
+	ImportHandle(final Task task) {
+		this.future = new FutureTask<List<ImportProgress>>(new Callable<List<ImportProgress>>() {
+			@Override
+			public List<ImportProgress> call() throws Exception {
+				return task.run(ImportHandle.this);
+			}
+		});
+	}
+
+	void startOn(Executor executor) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					future.run();
+				} finally {
+					identifiers.clear(); // håndtaget kan leve længe efter importen, men tællerne skal blive
+					stopped.countDown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Beder importen stoppe ved næste batch-grænse. Get kaster straks CancellationException, men importen kører
+	 * videre, til batchen er committet; brug {@link #awaitStopped(long, TimeUnit)} for at vente på det.
+	 * @param mayInterruptIfRunning ignoreres, importen afbrydes aldrig midt i en batch
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return future.cancel(false);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return future.isCancelled();
+	}
+
+	@Override
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	@Override
+	public List<ImportProgress> get() throws InterruptedException, ExecutionException {
+		return future.get();
+	}
+
+	@Override
+	public List<ImportProgress> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		return future.get(timeout, unit);
+	}
+
+	/**
+	 * Venter på, at importens tråd er holdt op med at arbejde, også når importen er afbrudt
+	 * @return false hvis importen stadig kører, når ventetiden er gået
+	 */
+	public boolean awaitStopped(long timeout, TimeUnit unit) throws InterruptedException {
+		return stopped.await(timeout, unit);
+	}
+
+	/**
+	 * Kaldes af importen ved hver batch-grænse og før hver bid i de gennemløb, der ikke skriver
+	 */
+	void stopIfCancelled() {
+		if (future.isCancelled()) {
+			throw new CancellationException("Import cancelled after " + batchesCommitted + " batches");
+		}
+	}
+
+	void fileStarted(ImportProgress fileProgress) {
+		progress.add(fileProgress);
+	}
+
+	void batchCommitted() {
+		batchesCommitted++; // kun importens egen tråd tæller op
+	}
+
+	void linesRejected(int lines) {
+		linesRejected += lines; // kun importens egen tråd tæller op
+	}
+
+	/**
+	 * @return fremdriften for hver fil, importen er nået til, indtil videre
+	 */
+	public List<ImportProgress> getProgress() {
+		return new ArrayList<ImportProgress>(progress);
+	}
+
+	public long getLinesRead() {
+		long lines = 0;
+		for (ImportProgress fileProgress : progress) {
+			lines += fileProgress.getLinesRead();
+		}
+		return lines;
+	}
+
+	public long getBytesRead() {
+		long bytes = 0;
+		for (ImportProgress fileProgress : progress) {
+			bytes += fileProgress.getBytesRead();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return antal batches, der er committet til databasen i denne import
+	 */
+	public long getBatchesCommitted() {
+		return batchesCommitted;
+	}
+
+	/**
+	 * @return antal linier, der ikke kunne parses og er sat i karantæne i denne import
+	 */
+	public long getLinesRejected() {
+		return linesRejected;
+	}
+
+	/**
+	 * @return antal linier, der indtil videre er sprunget over, fordi behandlingsdatoerne mangler eller er ugyldige
+	 */
+	public ParseErrorCounters getParseErrors() {
+		return parseErrors;
+	}
+
+	/**
+	 * @return de ydernumre og cpr-numre, importens handlinger deler, og hvor mange gange de er genbrugt
+	 */
+	public IdentifierCache getIdentifierCache() {
+		return identifiers;
+	}
+
+	@Override
+	public String toString() {
+		String state = isCancelled() ? "cancelled" : isDone() ? "done" : "running";
+		return state + ": files=" + progress.size() + ", lines=" + getLinesRead() + ", bytes=" + getBytesRead()
+				+ ", batches=" + batchesCommitted + ", skipped=" + parseErrors.getTotal()
+				+ ", rejected=" + linesRejected;
+	}
+}
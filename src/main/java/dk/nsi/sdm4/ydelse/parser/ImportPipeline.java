@@ -0,0 +1,249 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import org.apache.commons.io.IOUtils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Importerer en fil i tre trin, der kører samtidigt: en læsetråd deler filen op i bidder af hele linier, en pulje af
+ * parsertråde parser bidderne, og den kaldende tråd afleverer de parsede bidder til en {@link ChunkHandler}, der
+ * typisk skriver dem til databasen.
+ * Trinene er forbundet af en begrænset kø, så læsningen venter, når parsning eller database ikke kan følge med.
+ * Bidderne afleveres i samme rækkefølge, som de står i filen, så en sletning altid udføres efter de tidligere
+ * indsættelser med samme externalReference.
+ */
+public class ImportPipeline {
+	public interface ChunkHandler {
+		void handle(SsrChunk chunk) throws Exception;
+	}
+
+	private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+	private final int parserThreads;
+	private final int queueCapacity;
+	private final BlockingQueue<Future<SsrChunk>> queue;
+	private volatile boolean stopped;
+
+	private final long startNanos = System.nanoTime();
+	private volatile long chunksRead;
+	private volatile long bytesRead;
+	private volatile long readerBlockedNanos;
+	private final AtomicLong linesParsed = new AtomicLong();
+	private final AtomicLong parseNanos = new AtomicLong();
+	private volatile long chunksHandled;
+	private volatile long handlerWaitNanos;
+
+	public ImportPipeline(int parserThreads, int queueCapacity) {
+		this.parserThreads = parserThreads;
+		this.queueCapacity = queueCapacity;
+		this.queue = new ArrayBlockingQueue<Future<SsrChunk>>(queueCapacity);
+	}
+
+	/**
+	 * Læser alle bidder fra source, parser dem og afleverer dem i rækkefølge til handler. Vender først tilbage, når
+	 * alle bidder er afleveret. Fejler læsning, parsning eller handler, stoppes de andre trin, og fejlen kastes videre.
+	 * Source lukkes, når den er læst.
+	 */
+	public void run(final SsrChunkSource source, ChunkHandler handler) throws Exception {
+		final ExecutorService parsers = Executors.newFixedThreadPool(parserThreads, namedThreads("ydelseimporter-parser"));
+		ExecutorService readerExecutor = Executors.newSingleThreadExecutor(namedThreads("ydelseimporter-reader"));
+		Future<Void> reader = readerExecutor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				try {
+					SsrChunk chunk;
+					while ((chunk = source.nextChunk()) != null) {
+						chunksRead++;
+						bytesRead += chunk.getEndOffset() - chunk.getStartOffset();
+						put(parsers.submit(parseTask(chunk)));
+					}
+				} finally {
+					IOUtils.closeQuietly(source);
+					put(END_OF_FILE);
+				}
+				return null;
+			}
+		});
+
+		try {
+			while (true) {
+				long waitStart = System.nanoTime();
+				SsrChunk chunk = queue.take().get();
+				handlerWaitNanos += System.nanoTime() - waitStart;
+				if (chunk == null) {
+					break;
+				}
+				handler.handle(chunk);
+				chunksHandled++;
+			}
+			reader.get(); // kaster læsetrådens fejl videre, hvis den har fejlet
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		} finally {
+			stopped = true;
+			readerExecutor.shutdownNow();
+			parsers.shutdownNow();
+		}
+	}
+
+	private Callable<SsrChunk> parseTask(final SsrChunk chunk) {
+		return new Callable<SsrChunk>() {
+			@Override
+			public SsrChunk call() {
+				long start = System.nanoTime();
+				chunk.parse();
+				parseNanos.addAndGet(System.nanoTime() - start);
+				linesParsed.addAndGet(chunk.getLineCount());
+				return chunk;
+			}
+		};
+	}
+
+	private void put(Future<SsrChunk> parsedChunk) throws InterruptedException {
+		long start = System.nanoTime();
+		while (!queue.offer(parsedChunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (stopped) {
+				throw new CancellationException("Import pipeline has been stopped");
+			}
+		}
+		readerBlockedNanos += System.nanoTime() - start;
+	}
+
+	private static Exception unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof Exception) {
+			return (Exception) cause;
+		}
+		return e;
+	}
+
+	private static final Future<SsrChunk> END_OF_FILE = new Future<SsrChunk>() {
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return true;
+		}
+
+		@Override
+		public SsrChunk get() {
+			return null;
+		}
+
+		@Override
+		public SsrChunk get(long timeout, TimeUnit unit) {
+			return null;
+		}
+	};
+
+	static ThreadFactory namedThreads(final String prefix) {
+		final AtomicInteger threadNumber = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, prefix + "-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * @return antal bidder i køen mellem læsning og aflevering, både dem der venter på parsning og dem der er parset
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return antal bidder i køen, som er parset og venter på at blive afleveret
+	 */
+	public int getParsedChunksWaiting() {
+		int parsed = 0;
+		for (Future<SsrChunk> chunk : queue) {
+			if (chunk.isDone()) {
+				parsed++;
+			}
+		}
+		return parsed;
+	}
+
+	public long getChunksRead() {
+		return chunksRead;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public long getLinesParsed() {
+		return linesParsed.get();
+	}
+
+	public long getChunksHandled() {
+		return chunksHandled;
+	}
+
+	/**
+	 * @return læst, parset og afleveret pr. sekund samt hvor stor en del af tiden læser og aflevering har ventet
+	 */
+	public String getStatistics() {
+		double elapsedSeconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+		return String.format("queue=%d/%d (parsed %d), reader: %d chunks, %.1f MB/s, blocked %.0f%%, "
+				+ "parsers(%d): %d lines, %.0f lines/s, busy %.0f%%, handler: %d chunks, waiting %.0f%%",
+				getQueueDepth(), queueCapacity, getParsedChunksWaiting(),
+				chunksRead, bytesRead / elapsedSeconds / (1024 * 1024), percentOfElapsed(readerBlockedNanos),
+				parserThreads, linesParsed.get(), linesParsed.get() / elapsedSeconds,
+				percentOfElapsed(parseNanos.get()) / parserThreads,
+				chunksHandled, percentOfElapsed(handlerWaitNanos));
+	}
+
+	private double percentOfElapsed(long nanos) {
+		return 100.0 * nanos / Math.max(1, System.nanoTime() - startNanos);
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import java.io.File;
+
+/**
+ * Fremdrift for en enkelt import. Fremdrift og forventet resttid beregnes ud fra det byte-offset, læseren er nået til,
+ * så filen kun behøver at blive læst én gang.
+ * Opdateres af den tråd, der læser filen, men kan læses fra andre tråde undervejs.
+ */
+public class ImportProgress {
+	private final File file;
+	private final long totalBytes;
+	private final long startTimeMillis;
+
+	private volatile long linesRead;
+	private volatile long bytesRead;
+	private volatile long actionsSkipped;
+	private long resumedAtLine;
+	private long resumedAtBytes;
+	private volatile long endTimeMillis;
+
+	/**
+	 * @param totalBytes filens samlede størrelse i bytes, eller -1 hvis den ikke kendes på forhånd
+	 */
+	public ImportProgress(long totalBytes) {
+		this(null, totalBytes);
+	}
+
+	public ImportProgress(File file) {
+		this(file, file.length());
+	}
+
+	/**
+	 * @param totalBytes filens samlede størrelse i bytes, eller -1 hvis den ikke kendes på forhånd, fx for en strøm
+	 */
+	ImportProgress(File file, long totalBytes) {
+		this.file = file;
+		this.totalBytes = totalBytes;
+		this.startTimeMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return filen, fremdriften gælder for, eller null hvis den ikke er kendt
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Importen fortsætter fra et checkpoint. Antal linier og bytes tælles stadig fra filens start, men hastigheden og
+	 * den forventede resttid beregnes kun ud fra det, der er læst siden
+	 */
+	void resumeAt(long linesRead, long bytesRead) {
+		this.resumedAtLine = linesRead;
+		this.resumedAtBytes = bytesRead;
+		update(linesRead, bytesRead);
+	}
+
+	void skipped(int actions) {
+		this.actionsSkipped += actions;
+	}
+
+	void update(long linesRead, long bytesRead) {
+		this.linesRead = linesRead;
+		this.bytesRead = bytesRead;
+	}
+
+	void finish() {
+		this.endTimeMillis = System.currentTimeMillis();
+	}
+
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public long getLinesRead() {
+		return linesRead;
+	}
+
+	/**
+	 * @return antal linier, der allerede var importeret af en tidligere, afbrudt import
+	 */
+	public long getResumedAtLine() {
+		return resumedAtLine;
+	}
+
+	/**
+	 * @return antal handlinger, som delta-importen ikke sendte til databasen, fordi de ikke ændrede noget
+	 */
+	public long getActionsSkipped() {
+		return actionsSkipped;
+	}
+
+	public boolean isFinished() {
+		return endTimeMillis != 0;
+	}
+
+	public long getElapsedMillis() {
+		long end = isFinished() ? endTimeMillis : System.currentTimeMillis();
+		return end - startTimeMillis;
+	}
+
+	/**
+	 * @return andelen af filen der er læst, mellem 0 og 1, eller -1 hvis filens størrelse ikke kendes
+	 */
+	public double getFractionDone() {
+		if (totalBytes <= 0) {
+			return totalBytes == 0 ? 1 : -1;
+		}
+		return Math.min(1.0, (double) bytesRead / totalBytes);
+	}
+
+	/**
+	 * @return forventet resttid i millisekunder ud fra læsehastigheden indtil nu, eller -1 hvis den ikke kan estimeres
+	 */
+	public long getEstimatedRemainingMillis() {
+		if (isFinished()) {
+			return 0;
+		}
+		if (totalBytes <= 0 || bytesRead <= resumedAtBytes) {
+			return -1;
+		}
+		double millisPerByte = (double) getElapsedMillis() / (bytesRead - resumedAtBytes);
+		return (long) (millisPerByte * Math.max(0, totalBytes - bytesRead));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("lines=").append(linesRead);
+		sb.append(", bytes=").append(bytesRead);
+		if (totalBytes >= 0) {
+			sb.append('/').append(totalBytes);
+			sb.append(String.format(" (%.1f%%)", getFractionDone() * 100));
+		}
+		sb.append(", elapsed=").append(getElapsedMillis() / 1000).append('s');
+		long eta = getEstimatedRemainingMillis();
+		if (eta >= 0) {
+			sb.append(", eta=").append(eta / 1000).append('s');
+		}
+		return sb.toString();
+	}
+}
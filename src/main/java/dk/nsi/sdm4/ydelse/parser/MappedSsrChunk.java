@@ -0,0 +1,107 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A chunk of lines in a memory mapped window of the file. The lines are found and split into fields directly in the
+ * mapped bytes. The buffer is only read through absolute positions, so chunks sharing a window can be parsed from
+ * different threads at the same time.
+ */
+class MappedSsrChunk extends SsrChunk {
+	private final ByteBuffer buffer;
+	private final int start;
+	private final int end;
+
+	private int position;
+	private boolean skipLineFeed;
+	private SsrLine line;
+
+	MappedSsrChunk(ByteBuffer buffer, int start, int end, long startOffset) {
+		super(startOffset, startOffset + end - start);
+		this.buffer = buffer;
+		this.start = start;
+		this.end = end;
+		this.position = start;
+	}
+
+	/**
+	 * Points the given line at the next line in the chunk.
+	 * @return false when there are no more lines in the chunk
+	 */
+	boolean nextLine(SsrLine line) {
+		if (skipLineFeed) {
+			skipLineFeed = false;
+			if (position < end && buffer.get(position) == '\n') {
+				position++;
+			}
+		}
+		if (position >= end) {
+			return false;
+		}
+
+		int lineStart = position;
+		for (int i = lineStart; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b == '\n' || b == '\r') {
+				line.tokenize(buffer, lineStart, i);
+				position = i + 1;
+				skipLineFeed = b == '\r';
+				return true;
+			}
+		}
+		line.tokenize(buffer, lineStart, end);
+		position = end;
+		return true;
+	}
+
+	/**
+	 * @return the byte offset in the file of the line after the one returned by the latest call to nextLine
+	 */
+	long getOffsetOfNextLine() {
+		return getStartOffset() + position - start;
+	}
+
+	@Override
+	protected SsrAction parseNextLine() {
+		if (line == null) {
+			line = SSRLineParser.newLine();
+		}
+		if (!nextLine(line)) {
+			return null;
+		}
+		return parseLine(line);
+	}
+
+	@Override
+	protected String currentLine() {
+		return line != null ? line.toString() : null;
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads an SSR file through memory mapped windows of the file and hands out the lines as {@link SsrLine} views
+ * directly on the mapped bytes, either one line at a time or as chunks of whole lines that can be parsed in parallel.
+ * Line terminators are "\n", "\r" or "\r\n" like for {@link SsrLineReader}.
+ * The file is mapped one window at a time, since a mapping cannot be larger than 2GB and our files are larger than
+ * that. A line that continues past the end of a window is found again by mapping the next window from the start of
+ * the line.
+ */
+public class MappedSsrFileReader implements SsrChunkSource {
+	static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+	static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int windowSize;
+	private final int chunkSize;
+
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int position;
+	private boolean skipLineFeed;
+
+	private MappedSsrChunk currentChunk;
+	private long bytesRead;
+	private long lineNumber;
+
+	public MappedSsrFileReader(File file) throws IOException {
+		this(file, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize the preferred size in bytes of the chunks returned by nextChunk
+	 */
+	public MappedSsrFileReader(File file, int chunkSize) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE, chunkSize);
+	}
+
+	MappedSsrFileReader(File file, int windowSize, int chunkSize) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.fileSize = channel.size();
+		this.windowSize = windowSize;
+		this.chunkSize = chunkSize;
+		map(0);
+	}
+
+	/**
+	 * Skips to the given byte offset, which must be the start of a line or just after a "\r", e.g. the end offset of
+	 * a chunk. Must be called before anything is read.
+	 * @param lineNumber the number of lines before the offset
+	 */
+	public void resumeAt(long offset, long lineNumber) throws IOException {
+		if (offset > fileSize) {
+			throw new IOException("Cannot resume at offset " + offset + ", the file is only " + fileSize + " bytes");
+		}
+		if (offset > 0) {
+			file.seek(offset - 1);
+			// a chunk can end between the \r and \n of a line terminator
+			skipLineFeed = file.read() == '\r';
+		}
+		map(offset);
+		this.bytesRead = offset;
+		this.lineNumber = lineNumber;
+	}
+
+	private void map(long start) throws IOException {
+		long size = Math.min(windowSize, fileSize - start);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		windowStart = start;
+		position = 0;
+	}
+
+	private boolean windowReachesEndOfFile() {
+		return windowStart + window.limit() >= fileSize;
+	}
+
+	@Override
+	public SsrChunk nextChunk() throws IOException {
+		return nextMappedChunk();
+	}
+
+	/**
+	 * @return the next chunk of roughly chunkSize bytes, ending at a line terminator, or null at the end of the file
+	 */
+	private MappedSsrChunk nextMappedChunk() throws IOException {
+		while (true) {
+			int limit = window.limit();
+			if (skipLineFeed) {
+				// the previous chunk ended with \r, and a \n right after it belongs to the same line terminator
+				if (position == limit && !windowReachesEndOfFile()) {
+					map(windowStart + limit);
+					continue;
+				}
+				skipLineFeed = false;
+				if (position < limit && window.get(position) == '\n') {
+					position++;
+				}
+			}
+
+			if (position == limit) {
+				if (windowReachesEndOfFile()) {
+					return null;
+				}
+				map(windowStart + limit);
+				continue;
+			}
+
+			int chunkEnd = findChunkEnd(position, limit);
+			if (chunkEnd < 0) {
+				if (position == 0) {
+					throw new ParserException("Line " + (lineNumber + 1) + " is longer than " + windowSize + " bytes");
+				}
+				map(windowStart + position);
+				continue;
+			}
+
+			MappedSsrChunk chunk = new MappedSsrChunk(window, position, chunkEnd, windowStart + position);
+			skipLineFeed = window.get(chunkEnd - 1) == '\r';
+			position = chunkEnd;
+			return chunk;
+		}
+	}
+
+	/**
+	 * Only the bytes around the end of the chunk are looked at here; the rest of the chunk is not touched until it is
+	 * parsed, so reading the file from disk happens in the parser threads, not in the thread splitting the file.
+	 * @return the end of a chunk starting at start, preferably just after the last line terminator before start +
+	 * chunkSize, or -1 if there is no whole line before the end of the window
+	 */
+	private int findChunkEnd(int start, int limit) {
+		int preferredEnd = (int) Math.min((long) start + chunkSize, limit);
+		for (int i = preferredEnd - 1; i >= start; i--) {
+			if (isLineTerminator(window.get(i))) {
+				return endOfLineTerminator(i, limit);
+			}
+		}
+		for (int i = preferredEnd; i < limit; i++) {
+			if (isLineTerminator(window.get(i))) {
+				return endOfLineTerminator(i, limit);
+			}
+		}
+		return windowReachesEndOfFile() ? limit : -1;
+	}
+
+	private int endOfLineTerminator(int i, int limit) {
+		if (window.get(i) == '\r' && i + 1 < limit && window.get(i + 1) == '\n') {
+			return i + 2;
+		}
+		return i + 1;
+	}
+
+	private static boolean isLineTerminator(byte b) {
+		return b == '\n' || b == '\r';
+	}
+
+	/**
+	 * Points the given line at the next line in the file. Cannot be mixed with calls to nextChunk.
+	 * @return false when there are no more lines
+	 */
+	public boolean next(SsrLine line) throws IOException {
+		while (currentChunk == null || !currentChunk.nextLine(line)) {
+			currentChunk = nextMappedChunk();
+			if (currentChunk == null) {
+				return false;
+			}
+		}
+		bytesRead = currentChunk.getOffsetOfNextLine();
+		lineNumber++;
+		return true;
+	}
+
+	/**
+	 * @return number of bytes consumed by next so far, i.e. the byte offset of the next line
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return number of lines returned by next so far
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
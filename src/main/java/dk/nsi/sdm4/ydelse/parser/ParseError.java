@@ -0,0 +1,59 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+/**
+ * The routine faults in SSR lines. CSC does not always add the treatment dates, and it has been decided
+ * (NSPSUPPORT-96) that such lines are skipped rather than failing the import, so they are counted instead of being
+ * thrown and logged one by one.
+ */
+public enum ParseError {
+	TREATMENT_START_TIME_MISSING("treatmentStartTimeMissing", "Treatment start time must be present"),
+	TREATMENT_END_TIME_MISSING("treatmentEndTimeMissing", "Treatment end time must be present"),
+	TREATMENT_START_TIME_MALFORMED("treatmentStartTimeMalformed", "Treatment start time is malformed"),
+	TREATMENT_END_TIME_MALFORMED("treatmentEndTimeMalformed", "Treatment end time is malformed"),
+	TREATMENT_DAYS_DIFFER("treatmentDaysDiffer", "Treatment end time must be the same day as the treatment start time");
+
+	private final String slaKey;
+	private final String message;
+
+	ParseError(String slaKey, String message) {
+		this.slaKey = slaKey;
+		this.message = message;
+	}
+
+	/**
+	 * @return the name of the total for this error in the SLA log
+	 */
+	public String getSlaKey() {
+		return slaKey;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+/**
+ * Counts the {@link ParseError}s of an import while the chunks are parsed by several threads, see
+ * {@link StripedCounters}.
+ */
+public class ParseErrorCounters {
+	private final StripedCounters counts;
+
+	public ParseErrorCounters() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	ParseErrorCounters(int threads) {
+		this.counts = new StripedCounters(ParseError.values().length, threads);
+	}
+
+	public void increment(ParseError error) {
+		counts.increment(error.ordinal());
+	}
+
+	public long get(ParseError error) {
+		return counts.get(error.ordinal());
+	}
+
+	public long getTotal() {
+		long total = 0;
+		for (ParseError error : ParseError.values()) {
+			total += get(error);
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		for (ParseError error : ParseError.values()) {
+			s.append(s.length() == 0 ? "" : ", ").append(error.getSlaKey()).append('=').append(get(error));
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads another stream on a background thread, a block at a time, so whatever work that stream does (e.g.
+ * decompression) overlaps with the work of the thread reading from this stream. At most a fixed number of blocks are
+ * read ahead.
+ */
+class ReadAheadInputStream extends InputStream {
+	private static final Block END_OF_STREAM = new Block(new byte[0], 0, null);
+
+	private final InputStream source;
+	private final int blockSize;
+	private final BlockingQueue<Block> blocks;
+	private final Thread thread;
+
+	private Block current;
+	private int position;
+	private volatile boolean closed;
+
+	ReadAheadInputStream(InputStream source, int blockSize, int blocksAhead, String threadName) {
+		this.source = source;
+		this.blockSize = blockSize;
+		this.blocks = new ArrayBlockingQueue<Block>(blocksAhead);
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readAhead();
+			}
+		}, threadName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void readAhead() {
+		try {
+			while (true) {
+				byte[] data = new byte[blockSize];
+				int length = 0;
+				int n = 0;
+				while (length < data.length && (n = source.read(data, length, data.length - length)) >= 0) {
+					length += n;
+				}
+				if (length > 0) {
+					blocks.put(new Block(data, length, null));
+				}
+				if (n < 0) {
+					blocks.put(END_OF_STREAM);
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			// close() was called
+		} catch (IOException e) {
+			if (!closed) {
+				putQuietly(new Block(null, 0, e));
+			}
+		} catch (RuntimeException e) {
+			if (!closed) {
+				putQuietly(new Block(null, 0, new IOException(e)));
+			}
+		}
+	}
+
+	private void putQuietly(Block block) {
+		try {
+			blocks.put(block);
+		} catch (InterruptedException ignored) {
+			// close() was called, so nobody is waiting for the block
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureAvailable()) {
+			return -1;
+		}
+		return current.data[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureAvailable()) {
+			return -1;
+		}
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current.data, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	/**
+	 * @return false when the end of the source stream has been reached
+	 */
+	private boolean ensureAvailable() throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+		while (current == null || position == current.length) {
+			if (current == END_OF_STREAM) {
+				return false;
+			}
+			try {
+				current = blocks.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + thread.getName());
+			}
+			position = 0;
+			if (current.error != null) {
+				throw current.error;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		source.close();
+	}
+
+	private static class Block {
+		final byte[] data;
+		final int length;
+		final IOException error;
+
+		Block(byte[] data, int length, IOException error) {
+			this.data = data;
+			this.length = length;
+			this.error = error;
+		}
+	}
+}
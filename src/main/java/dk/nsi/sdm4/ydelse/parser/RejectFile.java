@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Karantæne for linier, der ikke kan parses: hver linie skrives med fil, linienummer og årsag, så importen kan
+ * fortsætte, og linierne kan rettes og leveres igen bagefter. Én linie pr. afvist linie, adskilt af tabulatorer:
+ * <pre>filnavn	linienummer	årsag	linien</pre>
+ * Filen åbnes først ved den første afviste linie og skrives i forlængelse af en eksisterende fil, så en import, der
+ * fortsætter fra et checkpoint, ikke sletter afvisningerne fra den afbrudte kørsel. Linierne fra den bid, der blev
+ * afbrudt, kan derfor stå i filen to gange.
+ */
+class RejectFile implements Closeable {
+	private final File file;
+	private Writer writer;
+	private long count;
+
+	RejectFile(File file) {
+		this.file = file;
+	}
+
+	void write(ValidationReport.MalformedLine line) {
+		try {
+			if (writer == null) {
+				file.getParentFile().mkdirs();
+				writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "ISO-8859-1"));
+			}
+			writer.write(line.getFile().getName() + "\t" + line.getLineNumber() + "\t" + oneLine(line.getMessage())
+					+ "\t" + (line.getText() != null ? line.getText() : "") + "\n");
+		} catch (IOException e) {
+			throw new ParserException("Could not write rejected line to " + file.getAbsolutePath(), e);
+		}
+		count++;
+	}
+
+	private static String oneLine(String message) {
+		return message == null ? "" : message.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * Skrives før hver commit, så de afviste linier fra de committede bidder altid er på disken
+	 */
+	void flush() {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			throw new ParserException("Could not write rejected lines to " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * @return antal linier, der er afvist i denne import
+	 */
+	long getCount() {
+		return count;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+		}
+	}
+}
@@ -28,190 +28,194 @@ package dk.nsi.sdm4.ydelse.parser;
 
 import dk.nsi.sdm4.core.parser.ParserException;
 import dk.nsi.sdm4.ydelse.common.splunk.SplunkLogger;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
 import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
 import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
 import dk.nsi.sdm4.ydelse.relation.model.SSR;
-import org.joda.time.DateTime;
-import org.joda.time.Interval;
-
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 
 public class SSRLineParser {
 	private static final SplunkLogger log = new SplunkLogger(SSRLineParser.class);
 
 	private static final int EXPECTED_NUMBER_OF_FIELDS = 5;
-	private static final String SEPARATOR = ",";
-	private String[] fields;
-
-	public static SsrAction parseLine(String line) throws ParserException {
-		SSRLineParser parser = new SSRLineParser(line);
-		return parser.parse();
-	}
+	static final int HASHED_CPR_LENGTH = 40;
 
-	private SSRLineParser(String line) throws ParserException {
-		this.fields = getTokens(line, SEPARATOR, EXPECTED_NUMBER_OF_FIELDS);
-
-		// strip whitespaces - the data from CSC can contain a varying amount of whitespaces
-		for (int i = 0; i < EXPECTED_NUMBER_OF_FIELDS; i++) {
-			this.fields[i] = this.fields[i].trim();
+	// a line is tokenized and parsed by one thread before it moves on, so each thread can reuse a single view
+	private final static ThreadLocal<SsrLine> textLine = new ThreadLocal<SsrLine>() {
+		@Override
+		protected SsrLine initialValue() {
+			return newLine();
 		}
-	}
+	};
 
-	private DoctorOrganisationIdentifier doctorOrganisationId;
-	private String patientCpr;
-	private Interval admittedInterval;
-	private String ssrReference;
-
-	private SsrAction parse() throws ParserException {
-		if (everythingButExternalReferenceIsBlank()) {
-			parseSsrReference();
-			return SsrAction.createDeletion(ssrReference);
-		} else if (!parseTreatmentInterval()) { // unfortunately CSC does not always add the dates, it has been decided (NSPSUPPORT-96) that we will ignore the fields with no date
-			return SsrAction.createNOOP();
-		} else {
-			parseDoctorOrganisationId();
-			parsePatientCpr();
-			parseSsrReference();
-
-			SSR ssr = SSR.createInstance(HashedCpr.buildFromHashedString(patientCpr), doctorOrganisationId,
-					admittedInterval, ssrReference);
-			return SsrAction.createInsertion(ssr);
+	private final static ThreadLocal<SsrRecord> records = new ThreadLocal<SsrRecord>() {
+		@Override
+		protected SsrRecord initialValue() {
+			return new SsrRecord();
 		}
-	}
+	};
 
-	private static final int DOCTOR_ORG_ID_FIELD = 0;
-	private static final int PATIENT_CPR_FIELD = 1;
-	private static final int TREATMENT_START_TIME_FIELD = 2;
-	private static final int TREATMENT_END_TIME_FIELD = 3;
-	private static final int SSR_REFERENCE_FIELD = 4;
-
-	private boolean fieldIsMissing(int i) {
-		return fields[i].trim().equals("");
+	private SSRLineParser() {
 	}
 
-	private boolean everythingButExternalReferenceIsBlank() {
-		return fieldIsMissing(DOCTOR_ORG_ID_FIELD) && fieldIsMissing(PATIENT_CPR_FIELD)
-				&& fieldIsMissing(TREATMENT_START_TIME_FIELD) && fieldIsMissing(TREATMENT_END_TIME_FIELD)
-				&& !fieldIsMissing(SSR_REFERENCE_FIELD);
+	public static SsrAction parseLine(String line) throws ParserException {
+		SsrRecord record = records.get();
+		parseLine(line, record);
+		return record.toAction();
 	}
 
-	private void parseDoctorOrganisationId() throws ParserException {
-		if (fieldIsMissing(DOCTOR_ORG_ID_FIELD)) {
-			throw new ParserException("Doctor organisation id (ydernummer) must be present");
-		} else {
-			try {
-				doctorOrganisationId = DoctorOrganisationIdentifier.newInstance(fields[DOCTOR_ORG_ID_FIELD]);
-			} catch (IllegalArgumentException e) {
-				throw new ParserException(e.getMessage(), e);
-			}
+	/**
+	 * Parses a line that has already been decoded to a String into a reusable record. The record points into a view
+	 * of the line that is reused by the next String line parsed on the same thread.
+	 */
+	public static void parseLine(String line, SsrRecord record) throws ParserException {
+		SsrLine tokenized = textLine.get();
+		tokenized.tokenize(line);
+		// the platform line separator is only searched for in the rare line that has a line break character at all
+		if (tokenized.containsLineBreak() && line.contains(System.getProperty("line.separator"))) {
+			throw new ParserException("Line contains new-line character");
 		}
+		parseLine(tokenized, record);
 	}
 
-	private void parsePatientCpr() throws ParserException {
-		if (fieldIsMissing(PATIENT_CPR_FIELD)) {
-			throw new ParserException("Patient cpr must be present");
-		} else {
-			patientCpr = fields[PATIENT_CPR_FIELD];
-		}
+	/**
+	 * Parses a line that has already been split into fields by a byte level reader. The line itself is never turned
+	 * into a String, only the field values that are actually needed.
+	 */
+	public static SsrAction parseLine(SsrLine line) throws ParserException {
+		SsrRecord record = records.get();
+		parseLine(line, record);
+		return record.toAction();
 	}
 
-	private boolean parseTreatmentInterval() throws ParserException {
-		try {
-			admittedInterval = parseIntervalFromTwoIdenticalDaysAsSpecifiedBySsr(fields, TREATMENT_START_TIME_FIELD,
-					TREATMENT_END_TIME_FIELD);
-		} catch (ParserException ex) {
-			log.error("Failed to parse line with reference " + fields[SSR_REFERENCE_FIELD] + ". Fault: " + ex.getMessage());
-			return false;
+	/**
+	 * Parses a line into a reusable record. A valid line is parsed without allocating anything, so a caller that
+	 * reuses the line and the record for every line in a file creates no garbage per line. The line is validated
+	 * exactly as when it is parsed into an {@link SsrAction}, and {@link SsrRecord#toAction()} cannot fail.
+	 * A line without a valid treatment day becomes a noop with a {@link ParseError} and throws nothing; only lines
+	 * that are malformed in other ways throw.
+	 */
+	public static void parseLine(SsrLine line, SsrRecord record) throws ParserException {
+		// the line has been trimmed for whitespace while it was split, the data from CSC can contain a varying amount
+		// of whitespace
+		if (line.getFieldCount() < EXPECTED_NUMBER_OF_FIELDS) {
+			throw new ParserException("Too few fields on line: " + line);
 		}
 
-		return true;
-	}
+		if (line.getFieldCount() > EXPECTED_NUMBER_OF_FIELDS) {
+			throw new ParserException("Too many fields on line: " + line);
+		}
 
-	private void parseSsrReference() throws ParserException {
-		if (fieldIsMissing(SSR_REFERENCE_FIELD)) {
-			throw new ParserException("Reference to original ssr record must be present");
-		} else {
-			ssrReference = fields[SSR_REFERENCE_FIELD];
+		if (everythingButExternalReferenceIsBlank(line)) {
+			record.setDeletion(line);
+			return;
+		}
 
-			// NSPSUPPORT-23 Data from SSR was observed to be of length 16, not 24 as previously specified.
-			// We have decided to use space padding to overcome this.
-			if (ssrReference.length() < SSR.REFERENCE_LENGTH) {
-				ssrReference = ssrReference + spacePadding(SSR.REFERENCE_LENGTH - ssrReference.length());
+		// unfortunately CSC does not always add the dates, it has been decided (NSPSUPPORT-96) that we will ignore the
+		// lines with no valid date. They are common, so they are counted by the caller rather than logged one by one
+		ParseError error = parseTreatmentDay(line, record);
+		if (error != null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Failed to parse line with reference " + line.fieldAsString(SSR_REFERENCE_FIELD) + ". Fault: " + error.getMessage());
 			}
+			record.setNoop(line, error);
+			return;
 		}
-	}
 
-	private String spacePadding(int n) {
-		String padding = "";
-		for (int i = 0; i < n; i++) {
-			padding += " ";
+		validateDoctorOrganisationId(line);
+		if (line.isBlank(PATIENT_CPR_FIELD)) {
+			throw new ParserException("Patient cpr must be present");
 		}
-		return padding;
+		if (line.isBlank(SSR_REFERENCE_FIELD)) {
+			throw new ParserException("Reference to original ssr record must be present");
+		}
+		validatePatientCpr(line);
+		validateSsrReference(line);
+		record.setInsertion(line);
 	}
 
-	private String[] getTokens(String line, String separator, int expectedNumberOfFields) throws ParserException {
-		if (line.contains(System.getProperty("line.separator"))) {
-			throw new ParserException("Line contains new-line character");
-		}
+	/**
+	 * @return a line view that can hold the fields of an SSR line, to be reused for every line in a file
+	 */
+	public static SsrLine newLine() {
+		return new SsrLine(EXPECTED_NUMBER_OF_FIELDS);
+	}
 
-		int asManyTimesAsPossible = -1;
-		String[] tokens = line.split(separator, asManyTimesAsPossible);
+	static final int DOCTOR_ORG_ID_FIELD = 0;
+	static final int PATIENT_CPR_FIELD = 1;
+	static final int TREATMENT_START_TIME_FIELD = 2;
+	static final int TREATMENT_END_TIME_FIELD = 3;
+	static final int SSR_REFERENCE_FIELD = 4;
 
-		if (tokens.length < expectedNumberOfFields) {
-			throw new ParserException("Too few fields on line: " + line);
-		}
+	private static boolean everythingButExternalReferenceIsBlank(SsrLine line) {
+		return line.isBlank(DOCTOR_ORG_ID_FIELD) && line.isBlank(PATIENT_CPR_FIELD)
+				&& line.isBlank(TREATMENT_START_TIME_FIELD) && line.isBlank(TREATMENT_END_TIME_FIELD)
+				&& !line.isBlank(SSR_REFERENCE_FIELD);
+	}
 
-		if (tokens.length > expectedNumberOfFields) {
-			throw new ParserException("Too many fields on line: " + line);
+	private static void validateDoctorOrganisationId(SsrLine line) throws ParserException {
+		if (line.isBlank(DOCTOR_ORG_ID_FIELD)) {
+			throw new ParserException("Doctor organisation id (ydernummer) must be present");
+		}
+		if (!DoctorOrganisationIdentifier.VALID_LENGTHS_OF_DOCTOR_ORGANISATION_IDENTIFIERS.contains(line.length(DOCTOR_ORG_ID_FIELD))) {
+			try {
+				DoctorOrganisationIdentifier.newInstance(line.fieldAsString(DOCTOR_ORG_ID_FIELD));
+			} catch (IllegalArgumentException e) {
+				throw new ParserException(e.getMessage(), e);
+			}
 		}
-		return tokens;
 	}
 
-	private boolean fieldIsMissing(String[] fields, int i) {
-		return fields[i].equals("");
+	/**
+	 * Accepts the same as {@link HashedCpr#buildFromHashedString(String)}, which is left to produce the error
+	 */
+	private static void validatePatientCpr(SsrLine line) {
+		boolean valid = line.length(PATIENT_CPR_FIELD) == HASHED_CPR_LENGTH;
+		for (int i = 0; valid && i < HASHED_CPR_LENGTH; i++) {
+			byte b = line.byteAt(PATIENT_CPR_FIELD, i);
+			valid = (b >= '0' && b <= '9') || (b >= 'A' && b <= 'F');
+		}
+		if (!valid) {
+			HashedCpr.buildFromHashedString(line.fieldAsString(PATIENT_CPR_FIELD));
+		}
 	}
 
-	public Interval parseIntervalFromTwoIdenticalDaysAsSpecifiedBySsr(String[] fields,
-	                                                                  int treatmentStartTimeField, int treatmentEndTimeField) throws ParserException {
-		if (fieldIsMissing(fields, treatmentStartTimeField)) {
-			throw new ParserException("Treatment start time must be present");
+	// NSPSUPPORT-23 Data from SSR was observed to be of length 16, not 24 as previously specified.
+	// We have decided to use space padding to overcome this, so only a reference that is too long is an error
+	private static void validateSsrReference(SsrLine line) {
+		int length = line.length(SSR_REFERENCE_FIELD);
+		if (length > SSR.REFERENCE_LENGTH) {
+			throw new IllegalArgumentException("Illegal external reference length: " + length
+					+ ". Only valid length is " + SSR.REFERENCE_LENGTH);
 		}
+	}
 
-		if (fieldIsMissing(fields, treatmentEndTimeField)) {
-			throw new ParserException("Treatment end time must be present");
+	/**
+	 * Sets the treatment day of the record
+	 * @return what is wrong with the treatment dates, or null if they give a valid day
+	 */
+	private static ParseError parseTreatmentDay(SsrLine line, SsrRecord record) {
+		if (line.isBlank(TREATMENT_START_TIME_FIELD)) {
+			return ParseError.TREATMENT_START_TIME_MISSING;
 		}
 
-		DateTime admittedStart;
-		try {
-			admittedStart = parseDateAsSpecifiedBySsr(fields[treatmentStartTimeField]);
-		} catch (ParseException e) {
-			throw new ParserException("Treatment start time is malformed: " + fields[treatmentStartTimeField]);
+		if (line.isBlank(TREATMENT_END_TIME_FIELD)) {
+			return ParseError.TREATMENT_END_TIME_MISSING;
 		}
 
-		DateTime admittedEnd;
-		try {
-			admittedEnd = parseDateAsSpecifiedBySsr(fields[treatmentEndTimeField]);
-		} catch (ParseException e) {
-			throw new ParserException("Treatment end time is malformed: " + fields[treatmentEndTimeField]);
+		int start = SsrDateDecoder.decode(line, TREATMENT_START_TIME_FIELD);
+		if (start == SsrDateDecoder.NOT_A_DAY) {
+			return ParseError.TREATMENT_START_TIME_MALFORMED;
 		}
 
-		if (!admittedStart.equals(admittedEnd)) {
-			throw new ParserException("Treatment end time must be the same day as the treatment start time");
+		int end = SsrDateDecoder.decode(line, TREATMENT_END_TIME_FIELD);
+		if (end == SsrDateDecoder.NOT_A_DAY) {
+			return ParseError.TREATMENT_END_TIME_MALFORMED;
 		}
 
-		admittedEnd = admittedEnd.plusDays(1);
-
-		return new Interval(admittedStart, admittedEnd);
-	}
-
-	private final static SimpleDateFormat ssrFormat = new SimpleDateFormat("yyyyMMdd");
-
-	static {
-		ssrFormat.setLenient(false);
-	}
-
-	private DateTime parseDateAsSpecifiedBySsr(String s) throws ParseException {
-		return new DateTime(ssrFormat.parse(s));
+		if (start != end) {
+			return ParseError.TREATMENT_DAYS_DIFFER;
+		}
+		record.setTreatmentDay(start);
+		return null;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,238 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
+import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binært format til parsede og validerede SSR-handlinger, så et udtræk kan importeres igen, fx efter en restore af
+ * databasen, uden at parse og validere teksten igen. Filen kan importeres direkte som en fil i et datasæt, se
+ * {@link SsrActionFileReader}.
+ * <p>
+ * Filen starter med et hoved på {@value #HEADER_SIZE} bytes: "SSRACT01" og postlængden. Derefter følger én post
+ * pr. indsættelse eller sletning, alle med samme længde, så post n ligger på en kendt position, og filen kan
+ * memory mappes og deles i bidder uden at lede efter linieskift:
+ * <pre>
+ *  0  1 byte   'I' for indsættelse, 'D' for sletning
+ *  1  1 byte   ydernummerets længde
+ *  2  6 bytes  ydernummeret, fyldt op med 0
+ *  8 20 bytes  det hashede cpr-nummer som bytes i stedet for 40 hex-cifre
+ * 28  4 bytes  behandlingsdagen som antal dage siden 1970-01-01
+ * 32 24 bytes  externalReference i ISO-8859-1, fyldt op med mellemrum som i tabellen
+ * </pre>
+ * En sletning har kun type og reference. Linier uden handling (noop) skrives ikke, så linienumrene i en
+ * handlingsfil er postnumre og ikke linienumre i det oprindelige udtræk.
+ */
+public class SsrActionFile {
+	public static final String EXTENSION = ".ssra";
+
+	static final long FILE_MAGIC = 0x5353524143543031L; // "SSRACT01"
+	static final int HEADER_SIZE = 16;
+	static final int RECORD_SIZE = 56;
+
+	static final byte INSERTION = 'I';
+	static final byte DELETION = 'D';
+
+	private static final int DOCTOR_ID_LENGTH = 1;
+	private static final int DOCTOR_ID = 2;
+	private static final int DOCTOR_ID_SIZE = 6;
+	private static final int PATIENT_CPR = 8;
+	private static final int PATIENT_CPR_SIZE = 20;
+	private static final int TREATMENT_DAY = 28;
+	private static final int REFERENCE = 32;
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private SsrActionFile() {
+	}
+
+	/**
+	 * @return om filen starter med hovedet for en handlingsfil
+	 */
+	public static boolean isActionFile(File file) throws IOException {
+		if (file.length() < HEADER_SIZE) {
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readLong() == FILE_MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Læser posten på den givne position med absolutte positioner, så flere tråde kan læse fra samme buffer
+	 * @param identifiers hvor identifikatorerne deles med importens andre handlinger, eller null
+	 * @param scratch plads til en identifikator på op til 40 tegn, så den kan slås op uden at lave en String
+	 */
+	static SsrAction read(ByteBuffer buffer, int position, IdentifierCache identifiers, char[] scratch) {
+		byte type = buffer.get(position);
+		String reference = latin1(buffer, position + REFERENCE, SSR.REFERENCE_LENGTH);
+		if (type == DELETION) {
+			return SsrAction.createDeletion(reference);
+		} else if (type != INSERTION) {
+			throw new ParserException("Unknown action type " + type + " in record with reference " + reference);
+		}
+
+		int doctorIdLength = buffer.get(position + DOCTOR_ID_LENGTH);
+		if (doctorIdLength < 0 || doctorIdLength > DOCTOR_ID_SIZE) {
+			throw new ParserException("Illegal doctor organisation identifier length " + doctorIdLength + " in record with reference " + reference);
+		}
+		for (int i = 0; i < PATIENT_CPR_SIZE; i++) {
+			int b = buffer.get(position + PATIENT_CPR + i) & 0xff;
+			scratch[2 * i] = HEX[b >>> 4];
+			scratch[2 * i + 1] = HEX[b & 0xf];
+		}
+		HashedCpr patientCpr = identifiers != null ? identifiers.patientCpr(scratch, 2 * PATIENT_CPR_SIZE)
+				: HashedCpr.buildFromHashedString(new String(scratch, 0, 2 * PATIENT_CPR_SIZE));
+		for (int i = 0; i < doctorIdLength; i++) {
+			scratch[i] = (char) (buffer.get(position + DOCTOR_ID + i) & 0xff);
+		}
+		DoctorOrganisationIdentifier doctorOrganisationIdentifier = identifiers != null
+				? identifiers.doctorOrganisationIdentifier(scratch, doctorIdLength)
+				: DoctorOrganisationIdentifier.newInstance(new String(scratch, 0, doctorIdLength));
+		SSR ssr = SSR.createInstance(patientCpr, doctorOrganisationIdentifier,
+				SsrRecord.treatmentInterval(buffer.getInt(position + TREATMENT_DAY)), reference);
+		return SsrAction.createInsertion(ssr);
+	}
+
+	private static String latin1(ByteBuffer buffer, int start, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (buffer.get(start + i) & 0xff);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Skriver handlinger til en handlingsfil. Noops springes over
+	 */
+	public static class Writer implements Closeable {
+		private static final int BUFFER_SIZE = 64 * 1024 / RECORD_SIZE * RECORD_SIZE;
+
+		private final File file;
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private long count;
+
+		public Writer(File file) throws IOException {
+			this.file = file;
+			this.channel = new FileOutputStream(file).getChannel();
+			buffer.putLong(FILE_MAGIC).putInt(RECORD_SIZE).putInt(0);
+		}
+
+		public void write(SsrAction action) throws IOException {
+			if (action.isNoop()) {
+				return;
+			}
+			if (buffer.remaining() < RECORD_SIZE) {
+				flush();
+			}
+			int position = buffer.position();
+			if (action.isDeletion()) {
+				buffer.put(DELETION);
+				for (int i = 1; i < REFERENCE; i++) {
+					buffer.put((byte) 0);
+				}
+				putReference(action.getExternalReferenceForDeletion());
+			} else {
+				SSR ssr = action.getSsrForInsertion();
+				String doctorId = ssr.getDoctorOrganisationIdentifier().toString();
+				buffer.put(INSERTION).put((byte) doctorId.length());
+				for (int i = 0; i < DOCTOR_ID_SIZE; i++) {
+					buffer.put(i < doctorId.length() ? latin1(doctorId.charAt(i)) : 0);
+				}
+				String cpr = ssr.getPatientCpr().getHashedCpr();
+				for (int i = 0; i < PATIENT_CPR_SIZE; i++) {
+					buffer.put((byte) (Character.digit(cpr.charAt(2 * i), 16) << 4 | Character.digit(cpr.charAt(2 * i + 1), 16)));
+				}
+				buffer.putInt(SsrDateDecoder.dayOf(ssr.getTreatmentInterval().getStartMillis()));
+				putReference(ssr.getExternalReference());
+			}
+			assert buffer.position() == position + RECORD_SIZE;
+			count++;
+		}
+
+		private void putReference(String reference) {
+			if (reference.length() != SSR.REFERENCE_LENGTH) {
+				throw new ParserException("Illegal external reference length " + reference.length() + ": " + reference);
+			}
+			for (int i = 0; i < SSR.REFERENCE_LENGTH; i++) {
+				buffer.put(latin1(reference.charAt(i)));
+			}
+		}
+
+		private static byte latin1(char c) {
+			if (c > 0xff) {
+				throw new ParserException("Character " + c + " cannot be written in ISO-8859-1");
+			}
+			return (byte) c;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * @return antal handlinger, der er skrevet til filen
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
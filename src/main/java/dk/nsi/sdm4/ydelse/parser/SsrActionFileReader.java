@@ -0,0 +1,172 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads an {@link SsrActionFile} through memory mapped windows. The records have a fixed size, so the file is split
+ * into chunks by arithmetic alone, and a chunk turns its records into actions without any text parsing or validation
+ * beyond what the model classes do. A chunk is a record count, not a line count, since noops are not written.
+ */
+public class SsrActionFileReader implements SsrChunkSource {
+	static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024 / SsrActionFile.RECORD_SIZE * SsrActionFile.RECORD_SIZE;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int windowSize;
+	private final int recordsPerChunk;
+
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int position;
+
+	public SsrActionFileReader(File file) throws IOException {
+		this(file, MappedSsrFileReader.DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize the preferred size in bytes of the chunks returned by nextChunk
+	 */
+	public SsrActionFileReader(File file, int chunkSize) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE, chunkSize);
+	}
+
+	SsrActionFileReader(File file, int windowSize, int chunkSize) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.fileSize = channel.size();
+		this.windowSize = Math.max(1, windowSize / SsrActionFile.RECORD_SIZE) * SsrActionFile.RECORD_SIZE;
+		this.recordsPerChunk = Math.max(1, chunkSize / SsrActionFile.RECORD_SIZE);
+		try {
+			checkHeader(file);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		map(SsrActionFile.HEADER_SIZE);
+	}
+
+	private void checkHeader(File name) throws IOException {
+		if (fileSize < SsrActionFile.HEADER_SIZE || this.file.readLong() != SsrActionFile.FILE_MAGIC) {
+			throw new IOException(name.getAbsolutePath() + " is not an SSR action file");
+		}
+		int recordSize = this.file.readInt();
+		if (recordSize != SsrActionFile.RECORD_SIZE) {
+			throw new IOException(name.getAbsolutePath() + " has records of " + recordSize + " bytes, expected " + SsrActionFile.RECORD_SIZE);
+		}
+		if ((fileSize - SsrActionFile.HEADER_SIZE) % SsrActionFile.RECORD_SIZE != 0) {
+			throw new IOException(name.getAbsolutePath() + " ends in the middle of a record, it is probably truncated");
+		}
+	}
+
+	/**
+	 * Skips to the given byte offset, which must be the start of a record, e.g. the end offset of a chunk. Must be
+	 * called before anything is read.
+	 * @param recordNumber the number of records before the offset
+	 */
+	public void resumeAt(long offset, long recordNumber) throws IOException {
+		if (offset == 0) {
+			return;
+		}
+		if (offset > fileSize || offset < SsrActionFile.HEADER_SIZE
+				|| (offset - SsrActionFile.HEADER_SIZE) % SsrActionFile.RECORD_SIZE != 0
+				|| (offset - SsrActionFile.HEADER_SIZE) / SsrActionFile.RECORD_SIZE != recordNumber) {
+			throw new IOException("Cannot resume at offset " + offset + " and record " + recordNumber + " in a file of " + fileSize + " bytes");
+		}
+		map(offset);
+	}
+
+	private void map(long start) throws IOException {
+		long size = Math.min(windowSize, fileSize - start);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		windowStart = start;
+		position = 0;
+	}
+
+	@Override
+	public SsrChunk nextChunk() throws IOException {
+		if (position == window.limit()) {
+			if (windowStart + position >= fileSize) {
+				return null;
+			}
+			map(windowStart + position);
+		}
+		int end = Math.min(window.limit(), position + recordsPerChunk * SsrActionFile.RECORD_SIZE);
+		ActionChunk chunk = new ActionChunk(window, position, end, windowStart + position);
+		position = end;
+		return chunk;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Records in a mapped window, read through absolute positions like {@link MappedSsrChunk}
+	 */
+	static class ActionChunk extends SsrChunk {
+		private final ByteBuffer buffer;
+		private final int start;
+		private final int end;
+		private int next;
+		private int current = -1;
+		private final char[] scratch = new char[SSRLineParser.HASHED_CPR_LENGTH];
+
+		ActionChunk(ByteBuffer buffer, int start, int end, long startOffset) {
+			super(startOffset, startOffset + end - start);
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			this.next = start;
+		}
+
+		@Override
+		protected SsrAction parseNextLine() {
+			if (next == end) {
+				return null;
+			}
+			current = next;
+			next += SsrActionFile.RECORD_SIZE;
+			return SsrActionFile.read(buffer, current, getIdentifierCache(), scratch);
+		}
+
+		@Override
+		protected String currentLine() {
+			return current < 0 ? null : "record at offset " + (getStartOffset() + current - start);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A number of consecutive whole lines from an SSR file. A chunk is parsed by a single thread, but different chunks can be
+ * parsed at the same time since they do not share any state.
+ */
+public abstract class SsrChunk {
+	private final long startOffset;
+	private final long endOffset;
+	private long inputOffset = -1;
+	private int fileIndex;
+	private boolean skipMalformedLines;
+	private ParseErrorCounters errorCounters;
+	private IdentifierCache identifiers;
+	private final SsrRecord record = new SsrRecord();
+
+	private List<SsrAction> actions;
+	private int lineCount;
+	private RuntimeException failure;
+	private List<ValidationReport.MalformedLine> malformedLines = Collections.emptyList();
+
+	protected SsrChunk(long startOffset, long endOffset) {
+		this.startOffset = startOffset;
+		this.endOffset = endOffset;
+	}
+
+	/**
+	 * Parses the lines of the chunk. If a line cannot be parsed, the actions of the lines before it are kept and the
+	 * error is available from {@link #getFailure()}. When malformed lines are skipped, parsing continues after them
+	 * instead and each of them is available from {@link #getMalformedLines()}.
+	 */
+	public void parse() {
+		actions = new ArrayList<SsrAction>();
+		while (true) {
+			try {
+				SsrAction action;
+				while ((action = parseNextLine()) != null) {
+					lineCount++;
+					actions.add(action);
+				}
+				return;
+			} catch (RuntimeException e) {
+				if (!skipMalformedLines) {
+					failure = e;
+					return;
+				}
+				if (malformedLines.isEmpty()) {
+					malformedLines = new ArrayList<ValidationReport.MalformedLine>();
+				}
+				int lineInChunk = lineCount + malformedLines.size() + 1;
+				malformedLines.add(new ValidationReport.MalformedLine(null, lineInChunk, e.getMessage(), currentLine()));
+			}
+		}
+	}
+
+	/**
+	 * @return the action of the next line in the chunk, or null when all lines have been parsed
+	 */
+	protected abstract SsrAction parseNextLine();
+
+	/**
+	 * @return the text of the line that the latest call to {@link #parseNextLine()} parsed, for reporting it when it
+	 * cannot be parsed
+	 */
+	protected abstract String currentLine();
+
+	/**
+	 * @return the byte offset in the file of the first line of this chunk
+	 */
+	public long getStartOffset() {
+		return startOffset;
+	}
+
+	/**
+	 * @return the byte offset in the file just after the last line of this chunk
+	 */
+	public long getEndOffset() {
+		return endOffset;
+	}
+
+	/**
+	 * @return how far into the file on disk the reader had come when this chunk was read. For a compressed file this
+	 * is a position in the compressed bytes, otherwise it is the same as {@link #getEndOffset()}
+	 */
+	public long getInputOffset() {
+		return inputOffset >= 0 ? inputOffset : endOffset;
+	}
+
+	void setInputOffset(long inputOffset) {
+		this.inputOffset = inputOffset;
+	}
+
+	/**
+	 * @return the position in the dataset of the file this chunk was read from
+	 */
+	public int getFileIndex() {
+		return fileIndex;
+	}
+
+	void setFileIndex(int fileIndex) {
+		this.fileIndex = fileIndex;
+	}
+
+	/**
+	 * Makes {@link #parse()} continue after lines that cannot be parsed, for validating a file without importing it.
+	 * A chunk moves past a line before parsing it, so a line that fails does not affect the lines after it.
+	 */
+	void setSkipMalformedLines(boolean skipMalformedLines) {
+		this.skipMalformedLines = skipMalformedLines;
+	}
+
+	/**
+	 * Makes {@link #parse()} count the lines it skips because of a {@link ParseError}
+	 */
+	void setErrorCounters(ParseErrorCounters errorCounters) {
+		this.errorCounters = errorCounters;
+	}
+
+	/**
+	 * Makes the actions of the chunk share their identifiers with the other chunks of the import
+	 */
+	void setIdentifierCache(IdentifierCache identifiers) {
+		this.identifiers = identifiers;
+	}
+
+	/**
+	 * @return the cache the actions share their identifiers through, or null if they do not share them
+	 */
+	IdentifierCache getIdentifierCache() {
+		return identifiers;
+	}
+
+	/**
+	 * Parses one line of the chunk and counts it if it is skipped because of a {@link ParseError}. The record the line
+	 * is parsed into is reused for every line in the chunk.
+	 */
+	protected SsrAction parseLine(SsrLine line) {
+		SSRLineParser.parseLine(line, record);
+		return toAction();
+	}
+
+	/**
+	 * @see #parseLine(SsrLine)
+	 */
+	protected SsrAction parseLine(String line) {
+		SSRLineParser.parseLine(line, record);
+		return toAction();
+	}
+
+	private SsrAction toAction() {
+		if (record.getError() != null && errorCounters != null) {
+			errorCounters.increment(record.getError());
+		}
+		return record.toAction(identifiers);
+	}
+
+	public List<SsrAction> getActions() {
+		return actions;
+	}
+
+	/**
+	 * @return the number of lines that were parsed successfully
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	public RuntimeException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return the lines that could not be parsed when malformed lines are skipped, numbered from 1 within the chunk
+	 */
+	public List<ValidationReport.MalformedLine> getMalformedLines() {
+		return malformedLines;
+	}
+
+	/**
+	 * Lines that have already been read and decoded to Strings.
+	 */
+	static class TextChunk extends SsrChunk {
+		private final List<String> lines;
+		private int next;
+
+		TextChunk(List<String> lines, long startOffset, long endOffset) {
+			super(startOffset, endOffset);
+			this.lines = lines;
+		}
+
+		@Override
+		protected SsrAction parseNextLine() {
+			if (next == lines.size()) {
+				return null;
+			}
+			return parseLine(lines.get(next++));
+		}
+
+		@Override
+		protected String currentLine() {
+			return next > 0 ? lines.get(next - 1) : null;
+		}
+	}
+}
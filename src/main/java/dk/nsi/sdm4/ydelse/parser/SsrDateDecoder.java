@@ -0,0 +1,211 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decodes the yyyyMMdd treatment dates of SSR lines to day numbers, accepting exactly the dates that a non-lenient
+ * SimpleDateFormat accepts and giving the same days. That includes its calendar: dates before 1582-10-15 are
+ * Julian, and the ten days skipped when the Gregorian calendar was introduced do not exist.
+ * <p>
+ * Eight digits are decoded with lookup tables and no objects. An extract only covers a few distinct days, so the
+ * most recently decoded days are kept in a small cache shared by all threads. Only the rare field that is not eight
+ * digits is parsed by SimpleDateFormat, since it accepts some odd variations such as trailing characters.
+ * All methods are thread safe.
+ */
+public class SsrDateDecoder {
+	/**
+	 * Returned for a field that is not a valid date
+	 */
+	public static final int NOT_A_DAY = Integer.MIN_VALUE;
+
+	private static final int NOT_A_DIGIT = 0x100;
+	private static final int[] DIGITS = new int[256];
+	static {
+		for (int i = 0; i < DIGITS.length; i++) {
+			DIGITS[i] = i >= '0' && i <= '9' ? i - '0' : NOT_A_DIGIT;
+		}
+	}
+
+	private static final int[] DAYS_IN_MONTH = {0, 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+	// days before each month in a year that starts in March, so the leap day is the last day of the year
+	private static final int[] DAYS_BEFORE_MONTH_FROM_MARCH = {0, 31, 61, 92, 122, 153, 184, 214, 245, 275, 306, 337};
+
+	private static final int JULIAN_DAY_OF_EPOCH = 2440588;
+	private static final int FIRST_GREGORIAN_YEAR = 1582;
+	private static final int FIRST_GREGORIAN_MONTH = 10;
+	private static final int FIRST_GREGORIAN_DAY = 15;
+	private static final int FIRST_SKIPPED_DAY = 5;
+
+	// days in the ISO calendar from 0000-03-01 to 1970-01-01
+	private static final int DAYS_FROM_YEAR_ZERO_TO_EPOCH = 719468;
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static final int CACHE_BITS = 6;
+	private static final long EMPTY = -1L << 32;
+
+	// each entry holds the eight digits as a number in the high half and the day in the low half, so an entry is
+	// always read and written as a whole
+	private static final AtomicLongArray cache = new AtomicLongArray(1 << CACHE_BITS);
+	static {
+		for (int i = 0; i < cache.length(); i++) {
+			cache.set(i, EMPTY);
+		}
+	}
+
+	private SsrDateDecoder() {
+	}
+
+	/**
+	 * @return the number of days since 1970-01-01, or {@link #NOT_A_DAY} if the field is not a valid date
+	 */
+	public static int decode(SsrLine line, int field) {
+		if (line.length(field) != 8) {
+			return decodeWithSimpleDateFormat(line.fieldAsString(field));
+		}
+		int digits = 0;
+		int notDigits = 0;
+		for (int i = 0; i < 8; i++) {
+			int digit = DIGITS[line.byteAt(field, i) & 0xff];
+			notDigits |= digit;
+			digits = digits * 10 + digit;
+		}
+		if ((notDigits & NOT_A_DIGIT) != 0) {
+			return decodeWithSimpleDateFormat(line.fieldAsString(field));
+		}
+
+		int slot = (digits * 0x9E3779B1) >>> (32 - CACHE_BITS);
+		long entry = cache.get(slot);
+		if ((int) (entry >>> 32) == digits) {
+			return (int) entry;
+		}
+		int day = decode(digits / 10000, digits / 100 % 100, digits % 100);
+		if (day != NOT_A_DAY) {
+			cache.lazySet(slot, ((long) digits << 32) | (day & 0xffffffffL));
+		}
+		return day;
+	}
+
+	/**
+	 * Counts the days with the formulas for Julian day numbers, which need no tables beyond the month lengths
+	 */
+	static int decode(int year, int month, int day) {
+		if (year == 0 || month < 1 || month > 12 || day < 1) {
+			return NOT_A_DAY;
+		}
+		boolean julian = year < FIRST_GREGORIAN_YEAR || (year == FIRST_GREGORIAN_YEAR
+				&& (month < FIRST_GREGORIAN_MONTH || (month == FIRST_GREGORIAN_MONTH && day < FIRST_SKIPPED_DAY)));
+		if (year == FIRST_GREGORIAN_YEAR && month == FIRST_GREGORIAN_MONTH && day >= FIRST_SKIPPED_DAY && day < FIRST_GREGORIAN_DAY) {
+			return NOT_A_DAY;
+		}
+		boolean leapYear = julian ? year % 4 == 0 : (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+		if (day > DAYS_IN_MONTH[month] + (month == 2 && leapYear ? 1 : 0)) {
+			return NOT_A_DAY;
+		}
+
+		int beforeMarch = month <= 2 ? 1 : 0;
+		int y = year + 4800 - beforeMarch;
+		int julianDay = day + DAYS_BEFORE_MONTH_FROM_MARCH[month + 12 * beforeMarch - 3] + 365 * y + y / 4 - 32083;
+		if (!julian) {
+			julianDay += -y / 100 + y / 400 + 38;
+		}
+		return julianDay - JULIAN_DAY_OF_EPOCH;
+	}
+
+	// SimpleDateFormat is not thread safe, and lines are parsed by several threads at the same time
+	private final static ThreadLocal<SimpleDateFormat> ssrFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+			format.setLenient(false);
+			return format;
+		}
+	};
+
+	private static int decodeWithSimpleDateFormat(String s) {
+		Date date;
+		try {
+			date = ssrFormat.get().parse(s);
+		} catch (ParseException e) {
+			return NOT_A_DAY;
+		}
+		return dayOf(date.getTime());
+	}
+
+	/**
+	 * @return the day in the default time zone that the given time falls on, so dayOf(startOfDay(day)) is day
+	 */
+	public static int dayOf(long millis) {
+		long localMillis = millis + TimeZone.getDefault().getOffset(millis);
+		// the division has to round down for days before 1970
+		return (int) ((localMillis - (localMillis < 0 ? MILLIS_PER_DAY - 1 : 0)) / MILLIS_PER_DAY);
+	}
+
+	// the ISO calendar in the default time zone of java.util, which SimpleDateFormat uses, since Joda's time zone data
+	// does not agree with it for all days
+	private final static ThreadLocal<Calendar> gregorianCalendar = new ThreadLocal<Calendar>() {
+		@Override
+		protected Calendar initialValue() {
+			GregorianCalendar calendar = new GregorianCalendar();
+			calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+			return calendar;
+		}
+	};
+
+	/**
+	 * @return the time at which the day starts in the default time zone, the same as SimpleDateFormat gives for it
+	 */
+	public static long startOfDay(int epochDay) {
+		int days = epochDay + DAYS_FROM_YEAR_ZERO_TO_EPOCH;
+		int era = (days >= 0 ? days : days - 146096) / 146097;
+		int dayOfEra = days - era * 146097;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int marchBasedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - DAYS_BEFORE_MONTH_FROM_MARCH[marchBasedMonth] + 1;
+		int month = marchBasedMonth < 10 ? marchBasedMonth + 3 : marchBasedMonth - 9;
+		int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		Calendar calendar = gregorianCalendar.get();
+		calendar.clear();
+		if (year <= 0) {
+			calendar.set(Calendar.ERA, GregorianCalendar.BC);
+			year = 1 - year;
+		}
+		calendar.set(year, month - 1, day);
+		return calendar.getTimeInMillis();
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable view of a single SSR line in a byte buffer or a String. The fields are located directly in the bytes or
+ * characters and are trimmed for surrounding whitespace the same way {@link String#trim()} does it, but no Strings
+ * are created until a field value is actually needed.
+ * Separators are found in a single pass over the line. In a byte buffer the pass looks at eight bytes at a time
+ * (SWAR, SIMD within a register), so the common case of a byte without special meaning costs a fraction of a compare.
+ * The view is only valid until the buffer it points into is reused, i.e. until the reader is asked for the next line.
+ */
+public class SsrLine {
+	static final byte SEPARATOR = ',';
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW_SEVEN_BITS = 0x7f7f7f7f7f7f7f7fL;
+	private static final long SEPARATORS = SEPARATOR * ONES;
+
+	private final int maxFields;
+	private final int[] fieldStart;
+	private final int[] fieldEnd;
+
+	private ByteBuffer buffer;
+	private String text;
+	private int lineStart;
+	private int lineEnd;
+	private int fieldCount;
+	private boolean containsLineBreak;
+
+	public SsrLine(int maxFields) {
+		this.maxFields = maxFields;
+		this.fieldStart = new int[maxFields];
+		this.fieldEnd = new int[maxFields];
+	}
+
+	/**
+	 * Points this view at the bytes from start (inclusive) to end (exclusive) in the buffer and locates the fields.
+	 * Fields beyond maxFields are counted but not located.
+	 */
+	public void tokenize(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.text = null;
+		this.lineStart = start;
+		this.lineEnd = end;
+		this.containsLineBreak = false; // the readers split lines on line breaks
+
+		boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+		int field = 0;
+		int currentFieldStart = start;
+		int i = start;
+		for (; i + 8 <= end; i += 8) {
+			long word = buffer.getLong(i);
+			// with the first byte in the lowest bits the matches can be taken from the bottom of the word
+			long separators = matchingBytes(bigEndian ? Long.reverseBytes(word) : word, SEPARATORS);
+			while (separators != 0) {
+				int separator = i + (Long.numberOfTrailingZeros(separators) >>> 3);
+				setField(field++, currentFieldStart, separator);
+				currentFieldStart = separator + 1;
+				separators &= separators - 1;
+			}
+		}
+		for (; i < end; i++) {
+			if (buffer.get(i) == SEPARATOR) {
+				setField(field++, currentFieldStart, i);
+				currentFieldStart = i + 1;
+			}
+		}
+		setField(field++, currentFieldStart, end);
+		fieldCount = field;
+	}
+
+	/**
+	 * @return a word with the high bit set in exactly the bytes of word that are equal to the bytes of pattern. Unlike
+	 * the shorter (x - 0x01..) & ~x trick this has no false positives, so the matches can be used one by one
+	 */
+	private static long matchingBytes(long word, long pattern) {
+		long zeroWhereMatching = word ^ pattern;
+		return ~(((zeroWhereMatching & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | zeroWhereMatching | LOW_SEVEN_BITS);
+	}
+
+	/**
+	 * Points this view at a line that has already been decoded to a String and locates the fields in the same single
+	 * pass that looks for line breaks.
+	 */
+	public void tokenize(String line) {
+		this.buffer = null;
+		this.text = line;
+		this.lineStart = 0;
+		this.lineEnd = line.length();
+
+		boolean lineBreak = false;
+		int field = 0;
+		int currentFieldStart = 0;
+		for (int i = 0; i < lineEnd; i++) {
+			char c = line.charAt(i);
+			if (c == SEPARATOR) {
+				setField(field++, currentFieldStart, i);
+				currentFieldStart = i + 1;
+			} else if (c == '\n' || c == '\r') {
+				lineBreak = true;
+			}
+		}
+		setField(field++, currentFieldStart, lineEnd);
+		fieldCount = field;
+		containsLineBreak = lineBreak;
+	}
+
+	private void setField(int field, int start, int end) {
+		if (field >= maxFields) {
+			return;
+		}
+		while (start < end && isWhitespace(charAt(start))) {
+			start++;
+		}
+		while (end > start && isWhitespace(charAt(end - 1))) {
+			end--;
+		}
+		fieldStart[field] = start;
+		fieldEnd[field] = end;
+	}
+
+	private int charAt(int i) {
+		return text != null ? text.charAt(i) : buffer.get(i) & 0xff;
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c <= ' ';
+	}
+
+	/**
+	 * @return the number of comma separated fields on the line, also when it is more than maxFields
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @return true if a line given as a String contains a line break character. Lines in a byte buffer never do,
+	 * since the readers split lines on those
+	 */
+	public boolean containsLineBreak() {
+		return containsLineBreak;
+	}
+
+	/**
+	 * @return the position in the buffer or String of the first character of the field, after trimming
+	 */
+	public int fieldStart(int field) {
+		return fieldStart[field];
+	}
+
+	/**
+	 * @return the position in the buffer or String just after the last character of the field, after trimming
+	 */
+	public int fieldEnd(int field) {
+		return fieldEnd[field];
+	}
+
+	public boolean isBlank(int field) {
+		return fieldEnd[field] == fieldStart[field];
+	}
+
+	public int length(int field) {
+		return fieldEnd[field] - fieldStart[field];
+	}
+
+	public byte byteAt(int field, int index) {
+		return (byte) charAt(fieldStart[field] + index);
+	}
+
+	/**
+	 * @return the character at the given index in the field, the same as in {@link #fieldAsString(int)}
+	 */
+	public char charAt(int field, int index) {
+		return (char) charAt(fieldStart[field] + index);
+	}
+
+	public String fieldAsString(int field) {
+		if (text != null) {
+			return text.substring(fieldStart[field], fieldEnd[field]);
+		}
+		return ascii(fieldStart[field], fieldEnd[field]);
+	}
+
+	private String ascii(int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			chars[i - start] = (char) (buffer.get(i) & 0xff);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return the whole line as it appeared in the file, for use in error messages
+	 */
+	@Override
+	public String toString() {
+		if (text != null) {
+			return text;
+		}
+		return ascii(lineStart, lineEnd);
+	}
+}
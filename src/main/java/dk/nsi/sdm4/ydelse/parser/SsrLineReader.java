@@ -0,0 +1,215 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads lines from a byte stream while keeping track of the exact byte offset of the next unread line.
+ * Line terminators are recognised the same way as {@link java.io.BufferedReader#readLine()} does it ("\n", "\r"
+ * or "\r\n"), and lines are decoded using the platform charset like {@link java.io.FileReader} would.
+ */
+public class SsrLineReader implements SsrChunkSource {
+	static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	private final InputStream in;
+	private final Charset charset;
+	private final int chunkSize;
+
+	private byte[] buffer;
+	private int position;
+	private int limit;
+	private boolean eof;
+	private boolean skipLineFeed;
+
+	private long bytesRead;
+	private long lineNumber;
+
+	public SsrLineReader(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+	public SsrLineReader(InputStream in, int bufferSize) {
+		this(in, bufferSize, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize the preferred size in bytes of the chunks returned by nextChunk
+	 */
+	public SsrLineReader(InputStream in, int bufferSize, int chunkSize) {
+		this.in = in;
+		this.charset = Charset.defaultCharset();
+		this.buffer = new byte[bufferSize];
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Skips to the given byte offset, which must be the start of a line or just after a "\r", e.g. the end offset of
+	 * a chunk. Must be called before anything is read.
+	 * @param lineNumber the number of lines before the offset
+	 */
+	public void resumeAt(long offset, long lineNumber) throws IOException {
+		if (offset > 0) {
+			long remaining = offset - 1;
+			while (remaining > 0) {
+				long skipped = in.skip(remaining);
+				if (skipped <= 0) {
+					if (in.read() < 0) {
+						throw new EOFException("Cannot resume at offset " + offset + ", the input ends at " + (offset - remaining));
+					}
+					skipped = 1;
+				}
+				remaining -= skipped;
+			}
+			int last = in.read();
+			if (last < 0) {
+				throw new EOFException("Cannot resume at offset " + offset + ", the input ends at " + (offset - 1));
+			}
+			// a chunk can end between the \r and \n of a line terminator
+			skipLineFeed = last == '\r';
+		}
+		this.bytesRead = offset;
+		this.lineNumber = lineNumber;
+	}
+
+	/**
+	 * @return the next line without its terminator, or null when the end of the stream has been reached
+	 */
+	public String readLine() throws IOException {
+		int lineStart = position;
+		while (true) {
+			if (position == limit) {
+				if (!eof) {
+					boolean moreBytes = fill(lineStart);
+					lineStart = 0;
+					if (moreBytes) {
+						continue;
+					}
+				}
+				if (position > lineStart) {
+					return emitLine(lineStart, position, 0);
+				}
+				return null;
+			}
+
+			byte b = buffer[position];
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (b == '\n') {
+					position++;
+					bytesRead++;
+					lineStart = position;
+					continue;
+				}
+			}
+
+			if (b == '\n') {
+				position++;
+				return emitLine(lineStart, position - 1, 1);
+			} else if (b == '\r') {
+				position++;
+				skipLineFeed = true;
+				return emitLine(lineStart, position - 1, 1);
+			}
+			position++;
+		}
+	}
+
+	/**
+	 * Reads lines until roughly chunkSize bytes have been read, so they can be parsed on another thread.
+	 */
+	@Override
+	public SsrChunk nextChunk() throws IOException {
+		long chunkStart = bytesRead;
+		long chunkEnd = chunkStart + chunkSize;
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while (bytesRead < chunkEnd && (line = readLine()) != null) {
+			lines.add(line);
+		}
+		if (lines.isEmpty()) {
+			return null;
+		}
+		return new SsrChunk.TextChunk(lines, chunkStart, bytesRead);
+	}
+
+	private String emitLine(int start, int end, int terminatorLength) {
+		bytesRead += end - start + terminatorLength;
+		lineNumber++;
+		return new String(buffer, start, end - start, charset);
+	}
+
+	/**
+	 * Keeps the unfinished line starting at lineStart and reads more bytes after it, growing the buffer if a single
+	 * line does not fit.
+	 */
+	private boolean fill(int lineStart) throws IOException {
+		int pending = limit - lineStart;
+		if (pending == buffer.length) {
+			byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, pending);
+			buffer = larger;
+		} else if (pending > 0) {
+			System.arraycopy(buffer, lineStart, buffer, 0, pending);
+		}
+		position = pending;
+		limit = pending;
+
+		int n = in.read(buffer, limit, buffer.length - limit);
+		if (n < 0) {
+			eof = true;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+
+	/**
+	 * @return number of bytes consumed so far, i.e. the byte offset of the next line
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return number of lines returned so far
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
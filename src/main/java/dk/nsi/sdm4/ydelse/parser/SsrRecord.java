@@ -0,0 +1,208 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
+import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+
+/**
+ * A reusable, mutable result of parsing one SSR line, filled by {@link SSRLineParser#parseLine(SsrLine, SsrRecord)}
+ * without allocating anything. The treatment day is kept as a day number and the identifiers as slices of the
+ * {@link SsrLine} the record was parsed from, so the record is only valid as long as that line is.
+ * Use {@link #toAction()} to turn it into objects that outlive the line.
+ * <p>
+ * The import still turns every line into an action, though, because a batch holds its
+ * actions until it is committed: an insertion allocates its {@link SSR}, the treatment {@link Interval} with its two
+ * DateTimes, the external reference and the {@link SsrAction}. Only a caller that reads the values straight from the
+ * record allocates nothing per line; the import, the dry-run validation and the action file all go through actions.
+ */
+public class SsrRecord {
+	private SsrAction.ActionType type;
+	private SsrLine line;
+	private int treatmentDay;
+	private ParseError error;
+	private final char[] identifier = new char[SSRLineParser.HASHED_CPR_LENGTH];
+
+	void setTreatmentDay(int treatmentDay) {
+		this.treatmentDay = treatmentDay;
+	}
+
+	void setInsertion(SsrLine line) {
+		this.type = SsrAction.ActionType.INSERTION;
+		this.line = line;
+		this.error = null;
+	}
+
+	void setDeletion(SsrLine line) {
+		this.type = SsrAction.ActionType.DELETION;
+		this.line = line;
+		this.error = null;
+	}
+
+	void setNoop(SsrLine line, ParseError error) {
+		this.type = SsrAction.ActionType.NOOP;
+		this.line = line;
+		this.error = error;
+	}
+
+	public boolean isInsertion() {
+		return type == SsrAction.ActionType.INSERTION;
+	}
+
+	public boolean isDeletion() {
+		return type == SsrAction.ActionType.DELETION;
+	}
+
+	public boolean isNoop() {
+		return type == SsrAction.ActionType.NOOP;
+	}
+
+	/**
+	 * @return why the line is a noop, or null if it is not
+	 */
+	public ParseError getError() {
+		return error;
+	}
+
+	/**
+	 * @return the day of the treatment as the number of days since 1970-01-01 in the ISO calendar. Only set for
+	 * insertions
+	 */
+	public int getTreatmentDay() {
+		return treatmentDay;
+	}
+
+	public int doctorOrganisationIdLength() {
+		return line.length(SSRLineParser.DOCTOR_ORG_ID_FIELD);
+	}
+
+	public byte doctorOrganisationIdByteAt(int index) {
+		return line.byteAt(SSRLineParser.DOCTOR_ORG_ID_FIELD, index);
+	}
+
+	/**
+	 * @param index from 0 to 39, the hashed cpr always has 40 characters
+	 */
+	public byte patientCprByteAt(int index) {
+		return line.byteAt(SSRLineParser.PATIENT_CPR_FIELD, index);
+	}
+
+	/**
+	 * @param index from 0 to {@link SSR#REFERENCE_LENGTH} - 1. A reference shorter than that is padded with spaces, as
+	 * in the stored SSR records
+	 */
+	public byte externalReferenceByteAt(int index) {
+		if (index >= line.length(SSRLineParser.SSR_REFERENCE_FIELD)) {
+			return ' ';
+		}
+		return line.byteAt(SSRLineParser.SSR_REFERENCE_FIELD, index);
+	}
+
+	public String getExternalReference() {
+		String reference = line.fieldAsString(SSRLineParser.SSR_REFERENCE_FIELD);
+		if (reference.length() >= SSR.REFERENCE_LENGTH) {
+			return reference;
+		}
+		StringBuilder padded = new StringBuilder(SSR.REFERENCE_LENGTH).append(reference);
+		while (padded.length() < SSR.REFERENCE_LENGTH) {
+			padded.append(' ');
+		}
+		return padded.toString();
+	}
+
+	/**
+	 * @return the treatment interval as stored in the database: the whole treatment day in the default time zone
+	 */
+	public Interval getTreatmentInterval() {
+		return treatmentInterval(treatmentDay);
+	}
+
+	static Interval treatmentInterval(int treatmentDay) {
+		DateTime start = new DateTime(SsrDateDecoder.startOfDay(treatmentDay));
+		return new Interval(start, start.plusDays(1));
+	}
+
+	/**
+	 * Creates the action for the record. This is where the objects are allocated, so a caller that only needs a few
+	 * of the values should read them from the record directly.
+	 */
+	public SsrAction toAction() {
+		return toAction(null);
+	}
+
+	/**
+	 * @param identifiers where the identifiers of an insertion are shared with the other actions of the import, or
+	 * null to create new ones
+	 * @see #toAction()
+	 */
+	public SsrAction toAction(IdentifierCache identifiers) {
+		if (type == SsrAction.ActionType.INSERTION) {
+			SSR ssr = SSR.createInstance(patientCpr(identifiers), doctorOrganisationIdentifier(identifiers),
+					getTreatmentInterval(), getExternalReference());
+			return SsrAction.createInsertion(ssr);
+		} else if (type == SsrAction.ActionType.DELETION) {
+			return SsrAction.createDeletion(getExternalReference());
+		} else {
+			return SsrAction.createNOOP();
+		}
+	}
+
+	private HashedCpr patientCpr(IdentifierCache identifiers) {
+		if (identifiers == null) {
+			return HashedCpr.buildFromHashedString(line.fieldAsString(SSRLineParser.PATIENT_CPR_FIELD));
+		}
+		return identifiers.patientCpr(identifier, copyField(SSRLineParser.PATIENT_CPR_FIELD));
+	}
+
+	private DoctorOrganisationIdentifier doctorOrganisationIdentifier(IdentifierCache identifiers) {
+		if (identifiers == null) {
+			return DoctorOrganisationIdentifier.newInstance(line.fieldAsString(SSRLineParser.DOCTOR_ORG_ID_FIELD));
+		}
+		return identifiers.doctorOrganisationIdentifier(identifier, copyField(SSRLineParser.DOCTOR_ORG_ID_FIELD));
+	}
+
+	/**
+	 * Copies a validated identifier field to the scratch array, where it can be looked up without creating a String
+	 * @return the length of the field
+	 */
+	private int copyField(int field) {
+		int length = line.length(field);
+		for (int i = 0; i < length; i++) {
+			identifier[i] = line.charAt(field, i);
+		}
+		return length;
+	}
+
+	@Override
+	public String toString() {
+		return "SsrRecord(" + type + ")[" + line + "]";
+	}
+}
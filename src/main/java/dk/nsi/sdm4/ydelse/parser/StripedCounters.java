@@ -0,0 +1,66 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of counters that several threads count in at the same time. Each thread counts in its own stripe of
+ * the counters, so the threads do not fight over the same cache line; the stripes are only added up when a counter
+ * is read.
+ */
+class StripedCounters {
+	private static final int MAX_STRIPES = 64;
+
+	// 16 longs are 128 bytes, which keeps two stripes out of the same cache line
+	private static final int MIN_STRIPE_LENGTH = 16;
+
+	private final int stripeLength;
+	private final int stripeMask;
+	private final AtomicLongArray counts;
+
+	StripedCounters(int counters, int threads) {
+		int stripes = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, threads) * 2 - 1));
+		this.stripeLength = (counters + MIN_STRIPE_LENGTH - 1) / MIN_STRIPE_LENGTH * MIN_STRIPE_LENGTH;
+		this.stripeMask = stripes - 1;
+		// the first stripe starts after a stripe length of padding, away from the header of the array
+		this.counts = new AtomicLongArray((stripes + 1) * stripeLength);
+	}
+
+	void increment(int counter) {
+		int stripe = (int) Thread.currentThread().getId() & stripeMask;
+		counts.getAndIncrement((stripe + 1) * stripeLength + counter);
+	}
+
+	long get(int counter) {
+		long count = 0;
+		for (int stripe = 0; stripe <= stripeMask; stripe++) {
+			count += counts.get((stripe + 1) * stripeLength + counter);
+		}
+		return count;
+	}
+}
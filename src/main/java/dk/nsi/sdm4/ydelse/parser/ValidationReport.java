@@ -0,0 +1,191 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resultatet af en tørkørsel, hvor et datasæt parses og valideres helt, uden at databasen røres.
+ * Tæller handlingerne pr. type og husker hver linie, der ikke kan parses, med fil og linienummer, så alle fejl i en
+ * leverance kan findes på én gang i stedet for én pr. afbrudt import.
+ * Opdateres kun af den tråd, der modtager de parsede bidder.
+ */
+public class ValidationReport {
+	private final long startTimeMillis = System.currentTimeMillis();
+	private final List<MalformedLine> malformedLines = new ArrayList<MalformedLine>();
+	private long lines;
+	private long insertions;
+	private long deletions;
+	private long noops;
+	private long bytesRead;
+	private int files;
+	private long endTimeMillis;
+
+	/**
+	 * Tæller en parset bid med.
+	 * @param linesBefore antal linier i filen før bidden, så linienumre kan regnes om fra bidden til filen
+	 */
+	void add(File file, long linesBefore, SsrChunk chunk) {
+		for (SsrAction action : chunk.getActions()) {
+			if (action.isInsertion()) {
+				insertions++;
+			} else if (action.isDeletion()) {
+				deletions++;
+			} else {
+				noops++;
+			}
+		}
+		for (MalformedLine malformedLine : chunk.getMalformedLines()) {
+			malformedLines.add(malformedLine.inFile(file, linesBefore));
+		}
+		lines += chunk.getLineCount() + chunk.getMalformedLines().size();
+	}
+
+	void fileRead(long bytes) {
+		files++;
+		bytesRead += bytes;
+	}
+
+	void finish() {
+		endTimeMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return true, hvis alle linier i datasættet kan parses
+	 */
+	public boolean isValid() {
+		return malformedLines.isEmpty();
+	}
+
+	public long getLines() {
+		return lines;
+	}
+
+	public long getInsertions() {
+		return insertions;
+	}
+
+	public long getDeletions() {
+		return deletions;
+	}
+
+	/**
+	 * @return antal linier uden behandlingsdatoer, som importen springer over (NSPSUPPORT-96)
+	 */
+	public long getNoops() {
+		return noops;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public int getFiles() {
+		return files;
+	}
+
+	public long getElapsedMillis() {
+		return (endTimeMillis > 0 ? endTimeMillis : System.currentTimeMillis()) - startTimeMillis;
+	}
+
+	/**
+	 * @return alle linier, der ikke kan parses, i datasættets rækkefølge
+	 */
+	public List<MalformedLine> getMalformedLines() {
+		return Collections.unmodifiableList(malformedLines);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("files=%d, lines=%d, insertions=%d, deletions=%d, noops=%d, malformed=%d, bytes=%d, elapsed=%ds",
+				files, lines, insertions, deletions, noops, malformedLines.size(), bytesRead, getElapsedMillis() / 1000);
+	}
+
+	/**
+	 * En linie, der ikke kan parses
+	 */
+	public static class MalformedLine {
+		private final File file;
+		private final long lineNumber;
+		private final String message;
+		private final String text;
+
+		MalformedLine(File file, long lineNumber, String message) {
+			this(file, lineNumber, message, null);
+		}
+
+		MalformedLine(File file, long lineNumber, String message, String text) {
+			this.file = file;
+			this.lineNumber = lineNumber;
+			this.message = message;
+			this.text = text;
+		}
+
+		/**
+		 * Regner en linie, der kun kendes inden for sin bid, om til en linie i filen
+		 * @param linesBefore antal linier i filen før bidden
+		 */
+		MalformedLine inFile(File file, long linesBefore) {
+			return new MalformedLine(file, linesBefore + lineNumber, message, text);
+		}
+
+		/**
+		 * @return filen, linien står i, eller null for en linie, der endnu kun kendes inden for sin bid
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return liniens nummer i filen, regnet fra 1
+		 */
+		public long getLineNumber() {
+			return lineNumber;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return linien, som den står i filen, eller null hvis den ikke kendes
+		 */
+		public String getText() {
+			return text;
+		}
+
+		@Override
+		public String toString() {
+			return (file != null ? file.getName() + " " : "") + "line " + lineNumber + ": " + message;
+		}
+	}
+}
@@ -0,0 +1,271 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Skriver hver batch gennem et antal skrivebaner, der hver har sin egen tråd, forbindelse og transaktion, så databasen
+ * arbejder på flere dele af batchen samtidigt. Handlingerne fordeles efter en hash af externalReference, så alle
+ * handlinger for samme reference udføres i samme bane i filens rækkefølge, og indsættelser og sletninger virker som
+ * med én bane.
+ * Hver bane committer sin del af batchen sammen med sit eget checkpoint uden at vente på de andre, så en bane aldrig
+ * holder en forbindelse, mens den venter på en anden bane. Fejler en bane, har de andre måske committet; importen
+ * fortsætter da fra hver banes eget checkpoint, så ingen handling udføres to gange, se {@link #laneOf(SsrAction, int)}.
+ * Den første bane kører på den kaldende tråd, der bagefter venter højst timeoutMillis på de andre.
+ * Med flere baner kører transaktionerne med READ COMMITTED, så en banes sletninger ikke tager gap-låse i indekset på
+ * externalReference, som en anden banes indsættelser må vente på. MySQL tillader kun skrivning med READ COMMITTED, når
+ * binlog_format er ROW eller MIXED
+ */
+class WriterLanes {
+	/**
+	 * Udføres i hver banes transaktion efter dens handlinger, fx for at gemme banens checkpoints
+	 */
+	interface LaneCallback {
+		void inTransactionOf(int lane);
+	}
+
+	private final int lanes;
+	private final TransactionTemplate transactionTemplate;
+	private final ExecutorService executor;
+	private final long timeoutMillis;
+
+	private final long startNanos = System.nanoTime();
+	private final AtomicLongArray actionsExecuted;
+	private final AtomicLongArray executeNanos;
+
+	/**
+	 * @param timeoutMillis hvor længe der højst ventes på, at de andre baner har committet deres del af en batch
+	 */
+	WriterLanes(int lanes, TransactionTemplate transactionTemplate, long timeoutMillis) {
+		if (lanes < 1) {
+			throw new IllegalArgumentException("There must be at least one writer lane, got " + lanes);
+		}
+		this.lanes = lanes;
+		this.timeoutMillis = timeoutMillis;
+		this.actionsExecuted = new AtomicLongArray(lanes);
+		this.executeNanos = new AtomicLongArray(lanes);
+		if (lanes == 1) {
+			this.transactionTemplate = transactionTemplate;
+			this.executor = null;
+		} else {
+			// Under REPEATABLE READ tager en banes sletninger gap-låse i indekset på externalReference, som en anden banes
+			// indsættelser må vente på. READ COMMITTED kræver binlog_format ROW eller MIXED, se YdelseimporterApplicationConfig
+			this.transactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager(), transactionTemplate);
+			this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+			this.executor = Executors.newFixedThreadPool(lanes - 1, ImportPipeline.namedThreads("ydelseimporter-writer"));
+		}
+	}
+
+	/**
+	 * Handlinger for samme reference ender altid i samme bane, så længe antallet af baner er det samme. En afbrudt
+	 * import skal derfor fortsætte med det antal baner, dens checkpoints blev gemt med
+	 * @return den bane, handlingen skrives i. Handlinger uden reference gør intet og lægges i den første bane
+	 */
+	static int laneOf(SsrAction action, int lanes) {
+		String externalReference = action.isInsertion() ? action.getSsrForInsertion().getExternalReference()
+				: action.getExternalReferenceForDeletion();
+		if (externalReference == null) {
+			return 0;
+		}
+		return (externalReference.hashCode() & Integer.MAX_VALUE) % lanes;
+	}
+
+	/**
+	 * Udfører og committer batchen i banerne, hver i sin egen transaktion. Fejler en eller flere baner, kastes den
+	 * første bane-fejl, når alle baner er færdige, eller når der er ventet timeoutMillis
+	 * @param inEachLane udføres i hver banes transaktion efter dens handlinger, også når banen ingen handlinger har
+	 */
+	void commit(List<SsrAction> batch, SSRWriteDAO dao, LaneCallback inEachLane) {
+		if (lanes == 1) {
+			commitLane(0, batch, dao, inEachLane);
+			return;
+		}
+
+		List<List<SsrAction>> parts = split(batch);
+		List<Future<Void>> otherLanes = new ArrayList<Future<Void>>();
+		for (int lane = 1; lane < lanes; lane++) {
+			otherLanes.add(executor.submit(laneTask(lane, parts.get(lane), dao, inEachLane)));
+		}
+		RuntimeException failure = null;
+		try {
+			commitLane(0, parts.get(0), dao, inEachLane);
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		RuntimeException otherFailure = awaitCommits(otherLanes);
+		if (failure != null) {
+			throw failure;
+		}
+		if (otherFailure != null) {
+			throw otherFailure;
+		}
+	}
+
+	private void commitLane(final int lane, final List<SsrAction> actions, final SSRWriteDAO dao, final LaneCallback inLane) {
+		transactionTemplate.execute(new TransactionCallback<Void>() {
+			@Override
+			public Void doInTransaction(TransactionStatus status) {
+				execute(lane, actions, dao);
+				inLane.inTransactionOf(lane);
+				return null;
+			}
+		});
+	}
+
+	private Callable<Void> laneTask(final int lane, final List<SsrAction> actions, final SSRWriteDAO dao, final LaneCallback inLane) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() {
+				commitLane(lane, actions, dao, inLane);
+				return null;
+			}
+		};
+	}
+
+	private List<List<SsrAction>> split(List<SsrAction> batch) {
+		List<List<SsrAction>> parts = new ArrayList<List<SsrAction>>(lanes);
+		for (int lane = 0; lane < lanes; lane++) {
+			parts.add(new ArrayList<SsrAction>(batch.size() / lanes + 1));
+		}
+		for (SsrAction action : batch) {
+			parts.get(laneOf(action, lanes)).add(action);
+		}
+		return parts;
+	}
+
+	private void execute(int lane, List<SsrAction> actions, SSRWriteDAO dao) {
+		if (actions.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		dao.execute(actions);
+		executeNanos.addAndGet(lane, System.nanoTime() - start);
+		actionsExecuted.addAndGet(lane, actions.size());
+	}
+
+	/**
+	 * Venter på alle de andre baner, også når en af dem fejler, så ingen bane stadig arbejder, når batchen er afgjort.
+	 * Er de ikke færdige inden for timeoutMillis, eller afbrydes ventetiden, ventes der alligevel, til hver bane har
+	 * committet eller rullet tilbage, før fejlen kastes. En bane afbrydes aldrig midt i sin transaktion, da et
+	 * interrupt ikke stopper et MySQL-statement, og banerne kan ikke bruges til flere batches bagefter
+	 * @return den første bane-fejl, eller null hvis alle baner committede
+	 */
+	private RuntimeException awaitCommits(List<Future<Void>> otherLanes) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		RuntimeException failure = null;
+		for (Future<Void> lane : otherLanes) {
+			try {
+				lane.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				awaitTermination(otherLanes);
+				Thread.currentThread().interrupt();
+				throw new ParserException("Interrupted while waiting for the writer lanes to commit", e);
+			} catch (TimeoutException e) {
+				awaitTermination(otherLanes);
+				throw new ParserException("The writer lanes did not commit within " + timeoutMillis + " ms", e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+							: new ParserException("A writer lane failed", e.getCause());
+				}
+			}
+		}
+		return failure;
+	}
+
+	/**
+	 * Banerne, der ikke er gået i gang, startes ikke, og dem, der er i gang, får lov at gøre deres transaktion færdig
+	 */
+	private void awaitTermination(List<Future<Void>> otherLanes) {
+		for (Future<Void> lane : otherLanes) {
+			lane.cancel(false);
+		}
+		executor.shutdown();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stopper banernes tråde, når de har committet eller rullet tilbage
+	 */
+	void close() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	int getLanes() {
+		return lanes;
+	}
+
+	long getActionsExecuted(int lane) {
+		return actionsExecuted.get(lane);
+	}
+
+	/**
+	 * @return handlinger i alt og pr. sekund for hver bane samt hvor stor en del af tiden banen har udført handlinger
+	 */
+	public String getStatistics() {
+		double elapsedSeconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+		StringBuilder statistics = new StringBuilder("writer lanes(" + lanes + "):");
+		for (int lane = 0; lane < lanes; lane++) {
+			statistics.append(String.format(" %d: %d actions, %.0f actions/s, busy %.0f%%%s",
+					lane, actionsExecuted.get(lane), actionsExecuted.get(lane) / elapsedSeconds,
+					100.0 * executeNanos.get(lane) / Math.max(1, System.nanoTime() - startNanos), lane < lanes - 1 ? "," : ""));
+		}
+		return statistics.toString();
+	}
+}
\ No newline at end of file
@@ -27,26 +27,36 @@
 package dk.nsi.sdm4.ydelse.parser;
 
 import dk.nsi.sdm4.core.parser.ParserException;
+import dk.nsi.sdm4.ydelse.dao.ImportCheckpointDAO;
+import dk.nsi.sdm4.ydelse.dao.SSRReloadDAO;
 import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.ImportCheckpoint;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Future;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 
 /**
  * Udfører de egentlige indsættelser af SSR-instanser i databasen ud fra en fil med SSR-linier.
- * Er særskilt Spring Bean for at kunne køre som @Async og dermed understøtte multitrådet-udførsel.
+ * Er særskilt Spring Bean, så importen kan køre i baggrunden på sin egen executor.
  */
 public class YdelseInserter {
 	private static final Logger log = Logger.getLogger(YdelseInserter.class);
@@ -54,62 +64,922 @@ public class YdelseInserter {
 	@Autowired
 	SSRWriteDAO dao;
 
+	@Autowired
+	ImportCheckpointDAO checkpointDao;
+
+	@Autowired
+	SSRReloadDAO reloadDao;
+
+	/**
+	 * Skriver i staging-tabellen ved en genindlæsning, med LOAD DATA LOCAL INFILE, hvis reloadinsertmethod er "loaddata"
+	 */
+	@Autowired
+	@Qualifier("reloadWriteDao")
+	SSRWriteDAO reloadWriteDao;
+
 	@Autowired
 	TransactionTemplate transactionTemplate;
 
+	@Autowired
+	@Qualifier("importExecutor")
+	Executor importExecutor;
+
 	@Value("${spooler.ydelseimporter.batchsize}")
 	protected int batchSize = 1;
 
-	private int progressBatchSize = 10000;
+	/**
+	 * Antal skrivebaner, der skriver hver batch samtidigt i hver sin transaktion, fordelt efter externalReference, se
+	 * {@link WriterLanes}
+	 */
+	@Value("${spooler.ydelseimporter.writerlanes}")
+	protected int writerLanes = 1;
+
+	/**
+	 * Hvor mange sekunder der højst ventes på, at skrivebanerne har committet deres del af en batch
+	 */
+	@Value("${spooler.ydelseimporter.writertimeoutseconds}")
+	protected int writerTimeoutSeconds = 600;
+
+	static final String MAPPED_READER = "mapped";
+	static final String STREAM_READER = "stream";
+
+	/**
+	 * "mapped" læser filen memory mappet og parser direkte fra bytes, "stream" er den gamle linie-baserede læsning,
+	 * der kan bruges som fallback
+	 */
+	@Value("${spooler.ydelseimporter.reader}")
+	protected String readerMode = MAPPED_READER;
+
+	/**
+	 * Antal tråde der parser bidder af filen samtidigt. 0 betyder én pr. processor
+	 */
+	@Value("${spooler.ydelseimporter.parserthreads}")
+	protected int parserThreads = 0;
+
+	/**
+	 * Antal bidder af filen, der højst må være læst, men endnu ikke skrevet til databasen. Køen gøres altid mindst
+	 * dobbelt så lang som antallet af parsertråde, så alle tråde kan arbejde, mens databasen venter på den ældste bid
+	 */
+	@Value("${spooler.ydelseimporter.queuesize}")
+	protected int queueSize = 16;
+
+	/**
+	 * Den foretrukne størrelse i bytes af de bidder, filen deles op i. Bidderne slutter altid ved et linieskift
+	 */
+	@Value("${spooler.ydelseimporter.chunksize}")
+	protected int chunkSize = SsrLineReader.DEFAULT_CHUNK_SIZE;
+
+	static final String FULL_IMPORT = "full";
+	static final String DELTA_IMPORT = "delta";
+	static final String RELOAD_IMPORT = "reload";
+
+	/**
+	 * "full" sender alle handlinger i udtrækket til databasen. "delta" læser udtrækket to gange og sender kun
+	 * handlingerne for de referencer, der ændres i forhold til sidste import, se {@link DeltaFingerprints}.
+	 * "reload" skriver alle handlinger i en staging-tabel og sætter den i stedet for SSR, når udtrækket er læst, så
+	 * læserne aldrig ser en halvt indlæst tabel, se {@link SSRReloadDAO}
+	 */
+	@Value("${spooler.ydelseimporter.mode}")
+	protected String importMode = FULL_IMPORT;
 
-	List<SsrAction> batch = new ArrayList<SsrAction>(batchSize);
+	/**
+	 * Mappe på lokal disk, hvor delta-importen gemmer fingeraftryk af tabellen mellem to importer
+	 */
+	@Value("${spooler.ydelseimporter.deltadir}")
+	protected File deltaDir;
+
+	static final String FAIL_ON_MALFORMED_LINES = "fail";
+	static final String QUARANTINE_MALFORMED_LINES = "quarantine";
+
+	/**
+	 * "fail" stopper importen ved den første linie, der ikke kan parses. "quarantine" skriver linien i en
+	 * {@link RejectFile} i rejectDir og fortsætter, indtil der er afvist flere linier end maxRejects eller
+	 * maxRejectRatio tillader
+	 */
+	@Value("${spooler.ydelseimporter.malformedlines}")
+	protected String malformedLines = FAIL_ON_MALFORMED_LINES;
+
+	/**
+	 * Mappe på lokal disk til afviste linier. Filerne ligger ikke ved siden af datasættet, da spooleren ejer
+	 * spool-mappen og kunne tage en fremmed fil der for et nyt datasæt
+	 */
+	@Value("${spooler.ydelseimporter.rejectdir}")
+	protected File rejectDir;
 
 	/**
-	 * Læser den angivne fil, parser hver linie og udfører de angivne operationer
-	 * @return Future, der kan bruges til at holde styr på, om processen er færdig
+	 * Importen fejler, når den har afvist flere linier end dette
 	 */
-	public Future<Long> readFileAndPerformDatabaseOperations(File file) {
-		BufferedReader bf = null;
-        long counter = 0;
+	@Value("${spooler.ydelseimporter.maxrejects}")
+	protected long maxRejects = 1000;
+
+	/**
+	 * Importen fejler, når andelen af afviste linier bliver større end dette; andelen tjekkes først, når der er læst
+	 * {@value #MIN_LINES_FOR_REJECT_RATIO} linier, så en enkelt fejl tidligt i udtrækket ikke stopper importen
+	 */
+	@Value("${spooler.ydelseimporter.maxrejectratio}")
+	protected double maxRejectRatio = 0.001;
+
+	static final long MIN_LINES_FOR_REJECT_RATIO = 10000;
+
+	/**
+	 * En genindlæsning afvises og SSR bevares, hvis staging-tabellen har færre rækker end denne andel af SSR's, fx
+	 * fordi udtrækket er afkortet
+	 */
+	@Value("${spooler.ydelseimporter.reloadminrowratio}")
+	protected double reloadMinRowRatio = 0.5;
+
+	private int progressBatchSize = 10000;
+
+	/**
+	 * Læser de angivne filer, parser hver linie og udfører de angivne operationer.
+	 * Hver fil læses kun én gang; antal linier, fremdrift og forventet resttid udledes af læserens byte-offset.
+	 * Læsning, parsning og databaseskrivning kører samtidigt i hver sin tråd, se {@link ImportPipeline}.
+	 * Bidder fra flere filer kan blive parset samtidigt, men handlingerne udføres altid i filernes rækkefølge, så
+	 * en externalReference, der optræder i flere filer, behandles i datasættets rækkefølge.
+	 * Filerne må være gzip- eller deflate-komprimerede; de dekomprimeres da undervejs, og fremdriften måles i
+	 * komprimerede bytes, se {@link CompressedSsrFileReader}.
+	 * Hver batch gemmer et checkpoint i samme transaktion, så en afbrudt import fortsætter fra den sidst committede
+	 * linie næste gang, i stedet for at starte forfra og indsætte de samme linier igen. Med flere skrivebaner har hver
+	 * bane sit eget checkpoint, og importen fortsætter med det antal baner, den blev afbrudt med.
+	 * I delta-mode beregnes først, hvilke referencer udtrækket ændrer, og kun deres handlinger udføres.
+	 * I reload-mode skrives handlingerne i staging-tabellen, som til sidst sættes i stedet for SSR; en afbrudt
+	 * genindlæsning fortsætter i den samme staging-tabel.
+	 * Importen kører i baggrunden på importExecutor, og metoden vender straks tilbage.
+	 * @return håndtag, der giver fremdriften undervejs, kan afbryde importen ved næste batch-grænse, og som til sidst
+	 * giver fremdriften for hver fil
+	 */
+	public ImportHandle readFilesAndPerformDatabaseOperations(final List<File> files) {
+		ImportHandle handle = new ImportHandle(new ImportHandle.Task() {
+			@Override
+			public List<ImportProgress> run(ImportHandle handle) {
+				return importFiles(files, handle);
+			}
+		});
+		handle.startOn(importExecutor);
+		return handle;
+	}
+
+	private List<ImportProgress> importFiles(List<File> files, ImportHandle handle) {
+		int threads = effectiveParserThreads();
+		ImportPipeline pipeline = new ImportPipeline(threads, Math.max(queueSize, 2 * threads));
+		BatchWriter writer = null;
 		try {
-			bf = new BufferedReader(new FileReader(file));
-
-			String line;
-			while ((line = bf.readLine()) != null) {
-				SsrAction ssrAction = SSRLineParser.parseLine(line);
-				batch.add(ssrAction);
-				counter++;
-				if (counter % progressBatchSize == 0) {
-					log.info("Progress: " + counter);
-				}
-				if (batch.size() == batchSize) {
-					commitBatch();
-				}
+			boolean reloading = RELOAD_IMPORT.equals(importMode);
+			List<DatasetFile> datasetFiles = findCheckpoints(files, reloading ? reloadDao.getStagingTable() : ImportCheckpoint.SSR_TABLE);
+			SSRWriteDAO target = dao;
+			if (reloading) {
+				datasetFiles = prepareStagingTable(datasetFiles);
+				target = reloadWriteDao.inTable(reloadDao.getStagingTable());
+			}
+			DeltaFingerprints delta = null;
+			long deltaGeneration = 0;
+			if (DELTA_IMPORT.equals(importMode)) {
+				long previousGeneration = checkpointDao.findDeltaGeneration();
+				delta = findChanges(datasetFiles, previousGeneration, handle);
+				deltaGeneration = previousGeneration + 1;
+				delta.write(fingerprintFile(deltaGeneration));
 			}
 
-			commitBatch(); // commit den rest der kan være fra sidste gennemløb
+			writer = new BatchWriter(datasetFiles, pipeline, handle, target, delta, deltaGeneration, rejectFileFor(datasetName(files)));
+			pipeline.run(new DatasetSource(datasetFiles, true, isQuarantining(), handle.getParseErrors(), handle.getIdentifierCache()), writer);
+
+			writer.finish(); // commit den rest der kan være fra sidste gennemløb
+			log.info("Done: " + files.size() + " files, " + pipeline.getStatistics() + ", " + writer.lanes.getStatistics());
+			if (delta != null) {
+				deleteFingerprintsExcept(deltaGeneration);
+			}
+		} catch (CancellationException e) {
+			log.info("Import cancelled, it will resume from the last checkpoint next time: " + handle);
+			throw e;
 		} catch (Exception e) {
+			File file = writer != null ? writer.currentFile() : files.get(0);
 			throw new ParserException("Could not parse file " + file.getAbsolutePath(), e);
 		} finally {
-			IOUtils.closeQuietly(bf);
+			if (writer != null) {
+				writer.close();
+			}
+		}
+
+		if (RELOAD_IMPORT.equals(importMode)) {
+			swapInStagingTable();
 		}
+		return writer.progress; // afleveres til SLA-loggen
+	}
 
-		return new AsyncResult<Long>(counter); // bruges bare til at signalere completion
+	/**
+	 * En afbrudt genindlæsning fortsætter fra sine checkpoints i den staging-tabel, den nåede at skrive i. Ellers
+	 * oprettes en ny, tom staging-tabel, og er den afbrudte genindlæsnings tabel væk, startes der forfra
+	 */
+	private List<DatasetFile> prepareStagingTable(List<DatasetFile> datasetFiles) throws IOException {
+		boolean resuming = false;
+		for (DatasetFile file : datasetFiles) {
+			resuming |= file.linesByLane != null;
+		}
+		if (resuming && reloadDao.stagingTableExists()) {
+			log.info("Resuming reload into " + reloadDao.getStagingTable());
+			return datasetFiles;
+		}
+
+		reloadDao.createStagingTable();
+		if (!resuming) {
+			return datasetFiles;
+		}
+		log.warn(reloadDao.getStagingTable() + " of the interrupted reload is gone, the reload starts over");
+		List<DatasetFile> fromStart = new ArrayList<DatasetFile>();
+		for (DatasetFile file : datasetFiles) {
+			checkpointDao.delete(file.checkpoint);
+			fromStart.add(new DatasetFile(file.file, file.checkpoint.at(0, 0), file.compressed));
+		}
+		return fromStart;
 	}
 
-	private void commitBatch() {
-		transactionTemplate.execute(new TransactionCallback<Void>() {
+	/**
+	 * Tjekker, at staging-tabellen ikke er mistænkeligt meget mindre end SSR, genopbygger dens indekser og sætter den
+	 * i stedet for SSR i én atomisk omdøbning. Den gamle tabel gemmes til {@link #rollbackReload()}. Afvises
+	 * genindlæsningen, er SSR uændret, og staging-tabellen bliver liggende, til den næste genindlæsning starter
+	 */
+	private void swapInStagingTable() {
+		long rows = reloadDao.countStagingRows();
+		long previousRows = reloadDao.countRows();
+		if (rows < reloadMinRowRatio * previousRows) {
+			reloadDao.recordReload(SSRReloadDAO.REJECTED, rows);
+			throw new ParserException("Reload rejected, " + reloadDao.getStagingTable() + " has " + rows + " rows and SSR has "
+					+ previousRows + ", the least allowed ratio is " + reloadMinRowRatio + ". SSR is unchanged");
+		}
+		reloadDao.rebuildIndexes();
+		reloadDao.swap();
+		reloadDao.recordReload(SSRReloadDAO.SWAPPED, rows);
+		log.info("Reload of " + rows + " rows swapped in, the previous " + previousRows + " rows are kept for a rollback");
+	}
+
+	/**
+	 * Sætter tabellen fra før den seneste genindlæsning tilbage i stedet for SSR. Delta-fingeraftrykkene passer ikke
+	 * til den gamle tabel, så den næste delta-import udfører alle handlinger
+	 */
+	public void rollbackReload() {
+		reloadDao.rollback();
+		checkpointDao.saveDeltaGeneration(0);
+		reloadDao.recordRollback();
+		log.info("Reload rolled back");
+	}
+
+	/**
+	 * Importerer et udtræk, mens det stadig ankommer, fx gennem et pipe fra overførselsprocessen, så overførsel og
+	 * import overlapper i stedet for at køre efter hinanden. Strømmen læses med samme parsere og batches som en fil
+	 * og må også være gzip- eller deflate-komprimeret, se {@link CompressedSsrFileReader}.
+	 * En strøm kan kun læses én gang, så der gemmes ingen checkpoints, og delta-mode kan ikke bruges; en afbrudt
+	 * import af en strøm skal startes forfra. I reload-mode skrives strømmen i en ny staging-tabel hver gang.
+	 * Strømmen lukkes, når den er læst.
+	 * @param name udtrækkets navn, bruges i log og fremdrift og til at genkende rå deflate på endelsen ".deflate"
+	 * @see #readFilesAndPerformDatabaseOperations(List)
+	 */
+	public ImportHandle readStreamAndPerformDatabaseOperations(final InputStream in, final String name) {
+		ImportHandle handle = new ImportHandle(new ImportHandle.Task() {
 			@Override
-			public Void doInTransaction(TransactionStatus status) {
-				if (batch.size() > 0) {
-					log.info("Committing batch of size " + batch.size());
-					for (SsrAction ssrAction : batch) {
-						ssrAction.execute(dao);
+			public List<ImportProgress> run(ImportHandle handle) {
+				return importStream(in, name, handle);
+			}
+		});
+		handle.startOn(importExecutor);
+		return handle;
+	}
+
+	private List<ImportProgress> importStream(InputStream in, String name, ImportHandle handle) {
+		if (DELTA_IMPORT.equals(importMode)) {
+			log.warn("A stream can only be read once, so " + name + " is imported in full and not as a delta");
+		}
+		int threads = effectiveParserThreads();
+		ImportPipeline pipeline = new ImportPipeline(threads, Math.max(queueSize, 2 * threads));
+		List<DatasetFile> stream = Collections.singletonList(new DatasetFile(new File(name), in));
+		SSRWriteDAO target = dao;
+		if (RELOAD_IMPORT.equals(importMode)) {
+			reloadDao.createStagingTable();
+			target = reloadWriteDao.inTable(reloadDao.getStagingTable());
+		}
+		BatchWriter writer = new BatchWriter(stream, pipeline, handle, target, null, 0, rejectFileFor(name));
+		try {
+			pipeline.run(new DatasetSource(stream, true, isQuarantining(), handle.getParseErrors(), handle.getIdentifierCache()), writer);
+			writer.finish();
+			log.info("Done: stream " + name + ", " + pipeline.getStatistics() + ", " + writer.lanes.getStatistics());
+		} catch (CancellationException e) {
+			log.info("Import of stream " + name + " cancelled, it has to be imported again from the start: " + handle);
+			throw e;
+		} catch (Exception e) {
+			throw new ParserException("Could not parse stream " + name, e);
+		} finally {
+			IOUtils.closeQuietly(in);
+			writer.close();
+		}
+
+		if (RELOAD_IMPORT.equals(importMode)) {
+			swapInStagingTable();
+		}
+		return writer.progress;
+	}
+
+	/**
+	 * Tørkørsel: læser og parser filerne med samme læsere og parsertråde som en import, men rører ikke databasen.
+	 * Linier, der ikke kan parses, stopper ikke gennemløbet, men samles i rapporten med fil og linienummer
+	 * @return antal handlinger pr. type og alle linier, der ikke kan parses
+	 */
+	public ValidationReport validateFiles(List<File> files) {
+		int threads = effectiveParserThreads();
+		ImportPipeline pipeline = new ImportPipeline(threads, Math.max(queueSize, 2 * threads));
+		final ValidationReport report = new ValidationReport();
+		final List<DatasetFile> datasetFiles = new ArrayList<DatasetFile>();
+		try {
+			for (File file : files) {
+				datasetFiles.add(new DatasetFile(file, ImportCheckpoint.atStartOf(file), CompressedSsrFileReader.isCompressed(file)));
+			}
+			pipeline.run(new DatasetSource(datasetFiles, false, true, null, new IdentifierCache()), new ImportPipeline.ChunkHandler() {
+				private int fileIndex;
+				private long linesBefore;
+
+				@Override
+				public void handle(SsrChunk chunk) {
+					if (chunk.getFileIndex() != fileIndex) {
+						fileIndex = chunk.getFileIndex();
+						linesBefore = 0;
 					}
-					batch.clear();
+					report.add(datasetFiles.get(fileIndex).file, linesBefore, chunk);
+					linesBefore += chunk.getLineCount() + chunk.getMalformedLines().size();
+				}
+			});
+		} catch (Exception e) {
+			throw new ParserException("Could not validate files " + files, e);
+		}
+		for (File file : files) {
+			report.fileRead(file.length());
+		}
+		report.finish();
+		log.info("Validated: " + report + ", " + pipeline.getStatistics());
+		return report;
+	}
+
+	/**
+	 * Parser og validerer filerne præcis som ved en import og skriver handlingerne i rækkefølge til én
+	 * {@link SsrActionFile}, der siden kan importeres i stedet for filerne uden at parse dem igen. Databasen røres
+	 * ikke. Filen skrives først under et midlertidigt navn og omdøbes, når den er komplet, så en halv fil aldrig
+	 * ligner en handlingsfil
+	 * @return antal handlinger i filen
+	 */
+	public long writeActionFile(List<File> files, File target) {
+		int threads = effectiveParserThreads();
+		ImportPipeline pipeline = new ImportPipeline(threads, Math.max(queueSize, 2 * threads));
+		File part = new File(target.getPath() + ".part");
+		SsrActionFile.Writer writer = null;
+		try {
+			List<DatasetFile> datasetFiles = new ArrayList<DatasetFile>();
+			for (File file : files) {
+				datasetFiles.add(new DatasetFile(file, ImportCheckpoint.atStartOf(file), CompressedSsrFileReader.isCompressed(file)));
+			}
+			final SsrActionFile.Writer actions = writer = new SsrActionFile.Writer(part);
+			pipeline.run(new DatasetSource(datasetFiles, false, false, null, new IdentifierCache()), new ImportPipeline.ChunkHandler() {
+				@Override
+				public void handle(SsrChunk chunk) {
+					try {
+						for (SsrAction action : chunk.getActions()) {
+							actions.write(action);
+						}
+					} catch (IOException e) {
+						throw new ParserException("Could not write " + actions.getFile().getAbsolutePath(), e);
+					}
+					if (chunk.getFailure() != null) {
+						throw chunk.getFailure();
+					}
+				}
+			});
+			writer.close();
+			if (!part.renameTo(target)) {
+				throw new IOException("Could not rename " + part.getAbsolutePath() + " to " + target.getName());
+			}
+		} catch (Exception e) {
+			IOUtils.closeQuietly(writer);
+			part.delete();
+			throw new ParserException("Could not write action file " + target.getAbsolutePath() + " for " + files, e);
+		}
+		log.info("Wrote " + writer.getCount() + " actions to " + target.getAbsolutePath() + ", " + pipeline.getStatistics());
+		return writer.getCount();
+	}
+
+	/**
+	 * Første gennemløb i delta-mode: læser hele udtrækket, uanset checkpoints, og afgør hvilke referencer der ændres.
+	 * Fortsætter importen efter et nedbrud, er fingeraftrykkene fra sidste import de samme, så der træffes de samme
+	 * valg som i den afbrudte kørsel
+	 */
+	private DeltaFingerprints findChanges(List<DatasetFile> datasetFiles, long previousGeneration, final ImportHandle handle) throws Exception {
+		final DeltaFingerprints delta = loadFingerprints(previousGeneration);
+		int threads = effectiveParserThreads();
+		ImportPipeline pipeline = new ImportPipeline(threads, Math.max(queueSize, 2 * threads));
+		// de afviste linier skrives først i karantæne, når handlingerne udføres
+		pipeline.run(new DatasetSource(datasetFiles, false, isQuarantining(), null, handle.getIdentifierCache()), new ImportPipeline.ChunkHandler() {
+			@Override
+			public void handle(SsrChunk chunk) {
+				handle.stopIfCancelled();
+				for (SsrAction action : chunk.getActions()) {
+					delta.add(action);
+				}
+				if (chunk.getFailure() != null) {
+					throw chunk.getFailure();
 				}
-				return null; // kun for at gøre TransactionCallback-interfacet glad, ingen bruger en returværdi til noget
 			}
 		});
+		int changed = delta.decideChanges();
+		log.info("Delta: " + changed + " of " + delta.getReferenceCount() + " references are changed, " + pipeline.getStatistics());
+		return delta;
+	}
+
+	private DeltaFingerprints loadFingerprints(long generation) throws IOException {
+		File file = fingerprintFile(generation);
+		if (generation == 0) {
+			log.info("No delta fingerprints match the database, every action will be performed");
+			return DeltaFingerprints.none();
+		} else if (!file.isFile()) {
+			log.warn("Delta fingerprints " + file.getAbsolutePath() + " are missing, every action will be performed");
+			return DeltaFingerprints.none();
+		}
+		return DeltaFingerprints.read(file);
+	}
+
+	private File fingerprintFile(long generation) throws IOException {
+		if (!deltaDir.isDirectory() && !deltaDir.mkdirs()) {
+			throw new IOException("Could not create " + deltaDir.getAbsolutePath());
+		}
+		return new File(deltaDir, "ssr-fingerprints-" + generation + ".bin");
+	}
+
+	private void deleteFingerprintsExcept(long generation) throws IOException {
+		File current = fingerprintFile(generation);
+		File[] files = deltaDir.listFiles();
+		for (File file : files != null ? files : new File[0]) {
+			if (file.getName().startsWith("ssr-fingerprints-") && !file.equals(current) && !file.delete()) {
+				log.warn("Could not delete old delta fingerprints " + file.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Finder ud af, hvor langt en tidligere, afbrudt import af hver fil nåede. Hver skrivebane har sit eget checkpoint,
+	 * så filen læses fra det tidligste, og hver bane springer de linier over, den selv nåede at committe; en bane uden
+	 * checkpoint nåede ingen linier. Checkpoints fra en import i en anden tabel, fx en afbrudt genindlæsning
+	 * efterfulgt af en almindelig import, siger intet om tabellen, der skrives i nu, så de slettes, og filen læses
+	 * forfra
+	 * @param table tabellen, importen skriver i, SSR eller genindlæsningens staging-tabel
+	 */
+	private List<DatasetFile> findCheckpoints(List<File> files, String table) throws IOException {
+		List<DatasetFile> datasetFiles = new ArrayList<DatasetFile>();
+		for (File file : files) {
+			ImportCheckpoint start = ImportCheckpoint.atStartOf(file).startIn(table);
+			List<ImportCheckpoint> saved = checkpointDao.find(start);
+			for (ImportCheckpoint checkpoint : saved) {
+				if (!table.equals(checkpoint.getTable())) {
+					log.warn("Deleting the checkpoints " + saved + ", " + file.getAbsolutePath() + " is imported into " + table + " from the start");
+					checkpointDao.delete(start);
+					saved = Collections.emptyList();
+					break;
+				}
+			}
+			boolean compressed = CompressedSsrFileReader.isCompressed(file);
+			if (saved.isEmpty()) {
+				datasetFiles.add(new DatasetFile(file, start, compressed));
+				continue;
+			}
+
+			long[] linesByLane = new long[saved.get(0).getLanes()];
+			ImportCheckpoint earliest = saved.get(0);
+			for (ImportCheckpoint checkpoint : saved) {
+				linesByLane[checkpoint.getLane()] = checkpoint.getLineNumber();
+				if (checkpoint.getLineNumber() < earliest.getLineNumber()) {
+					earliest = checkpoint;
+				}
+			}
+			if (saved.size() < linesByLane.length) {
+				earliest = start;
+			}
+			log.info("Resuming import of " + file.getAbsolutePath() + " from " + earliest + ", the writer lanes have reached " + saved);
+			datasetFiles.add(new DatasetFile(file, earliest, compressed, linesByLane));
+		}
+		return datasetFiles;
+	}
+
+	/**
+	 * En afbrudt import fortsætter med det antal skrivebaner, dens checkpoints blev gemt med, da en handlings bane
+	 * afhænger af antallet
+	 */
+	private int writerLanesFor(List<DatasetFile> files) {
+		int lanes = 0;
+		for (DatasetFile file : files) {
+			if (file.linesByLane == null) {
+				continue;
+			}
+			if (lanes != 0 && lanes != file.linesByLane.length) {
+				throw new ParserException("The checkpoints of the dataset were saved with both " + lanes + " and "
+						+ file.linesByLane.length + " writer lanes, delete them from ydelseimporterCheckpoint to import it from the start");
+			}
+			lanes = file.linesByLane.length;
+		}
+		if (lanes == 0) {
+			return writerLanes;
+		}
+		if (lanes != writerLanes) {
+			log.info("Resuming with " + lanes + " writer lanes like the interrupted import, instead of " + writerLanes);
+		}
+		return lanes;
+	}
+
+	/**
+	 * "mapped" læser filen gennem memory mappede vinduer og parser felterne direkte fra de mappede bytes.
+	 * "stream" læser filen som en strøm af tekstlinier, langsommere, men virker på alle slags filer.
+	 * En handlingsfil læses altid memory mappet og uden parsning, se {@link SsrActionFile}.
+	 * Læsningen starter ved filens checkpoint
+	 */
+	private SsrChunkSource openSource(DatasetFile datasetFile, ImportCheckpoint checkpoint) throws IOException {
+		if (datasetFile.stream != null) {
+			return openStream(datasetFile);
+		}
+		File file = datasetFile.file;
+		long offset = checkpoint.getByteOffset();
+		long lineNumber = checkpoint.getLineNumber();
+		if (SsrActionFile.isActionFile(file)) {
+			SsrActionFileReader reader = new SsrActionFileReader(file, chunkSize);
+			reader.resumeAt(offset, lineNumber);
+			return reader;
+		} else if (datasetFile.compressed) {
+			CompressedSsrFileReader reader = new CompressedSsrFileReader(file, chunkSize);
+			reader.resumeAt(offset, lineNumber);
+			return reader;
+		} else if (MAPPED_READER.equals(readerMode)) {
+			MappedSsrFileReader reader = new MappedSsrFileReader(file, chunkSize);
+			reader.resumeAt(offset, lineNumber);
+			return reader;
+		} else {
+			SsrLineReader reader = new SsrLineReader(new FileInputStream(file), SsrLineReader.DEFAULT_BUFFER_SIZE, chunkSize);
+			reader.resumeAt(offset, lineNumber);
+			return reader;
+		}
+	}
+
+	/**
+	 * En strøm læses altid fra starten, da den ikke kan spoles frem
+	 */
+	private SsrChunkSource openStream(DatasetFile datasetFile) throws IOException {
+		InputStream in = new BufferedInputStream(datasetFile.stream, SsrLineReader.DEFAULT_BUFFER_SIZE);
+		CompressedSsrFileReader.Compression compression = CompressedSsrFileReader.compressionOf(datasetFile.file.getName(), in);
+		if (compression != CompressedSsrFileReader.Compression.NONE) {
+			return new CompressedSsrFileReader(in, compression, chunkSize);
+		}
+		return new SsrLineReader(in, SsrLineReader.DEFAULT_BUFFER_SIZE, chunkSize);
+	}
+
+	/**
+	 * En fil i datasættet eller en strøm. En strøm har intet checkpoint, og dens størrelse kendes ikke på forhånd
+	 */
+	private static class DatasetFile {
+		final File file;
+		final ImportCheckpoint checkpoint;
+		final boolean compressed;
+		final InputStream stream;
+		/**
+		 * Antal linier, hver skrivebane nåede at committe i en afbrudt import, eller null hvis filen læses fra sit
+		 * checkpoint uden at springe noget over
+		 */
+		final long[] linesByLane;
+
+		DatasetFile(File file, ImportCheckpoint checkpoint, boolean compressed) {
+			this(file, checkpoint, compressed, null);
+		}
+
+		DatasetFile(File file, ImportCheckpoint checkpoint, boolean compressed, long[] linesByLane) {
+			this.file = file;
+			this.checkpoint = checkpoint;
+			this.compressed = compressed;
+			this.stream = null;
+			this.linesByLane = linesByLane;
+		}
+
+		DatasetFile(File name, InputStream stream) {
+			this.file = name;
+			this.checkpoint = null;
+			this.compressed = false;
+			this.stream = stream;
+			this.linesByLane = null;
+		}
+
+		/**
+		 * @return om en af skrivebanerne nåede længere end linien i en afbrudt import
+		 */
+		boolean isPartlyWrittenAfter(long line) {
+			if (linesByLane != null) {
+				for (long lines : linesByLane) {
+					if (lines > line) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @param line liniens nummer i filen, regnet fra 1
+		 * @return om handlingens skrivebane allerede committede den i en afbrudt import
+		 */
+		boolean isWrittenByItsLane(SsrAction action, long line) {
+			return line <= linesByLane[WriterLanes.laneOf(action, linesByLane.length)];
+		}
+	}
+
+	/**
+	 * Læser filerne efter hinanden og markerer hver bid med, hvilken fil den kommer fra
+	 */
+	private class DatasetSource implements SsrChunkSource {
+		private final List<DatasetFile> files;
+		private final boolean fromCheckpoints;
+		private final boolean skipMalformedLines;
+		private final ParseErrorCounters errorCounters;
+		private final IdentifierCache identifiers;
+		private int fileIndex = -1;
+		private SsrChunkSource current;
+
+		/**
+		 * @param fromCheckpoints om hver fil skal læses fra sit checkpoint eller fra starten
+		 * @param skipMalformedLines om parsningen skal fortsætte efter linier, der ikke kan parses
+		 * @param errorCounters hvor linierne, der springes over pga. en ParseError, tælles, eller null
+		 * @param identifiers hvor handlingerne deler ydernumre og cpr-numre
+		 */
+		DatasetSource(List<DatasetFile> files, boolean fromCheckpoints, boolean skipMalformedLines, ParseErrorCounters errorCounters,
+				IdentifierCache identifiers) {
+			this.files = files;
+			this.fromCheckpoints = fromCheckpoints;
+			this.skipMalformedLines = skipMalformedLines;
+			this.errorCounters = errorCounters;
+			this.identifiers = identifiers;
+		}
+
+		@Override
+		public SsrChunk nextChunk() throws IOException {
+			while (true) {
+				if (current == null) {
+					if (fileIndex + 1 == files.size()) {
+						return null;
+					}
+					fileIndex++;
+					DatasetFile file = files.get(fileIndex);
+					current = openSource(file, fromCheckpoints ? file.checkpoint : file.checkpoint.at(0, 0));
+				}
+				SsrChunk chunk = current.nextChunk();
+				if (chunk != null) {
+					chunk.setFileIndex(fileIndex);
+					chunk.setSkipMalformedLines(skipMalformedLines);
+					chunk.setErrorCounters(errorCounters);
+					chunk.setIdentifierCache(identifiers);
+					return chunk;
+				}
+				current.close();
+				current = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (current != null) {
+				current.close();
+			}
+		}
+	}
+
+	private boolean isQuarantining() {
+		return QUARANTINE_MALFORMED_LINES.equals(malformedLines);
+	}
+
+	/**
+	 * @return karantænen for datasættets afviste linier, eller null hvis importen skal stoppe ved den første
+	 */
+	private RejectFile rejectFileFor(String datasetName) {
+		return isQuarantining() ? new RejectFile(new File(rejectDir, datasetName + ".rejected")) : null;
+	}
+
+	/**
+	 * Filerne i et datasæt ligger i datasættets mappe
+	 */
+	private static String datasetName(List<File> files) {
+		File dataset = files.get(0).getAbsoluteFile().getParentFile();
+		return dataset != null ? dataset.getName() : files.get(0).getName();
+	}
+
+	private int effectiveParserThreads() {
+		return parserThreads > 0 ? parserThreads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Samler de parsede handlinger i batches og committer hver batch i sin egen transaktion sammen med et checkpoint
+	 * for hver fil, batchen indeholder linier fra. Der committes kun ved slutningen af en bid, så checkpointet passer
+	 * præcis med de handlinger, der er udført; en batch kan derfor blive op til en bid større end batchSize.
+	 * Med flere skrivebaner deles hver batch mellem banerne, og hver bane gemmer sine egne checkpoints i sin egen
+	 * transaktion, så en bane, der fejler, ikke får de andre banes handlinger udført igen, når importen fortsætter
+	 */
+	private class BatchWriter implements ImportPipeline.ChunkHandler {
+		private final List<DatasetFile> files;
+		private final ImportPipeline pipeline;
+		private final ImportHandle handle;
+		private final SSRWriteDAO dao;
+		private final List<SsrAction> batch = new ArrayList<SsrAction>(batchSize);
+		private final Map<Integer, ImportCheckpoint> checkpoints = new LinkedHashMap<Integer, ImportCheckpoint>();
+		private final List<ImportProgress> progress = new ArrayList<ImportProgress>();
+		private final DeltaFingerprints delta;
+		private final long deltaGeneration;
+		private final RejectFile rejects;
+		private final WriterLanes lanes;
+		private long linesReadThisRun;
+
+		/**
+		 * @param dao tabellen, handlingerne skrives i; staging-tabellen ved en genindlæsning
+		 * @param delta de referencer, der ændres, eller null hvis alle handlinger skal udføres
+		 * @param deltaGeneration den generation af fingeraftryk, der passer til tabellen, når importen er færdig
+		 * @param rejects karantænen for linier, der ikke kan parses, eller null hvis de skal stoppe importen
+		 */
+		BatchWriter(List<DatasetFile> files, ImportPipeline pipeline, ImportHandle handle, SSRWriteDAO dao, DeltaFingerprints delta, long deltaGeneration, RejectFile rejects) {
+			this.files = files;
+			this.pipeline = pipeline;
+			this.handle = handle;
+			this.dao = dao;
+			this.delta = delta;
+			this.deltaGeneration = deltaGeneration;
+			this.rejects = rejects;
+			this.lanes = new WriterLanes(writerLanesFor(files), transactionTemplate, writerTimeoutSeconds * 1000L);
+		}
+
+		@Override
+		public void handle(SsrChunk chunk) {
+			ImportProgress fileProgress = progressFor(chunk.getFileIndex());
+			long linesBefore = fileProgress.getLinesRead();
+			addActions(chunk, files.get(chunk.getFileIndex()), linesBefore, fileProgress);
+			if (chunk.getFailure() != null) {
+				throw chunk.getFailure();
+			}
+
+			reject(chunk, linesBefore);
+			linesReadThisRun += chunk.getLineCount() + chunk.getMalformedLines().size();
+			fileProgress.update(linesBefore + chunk.getLineCount() + chunk.getMalformedLines().size(), chunk.getInputOffset());
+			ImportCheckpoint checkpoint = files.get(chunk.getFileIndex()).checkpoint;
+			if (checkpoint != null) {
+				checkpoints.put(chunk.getFileIndex(), checkpoint.at(chunk.getEndOffset(), fileProgress.getLinesRead()));
+			}
+			if (batch.size() >= batchSize) {
+				commitBatch(false);
+				handle.stopIfCancelled();
+			}
+
+			if (linesBefore / progressBatchSize != fileProgress.getLinesRead() / progressBatchSize) {
+				log.info("Progress: " + currentFile().getName() + " (" + progress.size() + "/" + files.size() + "): "
+						+ fileProgress + ", " + pipeline.getStatistics() + ", " + lanes.getStatistics());
+			}
+		}
+
+		/**
+		 * Lægger biddens handlinger i batchen, undtagen dem, delta-importen ikke skal udføre, og dem, hvis skrivebane
+		 * allerede committede dem, før importen blev afbrudt
+		 */
+		private void addActions(SsrChunk chunk, DatasetFile file, long linesBefore, ImportProgress fileProgress) {
+			boolean resumed = file.isPartlyWrittenAfter(linesBefore);
+			if (delta == null && !resumed) {
+				batch.addAll(chunk.getActions());
+				return;
+			}
+			List<ValidationReport.MalformedLine> malformedLines = chunk.getMalformedLines();
+			int malformed = 0;
+			long line = linesBefore;
+			int skipped = 0;
+			for (SsrAction action : chunk.getActions()) {
+				line++;
+				// linier, der ikke kan parses, har ingen handling
+				while (malformed < malformedLines.size() && linesBefore + malformedLines.get(malformed).getLineNumber() == line) {
+					malformed++;
+					line++;
+				}
+				if (resumed && file.isWrittenByItsLane(action, line)) {
+					continue;
+				}
+				if (delta != null && !delta.isChanged(action)) {
+					skipped++;
+					continue;
+				}
+				batch.add(action);
+			}
+			fileProgress.skipped(skipped);
+		}
+
+		/**
+		 * Sætter bidden linier, der ikke kan parses, i karantæne og stopper importen, hvis der nu er afvist for mange.
+		 * Afvisningsfilen tæller kun denne kørsels linier, så andelen regnes af de linier, der er læst i denne kørsel, og
+		 * ikke af dem, en genoptaget import sprang over
+		 */
+		private void reject(SsrChunk chunk, long linesBefore) {
+			if (chunk.getMalformedLines().isEmpty()) {
+				return;
+			}
+			for (ValidationReport.MalformedLine malformedLine : chunk.getMalformedLines()) {
+				rejects.write(malformedLine.inFile(files.get(chunk.getFileIndex()).file, linesBefore));
+			}
+			handle.linesRejected(chunk.getMalformedLines().size());
+
+			long rejected = rejects.getCount();
+			long lines = linesReadThisRun + chunk.getLineCount() + chunk.getMalformedLines().size();
+			if (rejected > maxRejects || (lines >= MIN_LINES_FOR_REJECT_RATIO && rejected > maxRejectRatio * lines)) {
+				rejects.flush();
+				throw new ParserException("Rejected " + rejected + " of " + lines + " lines, more than allowed by maxrejects="
+						+ maxRejects + " and maxrejectratio=" + maxRejectRatio + ". See " + rejects.getFile().getAbsolutePath());
+			}
+		}
+
+		void close() {
+			lanes.close();
+			if (rejects == null) {
+				return;
+			}
+			IOUtils.closeQuietly(rejects);
+			if (rejects.getCount() > 0) {
+				log.warn("Rejected " + rejects.getCount() + " lines, see " + rejects.getFile().getAbsolutePath());
+			}
+		}
+
+		/**
+		 * Bidderne kommer i filrækkefølge, så når en ny fil dukker op, er de foregående færdige. Filer uden linier
+		 * springes over og får en tom fremdrift
+		 */
+		private ImportProgress progressFor(int fileIndex) {
+			while (progress.size() <= fileIndex) {
+				finishCurrentFile();
+				DatasetFile next = files.get(progress.size());
+				ImportProgress fileProgress;
+				if (next.stream != null) {
+					fileProgress = new ImportProgress(next.file, -1);
+				} else {
+					fileProgress = new ImportProgress(next.file);
+					// komprimerede filer måler fremdrift i komprimerede bytes, som checkpointet ikke kender
+					fileProgress.resumeAt(next.checkpoint.getLineNumber(), next.compressed ? 0 : next.checkpoint.getByteOffset());
+				}
+				progress.add(fileProgress);
+				handle.fileStarted(fileProgress);
+			}
+			return progress.get(fileIndex);
+		}
+
+		private void finishCurrentFile() {
+			if (!progress.isEmpty()) {
+				ImportProgress last = progress.get(progress.size() - 1);
+				last.finish();
+				log.info("Done: " + currentFile().getName() + ": " + last);
+			}
+		}
+
+		/**
+		 * Committer den sidste batch og fjerner derefter checkpoints for alle filerne, da importen nu er gennemført.
+		 * Samtidig gemmes, hvilke fingeraftryk der nu passer til tabellen. Afbrydes importen imellem, står alle banernes
+		 * checkpoints ved filernes slutning, så den næste import kun fjerner dem
+		 */
+		void finish() {
+			commitBatch(true);
+			progressFor(files.size() - 1);
+			finishCurrentFile();
+		}
+
+		File currentFile() {
+			return files.get(Math.max(0, progress.size() - 1)).file;
+		}
+
+		private void commitBatch(final boolean lastBatch) {
+			if (rejects != null) {
+				rejects.flush();
+			}
+			if (batch.size() > 0) {
+				log.info("Committing batch of size " + batch.size());
+			}
+			final List<ImportCheckpoint> reached = new ArrayList<ImportCheckpoint>(checkpoints.values());
+			lanes.commit(batch, dao, new WriterLanes.LaneCallback() {
+				@Override
+				public void inTransactionOf(int lane) {
+					for (ImportCheckpoint checkpoint : reached) {
+						checkpointDao.save(checkpoint.inLane(lane, lanes.getLanes()));
+					}
+				}
+			});
+			batch.clear();
+			checkpoints.clear();
+			if (lastBatch) {
+				transactionTemplate.execute(new TransactionCallback<Void>() {
+					@Override
+					public Void doInTransaction(TransactionStatus status) {
+						for (DatasetFile file : files) {
+							if (file.checkpoint != null) {
+								checkpointDao.delete(file.checkpoint);
+							}
+						}
+						checkpointDao.saveDeltaGeneration(deltaGeneration);
+						return null; // kun for at gøre TransactionCallback-interfacet glad, ingen bruger en returværdi til noget
+					}
+				});
+			}
+			handle.batchCommitted();
+		}
 	}
 }
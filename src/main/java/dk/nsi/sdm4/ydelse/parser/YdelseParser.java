@@ -33,13 +33,19 @@ import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
 import dk.sdsd.nsp.slalog.api.SLALogItem;
 import dk.sdsd.nsp.slalog.api.SLALogger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import javax.annotation.PreDestroy;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Foretager gennemløb af en Ydelse-fil og koordinerer parsning og indsættelse/sletning.
@@ -47,6 +53,28 @@ import java.util.concurrent.Future;
 public class YdelseParser implements Parser {
     private static final SplunkLogger log = new SplunkLogger(YdelseParser.class);
 
+	static final String SLA_BYTES_PROCESSED = "bytesProcessed";
+	static final String SLA_DURATION_MILLIS = "durationMillis";
+	static final String SLA_FILES_PROCESSED = "filesProcessed";
+	static final String SLA_RESUMED_AT_LINE = "resumedAtLine";
+	static final String SLA_ACTIONS_SKIPPED = "actionsSkipped";
+	static final String SLA_INSERTIONS = "insertions";
+	static final String SLA_DELETIONS = "deletions";
+	static final String SLA_NOOPS = "noops";
+	static final String SLA_MALFORMED_LINES = "malformedLines";
+	static final String SLA_REJECTED_LINES = "rejectedLines";
+	static final String SLA_SHARED_DOCTOR_ORGANISATION_IDENTIFIERS = "sharedDoctorOrganisationIdentifiers";
+	static final String SLA_SHARED_PATIENT_CPRS = "sharedPatientCprs";
+	static final String SLA_IDENTIFIER_BYTES_SAVED = "identifierBytesSaved";
+
+	static final String NO_VALIDATION = "none";
+	static final String VALIDATE_FIRST = "first";
+	static final String VALIDATE_ONLY = "only";
+
+	private static final int MAX_LOGGED_MALFORMED_LINES = 1000;
+	private static final long PROGRESS_LOG_INTERVAL_SECONDS = 60;
+	private static final long STOP_TIMEOUT_SECONDS = 60;
+
 	@Autowired
 	SSRWriteDAO dao;
 
@@ -56,80 +84,268 @@ public class YdelseParser implements Parser {
     @Autowired
     private SLALogger slaLogger;
 
+	/**
+	 * "none" importerer datasættet direkte. "first" tørkører først hele datasættet og importerer kun, hvis alle
+	 * linier kan parses. "only" tørkører datasættet uden at importere det
+	 */
+	@Value("${spooler.ydelseimporter.validation}")
+	String validation = NO_VALIDATION;
+
+	private volatile ImportHandle currentImport;
+
 	/**
 	 * @see Parser#process(java.io.File, String)
 	 */
 	@Override
     public void process(File dataset, String identifier) throws ParserException {
-		File file = findSingleFileOrComplain(dataset);
+		List<File> files = findFilesOrComplain(dataset);
+		if (!NO_VALIDATION.equals(validation)) {
+			validateOrComplain(dataset, files, identifier);
+			if (VALIDATE_ONLY.equals(validation)) {
+				return;
+			}
+		}
+
         SLALogItem slaLogItem = slaLogger.createLogItem(getHome()+".process", "SDM4."+getHome()+".process");
         slaLogItem.setMessageId(identifier);
         slaLogItem.addCallParameter(Parser.SLA_INPUT_NAME, dataset.getAbsolutePath());
 
-		countNumberOfLines(file);
+        long startTime = System.currentTimeMillis();
+		ImportHandle handle = inserter.readFilesAndPerformDatabaseOperations(files);
+		List<ImportProgress> progress = awaitImport(handle, dataset.getAbsolutePath(), slaLogItem);
+        for (ImportProgress fileProgress : progress) {
+            logFile(fileProgress, identifier);
+        }
+		storeTotals(progress, handle, startTime, slaLogItem);
+	}
+
+	/**
+	 * Importerer et udtræk fra en strøm, fx et pipe fra overførselsprocessen, mens data stadig ankommer, så overførsel
+	 * og import overlapper. Strømmen gennemgår samme parsning og batches som et datasæt i spool-mappen, men kan kun
+	 * læses én gang: der gemmes ingen checkpoints, og hverken delta-mode eller tørkørsel bruges.
+	 * Vender først tilbage, når strømmen er læst til ende og importeret. Strømmen lukkes.
+	 * @param name udtrækkets navn til log og SLA-log; endelsen ".gz" eller ".deflate" angiver komprimering
+	 */
+	public void ingest(InputStream in, String name, String identifier) throws ParserException {
+		if (!NO_VALIDATION.equals(validation)) {
+			log.info("A stream can only be read once, so it is imported without validation", "name", name);
+		}
+		SLALogItem slaLogItem = slaLogger.createLogItem(getHome()+".ingest", "SDM4."+getHome()+".ingest");
+		slaLogItem.setMessageId(identifier);
+		slaLogItem.addCallParameter(Parser.SLA_INPUT_NAME, name);
+
+		long startTime = System.currentTimeMillis();
+		ImportHandle handle = inserter.readStreamAndPerformDatabaseOperations(in, name);
+		storeTotals(awaitImport(handle, name, slaLogItem), handle, startTime, slaLogItem);
+	}
+
+	/**
+	 * @see #ingest(InputStream, String, String)
+	 */
+	public void ingest(ReadableByteChannel channel, String name, String identifier) throws ParserException {
+		ingest(Channels.newInputStream(channel), name, identifier);
+	}
 
-        long processed = 0;
-		Future<Long> insertionFuture = inserter.readFileAndPerformDatabaseOperations(file);
+	/**
+	 * Venter på importen og gemmer SLA-loggen, hvis den fejler
+	 */
+	private List<ImportProgress> awaitImport(ImportHandle handle, String inputName, SLALogItem slaLogItem) {
+		currentImport = handle;
 		try {
-			processed = insertionFuture.get();
+			return waitFor(handle);
 		} catch (InterruptedException e) {
+			stop(handle);
             slaLogItem.setCallResultError("VitaminParser failed - Cause: " + e.getMessage());
             slaLogItem.store();
 			throw new RuntimeException(e);
+		} catch (CancellationException e) {
+			slaLogItem.setCallResultError("Import cancelled: " + handle);
+			slaLogItem.store();
+			throw new ParserException("Import of " + inputName + " was cancelled: " + handle, e);
 		} catch (ExecutionException e) {
             slaLogItem.setCallResultError("VitaminParser failed - Cause: " + e.getMessage());
             slaLogItem.store();
-			throw new ParserException("Unable to perform insertions for " + file.getAbsolutePath(), e);
+			throw new ParserException("Unable to perform insertions for " + inputName, e);
 		}
-        slaLogItem.addCallParameter(Parser.SLA_RECORDS_PROCESSED_MAME, ""+processed);
+	}
+
+	/**
+	 * Fortsatte importen fra et checkpoint, tælles kun de linier, der blev behandlet i denne kørsel. Linierne, der blev
+	 * sprunget over pga. manglende eller ugyldige behandlingsdatoer, logges ikke enkeltvis, men tælles pr. fejl.
+	 * Desuden logges, hvor mange ydernumre og cpr-numre der blev genbrugt, og hvor meget hukommelse det anslås at spare
+	 */
+	private void storeTotals(List<ImportProgress> progress, ImportHandle handle, long startTime, SLALogItem slaLogItem) {
+        ParseErrorCounters parseErrors = handle.getParseErrors();
+        long lines = 0;
+        long bytes = 0;
+        for (ImportProgress fileProgress : progress) {
+            lines += fileProgress.getLinesRead() - fileProgress.getResumedAtLine();
+            bytes += fileProgress.getBytesRead();
+        }
+        slaLogItem.addCallParameter(Parser.SLA_RECORDS_PROCESSED_MAME, ""+lines);
+        slaLogItem.addCallParameter(SLA_BYTES_PROCESSED, ""+bytes);
+        slaLogItem.addCallParameter(SLA_DURATION_MILLIS, ""+(System.currentTimeMillis() - startTime));
+        slaLogItem.addCallParameter(SLA_FILES_PROCESSED, ""+progress.size());
+        slaLogItem.addCallParameter(SLA_REJECTED_LINES, ""+handle.getLinesRejected());
+        IdentifierCache identifiers = handle.getIdentifierCache();
+        slaLogItem.addCallParameter(SLA_SHARED_DOCTOR_ORGANISATION_IDENTIFIERS, ""+identifiers.getDoctorOrganisationIdentifierHits());
+        slaLogItem.addCallParameter(SLA_SHARED_PATIENT_CPRS, ""+identifiers.getPatientCprHits());
+        slaLogItem.addCallParameter(SLA_IDENTIFIER_BYTES_SAVED, ""+identifiers.getBytesSaved());
+        log.info("Shared identifiers instead of validating and creating them again", "identifiers", identifiers.toString());
+        for (ParseError error : ParseError.values()) {
+            slaLogItem.addCallParameter(error.getSlaKey(), ""+parseErrors.get(error));
+        }
+        if (parseErrors.getTotal() > 0) {
+            log.info("Skipped lines without a valid treatment day", "lines", ""+parseErrors.getTotal(), "errors", parseErrors.toString());
+        }
         slaLogItem.setCallResultOk();
         slaLogItem.store();
 	}
 
-	private long countNumberOfLines(File file) {
-		BufferedReader bf = null;
-		try {
-			bf = new BufferedReader(new FileReader(file));
+	/**
+	 * Venter på, at importen bliver færdig, og logger fremdriften undervejs
+	 */
+	private List<ImportProgress> waitFor(ImportHandle handle) throws InterruptedException, ExecutionException {
+		while (true) {
+			try {
+				return handle.get(PROGRESS_LOG_INTERVAL_SECONDS, TimeUnit.SECONDS);
+			} catch (TimeoutException e) {
+				log.info("Import in progress", "status", handle.toString());
+			}
+		}
+	}
 
-			long numLines = 0;
-			while (bf.readLine() != null) {
-				numLines++;
+	/**
+	 * Beder importen stoppe ved næste batch-grænse og venter på, at den gør det, så den ikke skriver videre i
+	 * baggrunden, efter at spooleren er gået videre
+	 */
+	private void stop(ImportHandle handle) {
+		handle.cancel(false);
+		try {
+			if (!handle.awaitStopped(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				log.error("Import did not stop within " + STOP_TIMEOUT_SECONDS + " seconds", "status", handle.toString());
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
 
-			return numLines;
-		} catch (Exception e) {
-			throw new ParserException("Could not count number of lines in" + file.getAbsolutePath(), e);
-		} finally {
-			closeQuietly(bf);
+	/**
+	 * @return den import, der kører eller sidst har kørt, eller null hvis der ikke har kørt nogen
+	 */
+	public ImportHandle getCurrentImport() {
+		return currentImport;
+	}
+
+	/**
+	 * En import, der stadig kører, når applikationen lukkes ned, stoppes ved næste batch-grænse og fortsætter fra
+	 * sit checkpoint næste gang
+	 */
+	@PreDestroy
+	public void stopCurrentImport() {
+		ImportHandle handle = currentImport;
+		if (handle != null) {
+			stop(handle);
 		}
 	}
 
-	private void closeQuietly(BufferedReader bf) {
-		if (bf != null) {
-		    try {
-		        bf.close();
-		    } catch (IOException e) {
-		        log.error(e);
-		    }
+	/**
+	 * Hver fil i datasættet får sin egen linie i SLA-loggen. Fortsatte importen fra et checkpoint, tælles kun de
+	 * linier, der blev behandlet i denne kørsel
+	 */
+	private void logFile(ImportProgress fileProgress, String identifier) {
+		SLALogItem fileLogItem = slaLogger.createLogItem(getHome()+".process.file", "SDM4."+getHome()+".process.file");
+		fileLogItem.setMessageId(identifier);
+		fileLogItem.addCallParameter(Parser.SLA_INPUT_NAME, fileProgress.getFile().getAbsolutePath());
+		fileLogItem.addCallParameter(Parser.SLA_RECORDS_PROCESSED_MAME, ""+(fileProgress.getLinesRead() - fileProgress.getResumedAtLine()));
+		if (fileProgress.getActionsSkipped() > 0) {
+			fileLogItem.addCallParameter(SLA_ACTIONS_SKIPPED, ""+fileProgress.getActionsSkipped());
 		}
+		if (fileProgress.getResumedAtLine() > 0) {
+			fileLogItem.addCallParameter(SLA_RESUMED_AT_LINE, ""+fileProgress.getResumedAtLine());
+		}
+		fileLogItem.addCallParameter(SLA_BYTES_PROCESSED, ""+fileProgress.getBytesRead());
+		fileLogItem.addCallParameter(SLA_DURATION_MILLIS, ""+fileProgress.getElapsedMillis());
+		fileLogItem.setCallResultOk();
+		fileLogItem.store();
 	}
 
-	private File findSingleFileOrComplain(File dataset) {
+	/**
+	 * Tørkører datasættet: alle linier i alle filer parses og valideres præcis som ved en import, men databasen
+	 * røres ikke, og linier der ikke kan parses, stopper ikke gennemløbet
+	 * @return antal handlinger pr. type og alle linier, der ikke kan parses
+	 */
+	public ValidationReport validate(File dataset) throws ParserException {
+		return inserter.validateFiles(findFilesOrComplain(dataset));
+	}
+
+	/**
+	 * Parser og validerer datasættet og gemmer handlingerne i en binær handlingsfil, som kan lægges i et datasæt og
+	 * importeres igen uden at parse teksten, fx efter en restore af databasen
+	 * @return antal handlinger i filen
+	 * @see SsrActionFile
+	 */
+	public long writeActionFile(File dataset, File target) throws ParserException {
+		return inserter.writeActionFile(findFilesOrComplain(dataset), target);
+	}
+
+	/**
+	 * Sætter SSR-tabellen fra før den seneste genindlæsning (spooler.ydelseimporter.mode=reload) tilbage. Kan ikke
+	 * bruges, mens en import kører
+	 */
+	public void rollbackReload() throws ParserException {
+		ImportHandle handle = currentImport;
+		if (handle != null && !handle.isDone()) {
+			throw new ParserException("Cannot roll back a reload while an import is running: " + handle);
+		}
+		inserter.rollbackReload();
+	}
+
+	private void validateOrComplain(File dataset, List<File> files, String identifier) {
+		SLALogItem slaLogItem = slaLogger.createLogItem(getHome()+".validate", "SDM4."+getHome()+".validate");
+		slaLogItem.setMessageId(identifier);
+		slaLogItem.addCallParameter(Parser.SLA_INPUT_NAME, dataset.getAbsolutePath());
+
+		ValidationReport report = inserter.validateFiles(files);
+		slaLogItem.addCallParameter(Parser.SLA_RECORDS_PROCESSED_MAME, ""+report.getLines());
+		slaLogItem.addCallParameter(SLA_INSERTIONS, ""+report.getInsertions());
+		slaLogItem.addCallParameter(SLA_DELETIONS, ""+report.getDeletions());
+		slaLogItem.addCallParameter(SLA_NOOPS, ""+report.getNoops());
+		slaLogItem.addCallParameter(SLA_MALFORMED_LINES, ""+report.getMalformedLines().size());
+		slaLogItem.addCallParameter(SLA_BYTES_PROCESSED, ""+report.getBytesRead());
+		slaLogItem.addCallParameter(SLA_DURATION_MILLIS, ""+report.getElapsedMillis());
+		slaLogItem.addCallParameter(SLA_FILES_PROCESSED, ""+report.getFiles());
+		if (report.isValid()) {
+			slaLogItem.setCallResultOk();
+			slaLogItem.store();
+			return;
+		}
+
+		List<ValidationReport.MalformedLine> malformedLines = report.getMalformedLines();
+		for (ValidationReport.MalformedLine malformedLine : malformedLines.subList(0, Math.min(malformedLines.size(), MAX_LOGGED_MALFORMED_LINES))) {
+			log.error("Malformed line", "file", malformedLine.getFile().getName(), "line", ""+malformedLine.getLineNumber(), "fault", malformedLine.getMessage());
+		}
+		if (malformedLines.size() > MAX_LOGGED_MALFORMED_LINES) {
+			log.error("More malformed lines", "count", ""+(malformedLines.size() - MAX_LOGGED_MALFORMED_LINES));
+		}
+		String message = "Dataset " + dataset.getAbsolutePath() + " has " + malformedLines.size()
+				+ " malformed lines, the first is " + malformedLines.get(0);
+		slaLogItem.setCallResultError(message);
+		slaLogItem.store();
+		throw new ParserException(message);
+	}
+
+	private List<File> findFilesOrComplain(File dataset) {
 		if (dataset == null) {
 			throw new ParserException("Dataset cannot be null");
 		}
 
-		File[] files = dataset.listFiles();
-		assert files != null;
-		if (files.length == 0) {
+		List<File> files = DatasetFiles.inOrder(dataset);
+		if (files.isEmpty()) {
 			throw new ParserException("Dataset " + dataset.getAbsolutePath() + " is empty. Will not continue.");
 		}
 
-		if (files.length > 1) {
-			throw new ParserException("Dataset " + dataset.getAbsolutePath() + " contains " + files.length + " files, I only expected 1. Will not continue.");
-		}
-
-		return files[0];
+		return files;
 	}
 
 	/**
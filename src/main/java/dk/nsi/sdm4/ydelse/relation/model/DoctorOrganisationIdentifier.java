@@ -26,9 +26,6 @@
  */
 package dk.nsi.sdm4.ydelse.relation.model;
 
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
-
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashSet;
@@ -70,7 +67,7 @@ public class DoctorOrganisationIdentifier implements Serializable {
 		}
 	}
 
-	private String stringRepresentation;
+	private final String stringRepresentation;
 
 	private DoctorOrganisationIdentifier(String stringRepresentation) {
 		this.stringRepresentation = stringRepresentation;
@@ -83,11 +80,15 @@ public class DoctorOrganisationIdentifier implements Serializable {
 
 	@Override
 	public int hashCode() {
-		return HashCodeBuilder.reflectionHashCode(this);
+		return stringRepresentation.hashCode();
 	}
 
 	@Override
 	public boolean equals(Object obj) {
-		return EqualsBuilder.reflectionEquals(this, obj);
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		return stringRepresentation.equals(((DoctorOrganisationIdentifier) obj).stringRepresentation);
 	}
 }
@@ -30,14 +30,21 @@ import dk.nsi.sdm4.ydelse.common.exception.HashException;
 import dk.nsi.sdm4.ydelse.common.util.CprUtil;
 import dk.nsi.sdm4.ydelse.common.util.Hasher;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 public class HashedCpr {
 
 	private static final int UNHASHED_STRING_LENGTH = 10;
 	private static final int HASHED_STRING_LENGTH = 40;
-	private static final Pattern HASHED_CPR_PATTERN = Pattern.compile("[0-9A-F]*");
+
+	// the characters of a hashed cpr: digits and capital A to F
+	private static final boolean[] HEX_DIGITS = new boolean[128];
+	static {
+		for (char c = '0'; c <= '9'; c++) {
+			HEX_DIGITS[c] = true;
+		}
+		for (char c = 'A'; c <= 'F'; c++) {
+			HEX_DIGITS[c] = true;
+		}
+	}
 
 	public static HashedCpr buildFromHashedString(String hashedString) {
 		if (hashedString == null) {
@@ -49,8 +56,7 @@ public class HashedCpr {
 					+ HASHED_STRING_LENGTH + ": " + hashedString);
 		}
 
-		Matcher matcher = HASHED_CPR_PATTERN.matcher(hashedString);
-		if (!matcher.matches()) {
+		if (!isHex(hashedString)) {
 			throw new IllegalArgumentException("Illegal chars in hashed cpr number, only numbers and capital A to Fs: "
 					+ hashedString);
 		}
@@ -58,6 +64,16 @@ public class HashedCpr {
 		return new HashedCpr(hashedString);
 	}
 
+	private static boolean isHex(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= HEX_DIGITS.length || !HEX_DIGITS[c]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public static HashedCpr buildFromUnhashedString(String unhashedString) {
 		if (unhashedString == null) {
 			throw new IllegalArgumentException("Null-string not legeal");
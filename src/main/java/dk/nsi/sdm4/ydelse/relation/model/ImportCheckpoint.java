@@ -0,0 +1,174 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.relation.model;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * How far the import of a file has come: the byte offset and line number just after the last line whose actions
+ * have been committed. The file is identified by its name, size and a checksum of its first bytes, so the same
+ * file is recognised after the spooler has moved it to another directory, but a new extract with the same name is
+ * not. The checkpoint also records the table the actions were written to, SSR or the staging table of a reload, as
+ * the offset says nothing about any other table.
+ * An import with several writer lanes saves a checkpoint for each lane, covering only the actions that lane writes,
+ * together with the number of lanes, as the lane of an action depends on it. Objects are immutable.
+ */
+public class ImportCheckpoint {
+	static final int CHECKSUMMED_BYTES = 64 * 1024;
+	public static final String SSR_TABLE = "SSR";
+
+	private final String fileName;
+	private final long fileSize;
+	private final long fileChecksum;
+	private final String table;
+	private final int lane;
+	private final int lanes;
+	private final long byteOffset;
+	private final long lineNumber;
+
+	public ImportCheckpoint(String fileName, long fileSize, long fileChecksum, String table, int lane, int lanes, long byteOffset, long lineNumber) {
+		this.fileName = fileName;
+		this.fileSize = fileSize;
+		this.fileChecksum = fileChecksum;
+		this.table = table;
+		this.lane = lane;
+		this.lanes = lanes;
+		this.byteOffset = byteOffset;
+		this.lineNumber = lineNumber;
+	}
+
+	/**
+	 * @return a checkpoint at the start of the given file, for writing to SSR with one writer lane
+	 */
+	public static ImportCheckpoint atStartOf(File file) throws IOException {
+		CRC32 checksum = new CRC32();
+		byte[] buffer = new byte[CHECKSUMMED_BYTES];
+		int length = 0;
+		InputStream in = new FileInputStream(file);
+		try {
+			int n;
+			while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) >= 0) {
+				length += n;
+			}
+		} finally {
+			in.close();
+		}
+		checksum.update(buffer, 0, length);
+		return new ImportCheckpoint(file.getName(), file.length(), checksum.getValue(), SSR_TABLE, 0, 1, 0, 0);
+	}
+
+	/**
+	 * @return a checkpoint for the same file at another position
+	 */
+	public ImportCheckpoint at(long byteOffset, long lineNumber) {
+		return new ImportCheckpoint(fileName, fileSize, fileChecksum, table, lane, lanes, byteOffset, lineNumber);
+	}
+
+	/**
+	 * @return a checkpoint for the same file at the start, for writing to another table
+	 */
+	public ImportCheckpoint startIn(String table) {
+		return new ImportCheckpoint(fileName, fileSize, fileChecksum, table, lane, lanes, 0, 0);
+	}
+
+	/**
+	 * @return a checkpoint at the same position for one of the given number of writer lanes
+	 */
+	public ImportCheckpoint inLane(int lane, int lanes) {
+		return new ImportCheckpoint(fileName, fileSize, fileChecksum, table, lane, lanes, byteOffset, lineNumber);
+	}
+
+	public boolean isSameFileAs(ImportCheckpoint other) {
+		return fileName.equals(other.fileName) && fileSize == other.fileSize && fileChecksum == other.fileChecksum;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public long getFileChecksum() {
+		return fileChecksum;
+	}
+
+	/**
+	 * @return the table the actions up to the offset were written to
+	 */
+	public String getTable() {
+		return table;
+	}
+
+	/**
+	 * @return the writer lane whose actions the checkpoint covers
+	 */
+	public int getLane() {
+		return lane;
+	}
+
+	/**
+	 * @return the number of writer lanes the actions were divided between
+	 */
+	public int getLanes() {
+		return lanes;
+	}
+
+	/**
+	 * @return the offset in the file, after decompression if the file is compressed
+	 */
+	public long getByteOffset() {
+		return byteOffset;
+	}
+
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	@Override
+	public String toString() {
+		return fileName + " (" + fileSize + " bytes, checksum " + fileChecksum + ") in " + table + ", lane " + lane + " of " + lanes + " at offset " + byteOffset + ", line " + lineNumber;
+	}
+
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return EqualsBuilder.reflectionEquals(this, obj);
+	}
+}
@@ -30,6 +30,7 @@ import dk.nsi.sdm4.ydelse.common.splunk.SplunkToStringStyle;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang.builder.ToStringBuilder;
+import org.joda.time.Chronology;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
 
@@ -57,12 +58,17 @@ public class SSR {
         this.externalReference = ssr.externalReference;
     }
 
+    /**
+     * Builds the SSR in one step, with the same checks as the with* methods but without their intermediate copies.
+     */
     public static SSR createInstance(HashedCpr patientCpr, DoctorOrganisationIdentifier doctorOrganisationIdentifier,
             Interval admittedInterval, String externalReference) {
         SSR ssr = new SSR();
-
-        return ssr.withPatientCpr(patientCpr).withDoctorOrganisationIdentifier(doctorOrganisationIdentifier)
-                .withTreatmentIntervalIgnoringMillis(admittedInterval).withExternalReference(externalReference);
+        ssr.patientCpr = checkPatientCpr(patientCpr);
+        ssr.doctorOrganisationIdentifier = checkDoctorOrganisationIdentifier(doctorOrganisationIdentifier);
+        ssr.admittedInterval = ignoringMillis(admittedInterval);
+        ssr.externalReference = checkExternalReference(externalReference);
+        return ssr;
     }
 
     // Getters
@@ -86,41 +92,63 @@ public class SSR {
     // New instances
 
     public SSR withPatientCpr(HashedCpr patientCpr) {
-        if (patientCpr == null) {
-            throw new IllegalArgumentException("Patient cpr must be non-null.");
-        }
-
         SSR ssr = new SSR(this);
-        ssr.patientCpr = patientCpr;
+        ssr.patientCpr = checkPatientCpr(patientCpr);
         return ssr;
     }
 
     public SSR withDoctorOrganisationIdentifier(DoctorOrganisationIdentifier doctorOrganisationIdentifier) {
-        if (doctorOrganisationIdentifier == null) {
-            throw new IllegalArgumentException("Doctor organisation identifer must be non-null.");
-        }
-
         SSR ssr = new SSR(this);
-        ssr.doctorOrganisationIdentifier = doctorOrganisationIdentifier;
+        ssr.doctorOrganisationIdentifier = checkDoctorOrganisationIdentifier(doctorOrganisationIdentifier);
         return ssr;
     }
 
     // SSR records always have an entire day - this class does not enforce this
     public SSR withTreatmentIntervalIgnoringMillis(Interval admittedInterval) {
+        SSR ssr = new SSR(this);
+        ssr.admittedInterval = ignoringMillis(admittedInterval);
+        return ssr;
+    }
+    
+    public SSR withExternalReference(String externalReference) {
+        SSR ssr = new SSR(this);
+        ssr.externalReference = checkExternalReference(externalReference);
+        return ssr;
+    }
+
+    private static HashedCpr checkPatientCpr(HashedCpr patientCpr) {
+        if (patientCpr == null) {
+            throw new IllegalArgumentException("Patient cpr must be non-null.");
+        }
+        return patientCpr;
+    }
+
+    private static DoctorOrganisationIdentifier checkDoctorOrganisationIdentifier(DoctorOrganisationIdentifier doctorOrganisationIdentifier) {
+        if (doctorOrganisationIdentifier == null) {
+            throw new IllegalArgumentException("Doctor organisation identifer must be non-null.");
+        }
+        return doctorOrganisationIdentifier;
+    }
+
+    /**
+     * An interval that already starts and ends on whole seconds, as the parsed treatment days do, is kept as it is
+     */
+    private static Interval ignoringMillis(Interval admittedInterval) {
         if (admittedInterval == null) {
             throw new IllegalArgumentException("Admitted interval must be non-null.");
         }
 
+        Chronology chronology = admittedInterval.getChronology();
+        if (chronology.millisOfSecond().get(admittedInterval.getStartMillis()) == 0
+                && chronology.millisOfSecond().get(admittedInterval.getEndMillis()) == 0) {
+            return admittedInterval;
+        }
         DateTime start = admittedInterval.getStart().minusMillis(admittedInterval.getStart().getMillisOfSecond());
         DateTime end = admittedInterval.getEnd().minusMillis(admittedInterval.getEnd().getMillisOfSecond());
-        admittedInterval = new Interval(start, end);
-
-        SSR ssr = new SSR(this);
-        ssr.admittedInterval = admittedInterval;
-        return ssr;
+        return new Interval(start, end);
     }
-    
-    public SSR withExternalReference(String externalReference) {
+
+    private static String checkExternalReference(String externalReference) {
         if (externalReference == null) {
             throw new IllegalArgumentException("External reference must be non-null.");
         }
@@ -129,10 +157,7 @@ public class SSR {
             throw new IllegalArgumentException("Illegal external reference length: " + externalReference.length()
                     + ". Only valid length is " + REFERENCE_LENGTH);
         }
-
-        SSR ssr = new SSR(this);
-        ssr.externalReference = externalReference;
-        return ssr;
+        return externalReference;
     }
 
     // Standard methods
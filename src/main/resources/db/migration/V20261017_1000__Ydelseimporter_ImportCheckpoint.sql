@@ -0,0 +1,11 @@
+-- how far an interrupted import has come, written in the same transaction as each committed batch
+CREATE TABLE IF NOT EXISTS ydelseimporterCheckpoint (
+    FileName VARCHAR(255) NOT NULL,
+    FileSize BIGINT(15) NOT NULL,
+    FileChecksum BIGINT(15) NOT NULL,
+    ByteOffset BIGINT(15) NOT NULL,
+    LineNumber BIGINT(15) NOT NULL,
+    Updated DATETIME NOT NULL,
+
+    PRIMARY KEY (FileName, FileSize, FileChecksum)
+) ENGINE=InnoDB COLLATE=utf8_bin;
\ No newline at end of file
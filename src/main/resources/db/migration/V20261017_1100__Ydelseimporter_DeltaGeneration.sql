@@ -0,0 +1,6 @@
+-- which generation of the delta fingerprints on local disk matches the SSR table, see DeltaFingerprints
+CREATE TABLE IF NOT EXISTS ydelseimporterDeltaGeneration (
+    Id INT NOT NULL PRIMARY KEY,
+    Generation BIGINT(15) NOT NULL,
+    Updated DATETIME NOT NULL
+) ENGINE=InnoDB COLLATE=utf8_bin;
\ No newline at end of file
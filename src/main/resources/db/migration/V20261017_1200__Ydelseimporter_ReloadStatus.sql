@@ -0,0 +1,5 @@
+-- the outcome of a full reload through a staging table, see SSRReloadDAO, recorded on the row of the import that did it
+ALTER TABLE ydelseimporterImportStatus
+    ADD COLUMN ReloadOutcome VARCHAR(20),
+    ADD COLUMN ReloadRows BIGINT(15),
+    ADD COLUMN ReloadTime DATETIME;
\ No newline at end of file
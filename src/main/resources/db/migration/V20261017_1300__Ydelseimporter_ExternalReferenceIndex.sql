@@ -0,0 +1,2 @@
+-- deletions look up rows by externalReference, which was a full table scan for every deleted reference
+CREATE INDEX SSR_EXTERNAL_REFERENCE_INDEX ON SSR (externalReference);
\ No newline at end of file
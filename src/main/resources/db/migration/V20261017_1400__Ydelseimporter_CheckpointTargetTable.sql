@@ -0,0 +1,3 @@
+-- the table the checkpointed actions were written to, so a reload does not resume from the offset of an import into SSR or vice versa
+ALTER TABLE ydelseimporterCheckpoint
+    ADD COLUMN TargetTable VARCHAR(64) NOT NULL DEFAULT 'SSR' AFTER FileChecksum;
\ No newline at end of file
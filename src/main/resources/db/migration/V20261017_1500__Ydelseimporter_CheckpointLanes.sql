@@ -0,0 +1,6 @@
+-- each writer lane saves its own checkpoint in its own transaction, so the lane is part of the key
+ALTER TABLE ydelseimporterCheckpoint
+    ADD COLUMN Lane INT NOT NULL DEFAULT 0 AFTER FileChecksum,
+    ADD COLUMN Lanes INT NOT NULL DEFAULT 1 AFTER Lane,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (FileName, FileSize, FileChecksum, Lane);
\ No newline at end of file
@@ -0,0 +1,110 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.benchmark;
+
+import dk.nsi.sdm4.ydelse.common.util.CprUtil;
+import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Sammenligner valideringen af cpr-numre med de regulære udtryk, der blev brugt før, med de tabel-baserede
+ * valideringer: hashede cpr-numre valideres for hver indsat linie i importen, og ikke-hashede for hvert opslag.
+ * buildFromUnhashedString viser hele opslagets pris inklusive hashingen.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CprValidationBenchmark {
+	private static final int VALUES = 1024;
+
+	private static final Pattern OLD_HASHED_CPR_PATTERN = Pattern.compile("[0-9A-F]*");
+	private static final Pattern OLD_CPR_PATTERN = Pattern.compile("((((0[1-9]|1[0-9]|2[0-9]|3[0-1])(01|03|05|07|08|10|12))|"
+			+ "((0[1-9]|1[0-9]|2[0-9]|30)(04|06|09|11))|((0[1-9]|1[0-9]|2[0-9])(02)))[0-9]{6})|0000000000");
+
+	private final String[] hashed = new String[VALUES];
+	private final String[] unhashed = new String[VALUES];
+	private int next;
+
+	@Setup(Level.Trial)
+	public void generateCprs() {
+		Random random = new Random(42);
+		for (int i = 0; i < VALUES; i++) {
+			StringBuilder line = new StringBuilder();
+			SsrBenchmarkFiles.appendLine(line, random);
+			hashed[i] = line.substring(7, 47);
+			unhashed[i] = String.format("%02d%02d%06d", 1 + random.nextInt(28), 1 + random.nextInt(12), random.nextInt(1000000));
+		}
+	}
+
+	private int next() {
+		next = (next + 1) & (VALUES - 1);
+		return next;
+	}
+
+	@Benchmark
+	public boolean hashedCprWithRegularExpression() {
+		String s = hashed[next()];
+		return s.length() == 40 && OLD_HASHED_CPR_PATTERN.matcher(s).matches();
+	}
+
+	@Benchmark
+	public HashedCpr buildFromHashedString() {
+		return HashedCpr.buildFromHashedString(hashed[next()]);
+	}
+
+	@Benchmark
+	public boolean cprWithRegularExpression() {
+		return OLD_CPR_PATTERN.matcher(unhashed[next()]).matches();
+	}
+
+	@Benchmark
+	public boolean validateCpr() {
+		return CprUtil.validateCpr(unhashed[next()]);
+	}
+
+	@Benchmark
+	public HashedCpr buildFromUnhashedString() {
+		return HashedCpr.buildFromUnhashedString(unhashed[next()]);
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.benchmark;
+
+import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
+import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.Random;
+
+/**
+ * Forbindelse til den lokale MySQL, som database-benchmarks kører mod. Databasen angives med -Dbenchmark.db.url,
+ * -Dbenchmark.db.user og -Dbenchmark.db.password; som standard bruges testdatabasen fra test.properties.
+ * Url'en er som datasourcen i produktion, bortset fra allowLoadLocalInfile=true, uden hvilken LOAD DATA LOCAL INFILE
+ * ikke kan bruges.
+ */
+public class SsrBenchmarkDatabase {
+	private static final String DEFAULT_URL = "jdbc:mysql://127.0.0.1:3307/sdm_ydelseimporter_test"
+			+ "?allowLoadLocalInfile=true";
+	private static final String HEX = "0123456789ABCDEF";
+
+	private SsrBenchmarkDatabase() {
+	}
+
+	public static SingleConnectionDataSource connect() {
+		return new SingleConnectionDataSource(System.getProperty("benchmark.db.url", DEFAULT_URL),
+				System.getProperty("benchmark.db.user", "root"), System.getProperty("benchmark.db.password", ""), true);
+	}
+
+	/**
+	 * Laver en DAO af den angivne type med samme autowiring som i applikationen
+	 */
+	public static SSRWriteDAO writeDao(JdbcTemplate jdbcTemplate, Class<? extends SSRWriteDAO> type) {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.getBeanFactory().registerSingleton("jdbcTemplate", jdbcTemplate);
+		context.register(type);
+		context.refresh();
+		return context.getBean(SSRWriteDAO.class);
+	}
+
+	public static SSR randomSsr(Random random) {
+		DateTime start = new DateTime(2011, 1 + random.nextInt(12), 1 + random.nextInt(28), 0, 0, 0, 0);
+		return SSR.createInstance(HashedCpr.buildFromHashedString(randomHex(random, 40)),
+				DoctorOrganisationIdentifier.newInstance(Integer.toString(100000 + random.nextInt(900000))),
+				new Interval(start, start.plusDays(1)), randomHex(random, 24));
+	}
+
+	public static String randomHex(Random random, int length) {
+		StringBuilder hex = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			hex.append(HEX.charAt(random.nextInt(16)));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.benchmark;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Genererer store SSR-filer til benchmarks. Linierne har samme format som udtrækkene fra CSC, men genereres uden
+ * at hashe cpr-numre, så en fil på flere GB kan laves på få sekunder.
+ */
+public class SsrBenchmarkFiles {
+	private static final String HEX = "0123456789ABCDEF";
+
+	private SsrBenchmarkFiles() {
+	}
+
+	/**
+	 * @param megabytes filens omtrentlige størrelse
+	 * @param deletionEveryNthLine hver n'te linie bliver en sletning, 0 for ingen sletninger
+	 */
+	public static File generate(int megabytes, int deletionEveryNthLine) throws IOException {
+		File file = File.createTempFile("ssr-benchmark", ".csv");
+		file.deleteOnExit();
+
+		Random random = new Random(42);
+		long targetSize = megabytes * 1024L * 1024L;
+		long written = 0;
+		long lineNumber = 0;
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024);
+		try {
+			StringBuilder line = new StringBuilder(128);
+			while (written < targetSize) {
+				line.setLength(0);
+				lineNumber++;
+				if (deletionEveryNthLine > 0 && lineNumber % deletionEveryNthLine == 0) {
+					line.append(" , , , ,");
+					appendReference(line, random);
+				} else {
+					appendLine(line, random);
+				}
+				line.append('\n');
+				byte[] bytes = line.toString().getBytes("US-ASCII");
+				out.write(bytes);
+				written += bytes.length;
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		return file;
+	}
+
+	static void appendLine(StringBuilder line, Random random) {
+		line.append(100000 + random.nextInt(900000)).append(',');
+		for (int i = 0; i < 40; i++) {
+			line.append(HEX.charAt(random.nextInt(16)));
+		}
+		String date = String.format("2011%02d%02d", 1 + random.nextInt(12), 1 + random.nextInt(28));
+		line.append(',').append(date).append(',').append(date).append(',');
+		appendReference(line, random);
+	}
+
+	static void appendReference(StringBuilder line, Random random) {
+		for (int i = 0; i < 16; i++) {
+			line.append(HEX.charAt(random.nextInt(16)));
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.benchmark;
+
+import dk.nsi.sdm4.ydelse.parser.SSRLineParser;
+import dk.nsi.sdm4.ydelse.parser.SsrDateDecoder;
+import dk.nsi.sdm4.ydelse.parser.SsrLine;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sammenligner afkodningen af behandlingsdatoer: SimpleDateFormat og en DateTime, som SSRLineParser gjorde før, og
+ * SsrDateDecoder. Et udtræk dækker få forskellige dage, mens mange forskellige dage viser afkodningen uden cachen.
+ * Måles på fire tråde, da datoerne afkodes af parser-trådene samtidig.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Thread)
+public class SsrDateBenchmark {
+	private static final int DATES = 4096;
+
+	@Param({"31", "3650"})
+	public int distinctDays;
+
+	private final String[] dates = new String[DATES];
+	private ByteBuffer buffer;
+	private final SsrLine line = SSRLineParser.newLine();
+	private final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+	private int next;
+
+	@Setup(Level.Trial)
+	public void generateDates() throws UnsupportedEncodingException {
+		format.setLenient(false);
+		Random random = new Random(42);
+		StringBuilder all = new StringBuilder();
+		DateTime first = new DateTime(2011, 1, 1, 0, 0);
+		for (int i = 0; i < DATES; i++) {
+			dates[i] = first.plusDays(random.nextInt(distinctDays)).toString("yyyyMMdd");
+			all.append(dates[i]);
+		}
+		buffer = ByteBuffer.allocateDirect(all.length());
+		buffer.put(all.toString().getBytes("US-ASCII"));
+	}
+
+	private int nextDate() {
+		next = (next + 1) % DATES;
+		return next;
+	}
+
+	@Benchmark
+	public DateTime simpleDateFormat() throws ParseException {
+		return new DateTime(format.parse(dates[nextDate()]));
+	}
+
+	@Benchmark
+	public int decoder() {
+		int date = nextDate();
+		line.tokenize(buffer, date * 8, date * 8 + 8);
+		return SsrDateDecoder.decode(line, 0);
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.benchmark;
+
+import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.dao.impl.SSRDAOImpl;
+import dk.nsi.sdm4.ydelse.dao.impl.SSRLoadDataDAOImpl;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sammenligner sletning af en batch af referencer med én DELETE pr. reference, som importen gjorde før, med
+ * {@link SSRDAOImpl#deleteByExternalReferences(List)}, der sletter mange referencer i hvert statement, med og uden
+ * indekset på externalReference. Der slettes i en kopi af SSR med rows rækker, og hver måling ruller sine sletninger
+ * tilbage, så alle målinger sletter i den samme tabel. Halvdelen af referencerne findes ikke i tabellen, som når et
+ * udtræk sletter noget, der allerede er slettet. Databasen angives som beskrevet i {@link SsrBenchmarkDatabase}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SsrDeleteBenchmark {
+	private static final String TABLE = "SSR_benchmark";
+	private static final int LOAD_BATCH_SIZE = 10000;
+
+	@Param({"perReference", "batched"})
+	public String method;
+
+	@Param({"true", "false"})
+	public boolean externalReferenceIndex;
+
+	@Param("200000")
+	public int rows;
+
+	@Param("1000")
+	public int deletions;
+
+	private SingleConnectionDataSource dataSource;
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate transactionTemplate;
+	private SSRWriteDAO dao;
+	private final List<String> references = new ArrayList<String>();
+
+	@Setup(Level.Trial)
+	public void fillTable() {
+		dataSource = SsrBenchmarkDatabase.connect();
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		jdbcTemplate.execute("DROP TABLE IF EXISTS " + TABLE);
+		jdbcTemplate.execute("CREATE TABLE " + TABLE + " LIKE SSR");
+		if (!externalReferenceIndex) {
+			jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP INDEX SSR_EXTERNAL_REFERENCE_INDEX");
+		}
+		dao = SsrBenchmarkDatabase.writeDao(jdbcTemplate, SSRDAOImpl.class).inTable(TABLE);
+
+		SSRWriteDAO loader = SsrBenchmarkDatabase.writeDao(jdbcTemplate, SSRLoadDataDAOImpl.class).inTable(TABLE);
+		Random random = new Random(42);
+		int everyNthRow = Math.max(1, rows / (deletions / 2));
+		List<SsrAction> batch = new ArrayList<SsrAction>(LOAD_BATCH_SIZE);
+		for (int i = 0; i < rows; i++) {
+			SSR ssr = SsrBenchmarkDatabase.randomSsr(random);
+			if (i % everyNthRow == 0 && references.size() < deletions / 2) {
+				references.add(ssr.getExternalReference());
+			}
+			batch.add(SsrAction.createInsertion(ssr));
+			if (batch.size() == LOAD_BATCH_SIZE || i == rows - 1) {
+				loader.execute(batch);
+				batch.clear();
+			}
+		}
+		while (references.size() < deletions) {
+			references.add(SsrBenchmarkDatabase.randomHex(random, 24));
+		}
+		Collections.shuffle(references, random);
+	}
+
+	@TearDown(Level.Trial)
+	public void dropTable() {
+		jdbcTemplate.execute("DROP TABLE IF EXISTS " + TABLE);
+		dataSource.destroy();
+	}
+
+	@Benchmark
+	public void deleteBatch() {
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				status.setRollbackOnly();
+				if ("perReference".equals(method)) {
+					for (String reference : references) {
+						dao.deleteByExternalReference(reference);
+					}
+				} else {
+					dao.deleteByExternalReferences(references);
+				}
+			}
+		});
+	}
+}
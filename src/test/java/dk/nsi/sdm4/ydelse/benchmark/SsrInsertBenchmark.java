@@ -0,0 +1,136 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.benchmark;
+
+import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.dao.impl.SSRDAOImpl;
+import dk.nsi.sdm4.ydelse.dao.impl.SSRLoadDataDAOImpl;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sammenligner måderne at skrive en batch af handlinger til SSR-tabellen i en lokal MySQL: rowByRow er den gamle
+ * vej med én INSERT og hentning af den genererede nøgle pr. linie, batch er {@link SSRDAOImpl#execute(List)} med
+ * INSERT-statements med mange rækker, og loadData er {@link SSRLoadDataDAOImpl} med LOAD DATA LOCAL INFILE. Hver måling skriver én batch
+ * i én transaktion, som importen gør, og tabellen tømmes før hver iteration. Databasen angives som beskrevet i
+ * {@link SsrBenchmarkDatabase}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SsrInsertBenchmark {
+	@Param({"rowByRow", "batch", "loadData"})
+	public String method;
+
+	@Param("10000")
+	public int batchSize;
+
+	/**
+	 * Hver n'te handling sletter en reference, der er indsat tidligere i samme batch, 0 for ingen sletninger
+	 */
+	@Param({"0", "20"})
+	public int deletionEveryNthAction;
+
+	private SingleConnectionDataSource dataSource;
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate transactionTemplate;
+	private SSRWriteDAO dao;
+	private final List<SsrAction> actions = new ArrayList<SsrAction>();
+
+	@Setup(Level.Trial)
+	public void connect() {
+		dataSource = SsrBenchmarkDatabase.connect();
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		dao = SsrBenchmarkDatabase.writeDao(jdbcTemplate, "loadData".equals(method) ? SSRLoadDataDAOImpl.class : SSRDAOImpl.class);
+
+		Random random = new Random(42);
+		List<String> inserted = new ArrayList<String>();
+		for (int i = 1; i <= batchSize; i++) {
+			if (deletionEveryNthAction > 0 && i % deletionEveryNthAction == 0) {
+				actions.add(SsrAction.createDeletion(inserted.get(random.nextInt(inserted.size()))));
+			} else {
+				SSR ssr = SsrBenchmarkDatabase.randomSsr(random);
+				inserted.add(ssr.getExternalReference());
+				actions.add(SsrAction.createInsertion(ssr));
+			}
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void emptyTable() {
+		jdbcTemplate.execute("TRUNCATE TABLE SSR");
+	}
+
+	@TearDown(Level.Trial)
+	public void disconnect() {
+		dataSource.destroy();
+	}
+
+	@Benchmark
+	public void writeBatch() {
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				if ("rowByRow".equals(method)) {
+					for (SsrAction action : actions) {
+						action.execute(dao);
+					}
+				} else {
+					dao.execute(actions);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.benchmark;
+
+import dk.nsi.sdm4.ydelse.parser.IdentifierCache;
+import dk.nsi.sdm4.ydelse.parser.SSRLineParser;
+import dk.nsi.sdm4.ydelse.parser.SsrLine;
+import dk.nsi.sdm4.ydelse.parser.SsrRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sammenligner parsning af SSR-linier til en SsrAction med tilhørende SSR-objekter og parsning til en genbrugt
+ * SsrRecord, og til en SsrAction, der deler ydernumre og cpr-numre med de andre linier gennem en IdentifierCache;
+ * linierne gentages, som patienter og ydere gør i et udtræk. Køres med GC-profileren for at se allokeringerne pr. linie (gc.alloc.rate.norm), fx:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="SsrParserBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SsrParserBenchmark {
+	private static final int LINES = 4096;
+
+	@Param("50")
+	public int deletionEveryNthLine;
+
+	private ByteBuffer buffer;
+	private final int[] lineStarts = new int[LINES + 1];
+	private final SsrLine line = SSRLineParser.newLine();
+	private final SsrRecord record = new SsrRecord();
+	private final IdentifierCache identifiers = new IdentifierCache();
+	private int next;
+
+	@Setup(Level.Trial)
+	public void generateLines() throws UnsupportedEncodingException {
+		Random random = new Random(42);
+		StringBuilder all = new StringBuilder();
+		for (int i = 0; i < LINES; i++) {
+			lineStarts[i] = all.length();
+			if (i % deletionEveryNthLine == 0) {
+				all.append(" , , , ,");
+				SsrBenchmarkFiles.appendReference(all, random);
+			} else {
+				SsrBenchmarkFiles.appendLine(all, random);
+			}
+		}
+		lineStarts[LINES] = all.length();
+		buffer = ByteBuffer.allocateDirect(all.length());
+		buffer.put(all.toString().getBytes("US-ASCII"));
+	}
+
+	private SsrLine nextLine() {
+		next = (next + 1) % LINES;
+		line.tokenize(buffer, lineStarts[next], lineStarts[next + 1]);
+		return line;
+	}
+
+	@Benchmark
+	public void parseToAction(Blackhole blackhole) {
+		blackhole.consume(SSRLineParser.parseLine(nextLine()));
+	}
+
+	@Benchmark
+	public void parseToActionSharingIdentifiers(Blackhole blackhole) {
+		SSRLineParser.parseLine(nextLine(), record);
+		blackhole.consume(record.toAction(identifiers));
+	}
+
+	@Benchmark
+	public void parseToRecord(Blackhole blackhole) {
+		SSRLineParser.parseLine(nextLine(), record);
+		blackhole.consume(record.getTreatmentDay());
+		blackhole.consume(record.externalReferenceByteAt(0));
+	}
+}
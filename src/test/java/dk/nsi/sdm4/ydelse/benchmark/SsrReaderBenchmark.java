@@ -0,0 +1,185 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.benchmark;
+
+import dk.nsi.sdm4.ydelse.parser.MappedSsrFileReader;
+import dk.nsi.sdm4.ydelse.parser.SSRLineParser;
+import dk.nsi.sdm4.ydelse.parser.SsrActionFile;
+import dk.nsi.sdm4.ydelse.parser.SsrActionFileReader;
+import dk.nsi.sdm4.ydelse.parser.SsrChunk;
+import dk.nsi.sdm4.ydelse.parser.SsrChunkSource;
+import dk.nsi.sdm4.ydelse.parser.SsrLine;
+import dk.nsi.sdm4.ydelse.parser.SsrLineReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sammenligner den linie-baserede læsning med den memory mappede læsning på en genereret fil.
+ * Hver måling læser hele filen én gang, enten med parsning af hver linie eller kun med opdeling i linier og felter.
+ * actionFileReader læser de samme handlinger fra en {@link SsrActionFile}, som ved en genimport.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SsrReaderBenchmark {
+	@Param("2048")
+	public int megabytes;
+
+	private File file;
+	private File actionFile;
+
+	@Setup(Level.Trial)
+	public void generateFile() throws IOException {
+		file = SsrBenchmarkFiles.generate(megabytes, 50);
+		actionFile = File.createTempFile("ssr-benchmark", SsrActionFile.EXTENSION);
+		actionFile.deleteOnExit();
+		SsrActionFile.Writer writer = new SsrActionFile.Writer(actionFile);
+		MappedSsrFileReader reader = new MappedSsrFileReader(file);
+		try {
+			SsrLine line = SSRLineParser.newLine();
+			while (reader.next(line)) {
+				writer.write(SSRLineParser.parseLine(line));
+			}
+		} finally {
+			reader.close();
+			writer.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFile() {
+		file.delete();
+		actionFile.delete();
+	}
+
+	@Benchmark
+	public long streamReader(Blackhole blackhole) throws IOException {
+		SsrLineReader reader = new SsrLineReader(new FileInputStream(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				blackhole.consume(SSRLineParser.parseLine(line));
+			}
+			return reader.getLineNumber();
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Benchmark
+	public long streamReaderWithoutParsing(Blackhole blackhole) throws IOException {
+		SsrLineReader reader = new SsrLineReader(new FileInputStream(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				blackhole.consume(line.split(",", -1));
+			}
+			return reader.getLineNumber();
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Benchmark
+	public long mappedReaderWithoutParsing(Blackhole blackhole) throws IOException {
+		MappedSsrFileReader reader = new MappedSsrFileReader(file);
+		try {
+			SsrLine line = SSRLineParser.newLine();
+			while (reader.next(line)) {
+				blackhole.consume(line.getFieldCount());
+			}
+			return reader.getLineNumber();
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Benchmark
+	public long mappedReaderInChunks(Blackhole blackhole) throws IOException {
+		MappedSsrFileReader reader = new MappedSsrFileReader(file);
+		try {
+			return parseChunks(reader, blackhole);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Benchmark
+	public long actionFileReader(Blackhole blackhole) throws IOException {
+		SsrActionFileReader reader = new SsrActionFileReader(actionFile);
+		try {
+			return parseChunks(reader, blackhole);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static long parseChunks(SsrChunkSource reader, Blackhole blackhole) throws IOException {
+		long actions = 0;
+		SsrChunk chunk;
+		while ((chunk = reader.nextChunk()) != null) {
+			chunk.parse();
+			blackhole.consume(chunk.getActions());
+			actions += chunk.getActions().size();
+		}
+		return actions;
+	}
+
+	@Benchmark
+	public long mappedReader(Blackhole blackhole) throws IOException {
+		MappedSsrFileReader reader = new MappedSsrFileReader(file);
+		try {
+			SsrLine line = SSRLineParser.newLine();
+			while (reader.next(line)) {
+				blackhole.consume(SSRLineParser.parseLine(line));
+			}
+			return reader.getLineNumber();
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.benchmark;
+
+import dk.nsi.sdm4.ydelse.parser.SSRLineParser;
+import dk.nsi.sdm4.ydelse.parser.SsrLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sammenligner opdelingen af SSR-linier i felter: den gamle vej gennem String.contains, String.split og String.trim,
+ * den nye opdeling af en String i ét gennemløb og opdelingen af bytes, der ser på otte bytes ad gangen.
+ * Linierne ligger i hukommelsen, så der kun måles opdeling og ikke læsning.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SsrTokenizerBenchmark {
+	private static final int LINES = 4096;
+
+	@Param("50")
+	public int deletionEveryNthLine;
+
+	private final String[] lines = new String[LINES];
+	private ByteBuffer buffer;
+	private final int[] lineStarts = new int[LINES + 1];
+	private final SsrLine line = SSRLineParser.newLine();
+	private int next;
+
+	@Setup(Level.Trial)
+	public void generateLines() throws UnsupportedEncodingException {
+		Random random = new Random(42);
+		StringBuilder all = new StringBuilder();
+		StringBuilder line = new StringBuilder(128);
+		for (int i = 0; i < LINES; i++) {
+			line.setLength(0);
+			if (i % deletionEveryNthLine == 0) {
+				line.append(" , , , ,");
+				SsrBenchmarkFiles.appendReference(line, random);
+			} else {
+				SsrBenchmarkFiles.appendLine(line, random);
+			}
+			lines[i] = line.toString();
+			lineStarts[i] = all.length();
+			all.append(line);
+		}
+		lineStarts[LINES] = all.length();
+		buffer = ByteBuffer.allocateDirect(all.length());
+		buffer.put(all.toString().getBytes("US-ASCII"));
+	}
+
+	private int nextLine() {
+		next = (next + 1) % LINES;
+		return next;
+	}
+
+	/**
+	 * Sådan delte SSRLineParser en String-linie op før: tre gennemløb og en ny String pr. felt
+	 */
+	@Benchmark
+	public void stringSplitAndTrim(Blackhole blackhole) {
+		String text = lines[nextLine()];
+		if (text.contains(System.getProperty("line.separator"))) {
+			throw new IllegalStateException("Line contains new-line character");
+		}
+		String[] fields = text.split(",", -1);
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = fields[i].trim();
+		}
+		blackhole.consume(fields);
+	}
+
+	@Benchmark
+	public void stringTokenizer(Blackhole blackhole) {
+		line.tokenize(lines[nextLine()]);
+		blackhole.consume(line.fieldEnd(4));
+	}
+
+	@Benchmark
+	public void bytesTokenizer(Blackhole blackhole) {
+		int i = nextLine();
+		line.tokenize(buffer, lineStarts[i], lineStarts[i + 1]);
+		blackhole.consume(line.fieldEnd(4));
+	}
+}
@@ -28,10 +28,20 @@ package dk.nsi.sdm4.ydelse.common.util;
 
 import org.junit.Test;
 
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class CprUtilTest {
+	// the regular expression CprUtil used before, which it must still agree with
+	private static final Pattern OLD_CPR_PATTERN = Pattern.compile("((((0[1-9]|1[0-9]|2[0-9]|3[0-1])(01|03|05|07|08|10|12))|"
+			+ "((0[1-9]|1[0-9]|2[0-9]|30)(04|06|09|11))|((0[1-9]|1[0-9]|2[0-9])(02)))[0-9]{6})|0000000000");
+
+	// digits, their neighbours in ASCII, a non-ASCII digit and a few other characters
+	private static final String ALPHABET = "0123456789/:a \u0663\uff10";
 
 	@Test
 	public void testValidateCpr() {
@@ -42,4 +52,41 @@ public class CprUtilTest {
 		assertFalse(CprUtil.validateCpr("01020311111"));
 		assertFalse(CprUtil.validateCpr("3201011111"));
 	}
+
+	@Test
+	public void agreesWithTheOldRegularExpressionForEveryDayAndMonth() {
+		String[] suffixes = {"000000", "123456", "999999", "00000", "0000000", "12345a", "1234\u0663", ""};
+		for (int i = 0; i < ALPHABET.length(); i++) {
+			for (int j = 0; j < ALPHABET.length(); j++) {
+				for (int k = 0; k < ALPHABET.length(); k++) {
+					for (int l = 0; l < ALPHABET.length(); l++) {
+						String dayAndMonth = "" + ALPHABET.charAt(i) + ALPHABET.charAt(j) + ALPHABET.charAt(k) + ALPHABET.charAt(l);
+						for (String suffix : suffixes) {
+							assertAgreesWithTheOldRegularExpression(dayAndMonth + suffix);
+						}
+					}
+				}
+			}
+		}
+		assertAgreesWithTheOldRegularExpression("0000000000");
+		assertAgreesWithTheOldRegularExpression("000000000");
+		assertAgreesWithTheOldRegularExpression("00000000000");
+	}
+
+	@Test
+	public void agreesWithTheOldRegularExpressionForRandomStrings() {
+		Random random = new Random(42);
+		for (int n = 0; n < 1000000; n++) {
+			int length = 8 + random.nextInt(5);
+			StringBuilder cpr = new StringBuilder(length);
+			for (int i = 0; i < length; i++) {
+				cpr.append(random.nextInt(8) == 0 ? ALPHABET.charAt(random.nextInt(ALPHABET.length())) : (char) ('0' + random.nextInt(10)));
+			}
+			assertAgreesWithTheOldRegularExpression(cpr.toString());
+		}
+	}
+
+	private static void assertAgreesWithTheOldRegularExpression(String cpr) {
+		assertEquals(cpr, OLD_CPR_PATTERN.matcher(cpr).matches(), CprUtil.validateCpr(cpr));
+	}
 }
@@ -30,6 +30,7 @@ import dk.nsi.sdm4.testutils.TestDbConfiguration;
 import dk.nsi.sdm4.ydelse.common.exception.DAOException;
 import dk.nsi.sdm4.ydelse.config.YdelseimporterApplicationConfig;
 import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
 import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
 import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
 import dk.nsi.sdm4.ydelse.relation.model.SSR;
@@ -46,6 +47,8 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -168,6 +171,60 @@ public class SSRDAOTest {
 		}
 	}
 
+	@Test
+	public void testDeletionOfManyExternalReferences() throws DAOException {
+		long primaryKey1 = dao.insert(exampleSSR);
+		long primaryKey2 = dao.insert(exampleSSR);
+		long otherKey = dao.insert(exampleSSR.withExternalReference("AnotherExternalReference"));
+
+		assertEquals(2, dao.deleteByExternalReferences(Arrays.asList(exampleSSR.getExternalReference(), "NotAnExternalReference..")));
+
+		for (long primaryKey : new long[] {primaryKey1, primaryKey2}) {
+			try {
+				dao.getUsingPrimaryKey(primaryKey);
+				fail("The ssr record should not be available");
+			} catch (DAOException e) {
+				assertEquals("No SSR with primary key " + primaryKey, e.getMessage());
+			}
+		}
+		assertNotNull(dao.getUsingPrimaryKey(otherKey));
+	}
+
+	@Test
+	public void batchedActionsAreExecutedInOrder() throws DAOException {
+		SSR other = SSR.createInstance(exampleSSR.getPatientCpr(), exampleSSR.getDoctorOrganisationIdentifier(),
+				exampleSSR.getTreatmentInterval(), "AnotherExternalReference");
+		SSR replacement = SSR.createInstance(exampleSSR.getPatientCpr(), exampleSSR.getDoctorOrganisationIdentifier(),
+				new Interval(new DateTime(2011, 3, 1, 0, 0, 0, 0), new DateTime(2011, 3, 2, 0, 0, 0, 0)),
+				exampleSSR.getExternalReference());
+
+		dao.execute(Arrays.asList(SsrAction.createInsertion(exampleSSR), SsrAction.createInsertion(other),
+				SsrAction.createNOOP(), SsrAction.createDeletion(exampleSSR.getExternalReference()),
+				SsrAction.createDeletion("NotThere"), SsrAction.createInsertion(replacement)));
+
+		List<SSR> ssrs = dao.query(exampleSSR.getPatientCpr(), exampleSSR.getDoctorOrganisationIdentifier());
+		assertEquals(2, ssrs.size());
+		for (SSR ssr : ssrs) {
+			if (ssr.getExternalReference().equals(exampleSSR.getExternalReference())) {
+				assertEquals(replacement.getTreatmentInterval(), ssr.getTreatmentInterval());
+			} else {
+				assertEquals("AnotherExternalReference", ssr.getExternalReference());
+			}
+		}
+	}
+
+	@Test
+	public void insertionsAreSplitIntoStatementsOfLimitedSize() throws DAOException {
+		List<SsrAction> insertions = new ArrayList<SsrAction>();
+		for (int i = 0; i < SSRDAOImpl.ROWS_PER_INSERT + 1; i++) {
+			insertions.add(SsrAction.createInsertion(exampleSSR));
+		}
+
+		dao.execute(insertions);
+
+		assertEquals(SSRDAOImpl.ROWS_PER_INSERT + 1, dao.query(exampleSSR.getPatientCpr(), exampleSSR.getDoctorOrganisationIdentifier()).size());
+	}
+
 	public static SSR generateSSR() {
 		Interval admittedInterval = new Interval(new DateTime(2011, 1, 15, 12, 34, 0, 0), new DateTime(2011, 2, 13, 18,
 				59, 0, 0));
@@ -0,0 +1,62 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.dao.impl;
+
+import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
+import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SSRLoadDataDAOImplTest {
+	private static final String CPR = "0123456789ABCDEF0123456789ABCDEF01234567";
+
+	@Test
+	public void writesOneTabSeparatedLinePerSsr() {
+		StringBuilder row = new StringBuilder();
+		SSRLoadDataDAOImpl.appendRow(row, ssr("AnExternalReferenceToSSR"));
+
+		assertEquals(CPR + "\t457153\t2011-01-15 12:34:00\t2011-02-13 18:59:00\tAnExternalReferenceToSSR\n", row.toString());
+	}
+
+	@Test
+	public void escapesTabsNewlinesAndBackslashes() {
+		StringBuilder row = new StringBuilder();
+		SSRLoadDataDAOImpl.appendRow(row, ssr("Tab\there\\and\nnewline...."));
+
+		assertEquals("Tab\\there\\\\and\\nnewline....\n", row.substring(row.lastIndexOf("00\t") + 3));
+	}
+
+	private static SSR ssr(String externalReference) {
+		Interval interval = new Interval(new DateTime(2011, 1, 15, 12, 34, 0, 0), new DateTime(2011, 2, 13, 18, 59, 0, 0));
+		return SSR.createInstance(HashedCpr.buildFromHashedString(CPR), DoctorOrganisationIdentifier.newInstance("457153"),
+				interval, externalReference);
+	}
+}
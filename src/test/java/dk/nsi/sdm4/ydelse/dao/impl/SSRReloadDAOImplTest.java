@@ -0,0 +1,87 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.dao.impl;
+
+import dk.nsi.sdm4.testutils.TestDbConfiguration;
+import dk.nsi.sdm4.ydelse.config.YdelseimporterApplicationConfig;
+import dk.nsi.sdm4.ydelse.dao.SSRReloadDAO;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Ikke transaktionel, da MySQL committer alle DDL-statements med det samme
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {YdelseimporterApplicationConfig.class, TestDbConfiguration.class})
+public class SSRReloadDAOImplTest {
+	@Autowired
+	private SSRReloadDAO reloadDao;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@After
+	public void dropStagingTable() {
+		jdbcTemplate.execute("DROP TABLE IF EXISTS " + reloadDao.getStagingTable());
+	}
+
+	@Test
+	public void keepsTheExternalReferenceIndexOnTheStagingTable() {
+		reloadDao.createStagingTable();
+
+		assertEquals(new HashSet<String>(Arrays.asList(SSRReloadDAOImpl.EXTERNAL_REFERENCE_INDEX)), secondaryIndexes(reloadDao.getStagingTable()));
+	}
+
+	@Test
+	public void rebuildsTheOtherIndexesOfSsr() {
+		reloadDao.createStagingTable();
+		assertFalse(secondaryIndexes(reloadDao.getStagingTable()).equals(secondaryIndexes("SSR")));
+
+		reloadDao.rebuildIndexes();
+
+		assertEquals(secondaryIndexes("SSR"), secondaryIndexes(reloadDao.getStagingTable()));
+	}
+
+	private Set<String> secondaryIndexes(String table) {
+		List<String> names = jdbcTemplate.queryForList("SELECT DISTINCT INDEX_NAME FROM information_schema.STATISTICS " +
+				"WHERE TABLE_SCHEMA=DATABASE() AND TABLE_NAME=? AND INDEX_NAME<>'PRIMARY'", String.class, table);
+		return new HashSet<String>(names);
+	}
+}
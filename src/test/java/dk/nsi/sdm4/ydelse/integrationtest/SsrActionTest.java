@@ -30,7 +30,7 @@ import dk.nsi.sdm4.testutils.TestDbConfiguration;
 import dk.nsi.sdm4.ydelse.common.exception.DAOException;
 import dk.nsi.sdm4.ydelse.dao.SSRTestPurposeDAO;
 import dk.nsi.sdm4.ydelse.dao.impl.SSRTestPurposeDAOImpl;
-import dk.nsi.sdm4.ydelse.parser.SsrAction;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
 import dk.nsi.sdm4.ydelse.relation.model.SSR;
 import dk.nsi.sdm4.ydelse.simulation.RandomDataUtilForTestPurposes;
 import dk.nsi.sdm4.ydelse.simulation.RandomSSR;
@@ -0,0 +1,161 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressedSsrFileReaderTest {
+	private static final int LINES = 20000;
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	@Test
+	public void readsGzip() throws IOException {
+		File file = tmpDir.newFile("ssr.csv.gz");
+		write(new GZIPOutputStream(new FileOutputStream(file)));
+
+		assertReadsAllLines(file);
+	}
+
+	@Test
+	public void recognisesGzipWithoutTheFileExtension() throws IOException {
+		File file = tmpDir.newFile("ssr.csv");
+		write(new GZIPOutputStream(new FileOutputStream(file)));
+
+		assertTrue(CompressedSsrFileReader.isCompressed(file));
+		assertReadsAllLines(file);
+	}
+
+	@Test
+	public void readsZlibWrappedDeflate() throws IOException {
+		File file = tmpDir.newFile("ssr.zz");
+		write(new DeflaterOutputStream(new FileOutputStream(file), new Deflater()));
+
+		assertEquals(CompressedSsrFileReader.Compression.ZLIB, CompressedSsrFileReader.compressionOf(file));
+		assertReadsAllLines(file);
+	}
+
+	@Test
+	public void readsRawDeflateWhenTheFileNameSaysSo() throws IOException {
+		File file = tmpDir.newFile("ssr.csv.deflate");
+		write(new DeflaterOutputStream(new FileOutputStream(file), new Deflater(Deflater.DEFAULT_COMPRESSION, true)));
+
+		assertReadsAllLines(file);
+	}
+
+	@Test
+	public void leavesPlainFilesAlone() throws IOException {
+		File file = tmpDir.newFile("ssr.csv");
+		write(new FileOutputStream(file));
+
+		assertFalse(CompressedSsrFileReader.isCompressed(file));
+	}
+
+	@Test
+	public void passesOnErrorsFromTheDecompressingThread() throws IOException {
+		File file = tmpDir.newFile("ssr.csv.gz");
+		write(new GZIPOutputStream(new FileOutputStream(file)));
+		truncate(file, file.length() / 2);
+
+		CompressedSsrFileReader reader = new CompressedSsrFileReader(file, 4096);
+		try {
+			while (reader.nextChunk() != null) {
+				// keep reading until the truncated part is reached
+			}
+			fail("Expected the truncated file to be reported");
+		} catch (IOException expected) {
+			// the EOFException from the inflater
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void assertReadsAllLines(File file) throws IOException {
+		List<String> actions = new ArrayList<String>();
+		long lastInputOffset = 0;
+		CompressedSsrFileReader reader = new CompressedSsrFileReader(file, 4096);
+		try {
+			SsrChunk chunk;
+			while ((chunk = reader.nextChunk()) != null) {
+				assertTrue(chunk.getInputOffset() >= lastInputOffset);
+				lastInputOffset = chunk.getInputOffset();
+				chunk.parse();
+				for (SsrAction action : chunk.getActions()) {
+					actions.add(action.toString());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		assertEquals(LINES, actions.size());
+		assertEquals(SsrAction.createDeletion(reference(LINES - 1)).toString(), actions.get(LINES - 1));
+		assertEquals("progress is measured in compressed bytes", file.length(), lastInputOffset);
+	}
+
+	private void write(OutputStream out) throws IOException {
+		try {
+			for (int i = 0; i < LINES; i++) {
+				out.write((",,,," + reference(i) + "\n").getBytes("US-ASCII"));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private String reference(int i) {
+		return String.format("reference%015d", i);
+	}
+
+	private void truncate(File file, long length) throws IOException {
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.getChannel().truncate(length);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.matchers.JUnitMatchers.containsString;
+
+public class DatasetFilesTest {
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	@Test
+	public void ordersFilesByNameWithoutAManifest() throws IOException {
+		tmpDir.newFile("ssr_20130102.csv");
+		tmpDir.newFile("ssr_20130101.csv.gz");
+		tmpDir.newFile("ssr_20130103.csv");
+
+		assertEquals(Arrays.asList("ssr_20130101.csv.gz", "ssr_20130102.csv", "ssr_20130103.csv"), namesInOrder());
+	}
+
+	@Test
+	public void ignoresDirectoriesInTheDataset() throws IOException {
+		tmpDir.newFile("a.csv");
+		tmpDir.newFolder("old");
+
+		assertEquals(Arrays.asList("a.csv"), namesInOrder());
+	}
+
+	@Test
+	public void complainsAboutHiddenAndTemporaryFiles() throws IOException {
+		File dataset = tmpDir.getRoot();
+		new File(dataset, "a.csv").createNewFile();
+		for (String name : Arrays.asList(".DS_Store", ".a.csv.swp", "a.csv~")) {
+			File file = new File(dataset, name);
+			file.createNewFile();
+			assertComplaint(name, "hidden or temporary");
+			file.delete();
+		}
+	}
+
+	@Test
+	public void complainsAboutHiddenFilesNotInTheManifest() throws IOException {
+		tmpDir.newFile("a.csv");
+		tmpDir.newFile(".DS_Store");
+		tmpDir.newFolder("old");
+		manifest("a.csv");
+
+		assertComplaint(".DS_Store", "hidden or temporary");
+	}
+
+	@Test
+	public void ordersFilesAsListedInTheManifest() throws IOException {
+		tmpDir.newFile("a.csv");
+		tmpDir.newFile("b.csv");
+		tmpDir.newFile("c.csv");
+		manifest("# newest last", "c.csv", "", " a.csv ", "b.csv");
+
+		assertEquals(Arrays.asList("c.csv", "a.csv", "b.csv"), namesInOrder());
+	}
+
+	@Test
+	public void complainsAboutFilesInTheManifestThatDoNotExist() throws IOException {
+		tmpDir.newFile("a.csv");
+		manifest("a.csv", "b.csv");
+
+		assertComplaint("b.csv", "not a file");
+	}
+
+	@Test
+	public void complainsAboutFilesNotInTheManifest() throws IOException {
+		tmpDir.newFile("a.csv");
+		tmpDir.newFile("b.csv");
+		manifest("a.csv");
+
+		assertComplaint("b.csv", "not listed");
+	}
+
+	@Test
+	public void complainsAboutFilesListedTwice() throws IOException {
+		tmpDir.newFile("a.csv");
+		manifest("a.csv", "a.csv");
+
+		assertComplaint("a.csv", "more than once");
+	}
+
+	@Test
+	public void doesNotAllowTheManifestToPointOutsideTheDataset() throws IOException {
+		File dataset = tmpDir.newFolder("dataset");
+		tmpDir.newFile("outside.csv");
+		FileUtils.writeLines(new File(dataset, DatasetFiles.MANIFEST_NAME), Arrays.asList("../outside.csv"));
+
+		try {
+			DatasetFiles.inOrder(dataset);
+			fail("Expected ParserException, but none came");
+		} catch (ParserException e) {
+			assertThat(e.getMessage(), containsString("not a file in the dataset"));
+		}
+	}
+
+	private void assertComplaint(String fileName, String reason) {
+		try {
+			DatasetFiles.inOrder(tmpDir.getRoot());
+			fail("Expected ParserException, but none came");
+		} catch (ParserException e) {
+			assertThat(e.getMessage(), containsString(fileName));
+			assertThat(e.getMessage(), containsString(reason));
+		}
+	}
+
+	private void manifest(String... lines) throws IOException {
+		FileUtils.writeLines(new File(tmpDir.getRoot(), DatasetFiles.MANIFEST_NAME), Arrays.asList(lines));
+	}
+
+	private List<String> namesInOrder() {
+		List<String> names = new ArrayList<String>();
+		for (File file : DatasetFiles.inOrder(tmpDir.getRoot())) {
+			names.add(file.getName());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.Parser;
+import dk.nsi.sdm4.core.parser.ParserException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DatasetWatcherTest {
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private final RecordingParser parser = new RecordingParser();
+	private DatasetWatcher watcher;
+	private File watchDir;
+
+	@Before
+	public void startWatcher() throws IOException {
+		watchDir = tmpDir.newFolder("watch");
+		watcher = new DatasetWatcher();
+		watcher.parser = parser;
+		watcher.trigger = DatasetWatcher.WATCH_TRIGGER;
+		watcher.watchDir = watchDir;
+		watcher.quietMillis = 500;
+	}
+
+	@After
+	public void stopWatcher() throws Exception {
+		watcher.stop();
+	}
+
+	@Test
+	public void importsAMarkedDatasetRightAwayAndMovesItToProcessed() throws Exception {
+		watcher.quietMillis = 60000;
+		watcher.start();
+
+		File dataset = new File(watchDir, "ssr1");
+		FileUtils.write(new File(dataset, "a.csv"), "x");
+		FileUtils.write(new File(dataset, DatasetWatcher.COMPLETION_MARKER), "");
+
+		awaitProcessed("ssr1");
+		assertEquals(Collections.singletonList("ssr1"), parser.imported());
+		assertFalse(dataset.exists());
+		assertFalse(new File(watchDir, DatasetWatcher.PROCESSED_DIR + "/ssr1/" + DatasetWatcher.COMPLETION_MARKER).exists());
+		assertEquals(Collections.singletonList("a.csv"), parser.filesSeen.get(0));
+	}
+
+	@Test
+	public void waitsUntilAnUnmarkedDatasetHasStoppedGrowing() throws Exception {
+		watcher.start();
+
+		File file = new File(watchDir, "ssr1/a.csv");
+		for (int i = 0; i < 10; i++) {
+			FileUtils.write(file, "line " + i + "\n", true);
+			Thread.sleep(100);
+			assertTrue(parser.imported().isEmpty());
+		}
+
+		awaitProcessed("ssr1");
+		assertEquals(Collections.singletonList("ssr1"), parser.imported());
+		assertEquals(Collections.singletonList("a.csv"), parser.filesSeen.get(0));
+	}
+
+	@Test
+	public void rejectsADatasetThatIsDeliveredAgain() throws Exception {
+		watcher.start();
+
+		deliver("ssr1");
+		awaitProcessed("ssr1");
+		deliver("ssr1");
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (new File(watchDir, DatasetWatcher.REJECTED_DIR).list().length == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(Collections.singletonList("ssr1"), parser.imported());
+		assertEquals(1, new File(watchDir, DatasetWatcher.REJECTED_DIR).list().length);
+	}
+
+	@Test
+	public void rejectsADatasetThatFailsToImport() throws Exception {
+		parser.failOn = "bad";
+		watcher.start();
+
+		deliver("bad");
+		deliver("good");
+		awaitProcessed("good");
+
+		assertEquals(2, parser.imported().size());
+		assertTrue(new File(watchDir, DatasetWatcher.REJECTED_DIR + "/bad").isDirectory());
+	}
+
+	@Test
+	public void resumesADatasetThatWasInterruptedAtStartup() throws Exception {
+		FileUtils.write(new File(watchDir, DatasetWatcher.PROCESSING_DIR + "/ssr1/a.csv"), "x");
+		watcher.start();
+
+		awaitProcessed("ssr1");
+		assertEquals(Collections.singletonList("ssr1"), parser.imported());
+	}
+
+	@Test
+	public void keepsWatchingAfterAScanFails() throws Exception {
+		final AtomicInteger failures = new AtomicInteger();
+		watcher = new DatasetWatcher() {
+			@Override
+			void scan() {
+				if (failures.getAndIncrement() < 2) {
+					throw new IllegalStateException("Could not list the watch directory");
+				}
+				super.scan();
+			}
+		};
+		watcher.parser = parser;
+		watcher.trigger = DatasetWatcher.WATCH_TRIGGER;
+		watcher.watchDir = watchDir;
+		watcher.start();
+
+		deliver("ssr1");
+		awaitProcessed("ssr1");
+		assertTrue(failures.get() > 2);
+		assertEquals(Collections.singletonList("ssr1"), parser.imported());
+	}
+
+	@Test
+	public void doesNothingWhenTheSpoolerTriggersTheImports() throws Exception {
+		watcher.trigger = DatasetWatcher.SCHEDULED_TRIGGER;
+		watcher.start();
+
+		deliver("ssr1");
+		Thread.sleep(1000);
+		assertTrue(parser.imported().isEmpty());
+		assertTrue(new File(watchDir, "ssr1").isDirectory());
+	}
+
+	private void deliver(String name) throws IOException {
+		File staging = tmpDir.newFolder();
+		FileUtils.write(new File(staging, "a.csv"), "x");
+		FileUtils.write(new File(staging, DatasetWatcher.COMPLETION_MARKER), "");
+		assertTrue(staging.renameTo(new File(watchDir, name)));
+	}
+
+	private void awaitProcessed(String name) throws InterruptedException {
+		File processed = new File(watchDir, DatasetWatcher.PROCESSED_DIR + "/" + name);
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!processed.isDirectory() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(processed.isDirectory());
+	}
+
+	private static class RecordingParser implements Parser {
+		private final List<String> imported = new ArrayList<String>();
+		final List<List<String>> filesSeen = Collections.synchronizedList(new ArrayList<List<String>>());
+		volatile String failOn;
+
+		@Override
+		public synchronized void process(File dataSet, String identifier) throws ParserException {
+			imported.add(identifier);
+			List<String> names = new ArrayList<String>();
+			for (File file : DatasetFiles.inOrder(dataSet)) {
+				names.add(file.getName());
+			}
+			filesSeen.add(names);
+			if (identifier.equals(failOn)) {
+				throw new ParserException("Could not import " + identifier);
+			}
+		}
+
+		@Override
+		public String getHome() {
+			return "ydelseimporter";
+		}
+
+		synchronized List<String> imported() {
+			return new ArrayList<String>(imported);
+		}
+	}
+}
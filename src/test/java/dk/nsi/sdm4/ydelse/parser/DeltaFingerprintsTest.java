@@ -0,0 +1,237 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
+import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaFingerprintsTest {
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	@Test
+	public void everythingIsChangedWithoutPreviousFingerprints() {
+		DeltaFingerprints delta = DeltaFingerprints.none();
+		List<SsrAction> extract = Arrays.asList(deletion("ref1"), insertion("ref1", 1), insertion("ref2", 2));
+		for (SsrAction action : extract) {
+			delta.add(action);
+		}
+
+		assertEquals(2, delta.decideChanges());
+		for (SsrAction action : extract) {
+			assertTrue(delta.isChanged(action));
+		}
+	}
+
+	@Test
+	public void skipsReferencesThatAreDeletedAndInsertedAgainUnchanged() throws IOException {
+		DeltaFingerprints first = applied(DeltaFingerprints.none(),
+				deletion("ref1"), insertion("ref1", 1), insertion("ref1", 2), deletion("ref2"), insertion("ref2", 3));
+
+		DeltaFingerprints second = applied(written(first),
+				deletion("ref1"), insertion("ref1", 2), insertion("ref1", 1), deletion("ref2"), insertion("ref2", 4));
+
+		assertEquals(1, second.getChangedReferenceCount());
+		assertFalse(second.isChanged(deletion("ref1")));
+		assertTrue(second.isChanged(deletion("ref2")));
+	}
+
+	@Test
+	public void alwaysPerformsInsertionsWithoutADeletion() throws IOException {
+		DeltaFingerprints first = applied(DeltaFingerprints.none(), deletion("ref1"), insertion("ref1", 1));
+
+		DeltaFingerprints second = applied(written(first), insertion("ref1", 1));
+
+		assertTrue(second.isChanged(insertion("ref1", 1)));
+	}
+
+	@Test
+	public void remembersReferencesThatAreNotInTheNextExtract() throws IOException {
+		DeltaFingerprints first = applied(DeltaFingerprints.none(), deletion("ref1"), insertion("ref1", 1));
+		DeltaFingerprints second = applied(written(first), deletion("ref2"));
+		DeltaFingerprints third = applied(written(second), deletion("ref1"), insertion("ref1", 1));
+
+		assertEquals(0, third.getChangedReferenceCount());
+	}
+
+	@Test
+	public void givesTheSameTableAsAFullImportOverManyExtracts() throws IOException {
+		Random random = new Random(1337);
+		InMemoryTable fullTable = new InMemoryTable();
+		InMemoryTable deltaTable = new InMemoryTable();
+		DeltaFingerprints fingerprints = DeltaFingerprints.none();
+		int performed = 0;
+		int total = 0;
+
+		for (int extract = 0; extract < 20; extract++) {
+			List<SsrAction> actions = randomExtract(random);
+			DeltaFingerprints delta = extract % 7 == 3 ? DeltaFingerprints.none() : fingerprints; // fingerprints lost now and then
+			for (SsrAction action : actions) {
+				delta.add(action);
+			}
+			delta.decideChanges();
+
+			for (SsrAction action : actions) {
+				action.execute(fullTable);
+				total++;
+				if (delta.isChanged(action)) {
+					action.execute(deltaTable);
+					performed++;
+				}
+			}
+			assertEquals("after extract " + extract, fullTable.rows, deltaTable.rows);
+			fingerprints = written(delta);
+		}
+		assertTrue("delta performed " + performed + " of " + total + " actions", performed < total / 2);
+	}
+
+	/**
+	 * Every extract resends most references unchanged, changes a few and only inserts into a few.
+	 */
+	private List<SsrAction> randomExtract(Random random) {
+		List<SsrAction> actions = new ArrayList<SsrAction>();
+		for (int reference = 0; reference < 200; reference++) {
+			String ref = "ref" + reference;
+			int kind = random.nextInt(20);
+			if (kind == 0) {
+				actions.add(insertion(ref, random.nextInt(3)));
+			} else if (kind < 18) {
+				actions.add(deletion(ref));
+				int rows = kind == 1 ? random.nextInt(3) : 1 + reference % 2;
+				for (int row = 0; row < rows; row++) {
+					actions.add(insertion(ref, kind == 1 ? random.nextInt(3) : row));
+				}
+			}
+		}
+		Collections.shuffle(actions.subList(0, actions.size() / 10), random); // different references do not depend on each other's order
+		return actions;
+	}
+
+	private DeltaFingerprints applied(DeltaFingerprints previous, SsrAction... actions) {
+		for (SsrAction action : actions) {
+			previous.add(action);
+		}
+		previous.decideChanges();
+		return previous;
+	}
+
+	private DeltaFingerprints written(DeltaFingerprints fingerprints) throws IOException {
+		File file = new File(tmpDir.getRoot(), "fingerprints.bin");
+		fingerprints.write(file);
+		return DeltaFingerprints.read(file);
+	}
+
+	private SsrAction deletion(String reference) {
+		return SsrAction.createDeletion(padded(reference));
+	}
+
+	private SsrAction insertion(String reference, int day) {
+		DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0).plusDays(day);
+		return SsrAction.createInsertion(SSR.createInstance(
+				HashedCpr.buildFromHashedString("1234567890123456789012345678901234567890"),
+				DoctorOrganisationIdentifier.newInstance("034002"), new Interval(start, start.plusDays(1)), padded(reference)));
+	}
+
+	private String padded(String reference) {
+		return String.format("%-24s", reference);
+	}
+
+	private static class InMemoryTable implements SSRWriteDAO {
+		final Map<String, List<String>> rows = new HashMap<String, List<String>>();
+
+		@Override
+		public long insert(SSR ssr) {
+			List<String> forReference = rows.get(ssr.getExternalReference());
+			if (forReference == null) {
+				forReference = new ArrayList<String>();
+				rows.put(ssr.getExternalReference(), forReference);
+			}
+			forReference.add(ssr.toString());
+			Collections.sort(forReference);
+			return 0;
+		}
+
+		@Override
+		public void deleteByExternalReference(String externalReference) {
+			rows.remove(externalReference);
+		}
+
+		@Override
+		public int deleteByExternalReferences(List<String> externalReferences) {
+			int deleted = 0;
+			for (String externalReference : externalReferences) {
+				List<String> removed = rows.remove(externalReference);
+				deleted += removed != null ? removed.size() : 0;
+			}
+			return deleted;
+		}
+
+		@Override
+		public void execute(List<SsrAction> actions) {
+			for (SsrAction action : actions) {
+				action.execute(this);
+			}
+		}
+
+		@Override
+		public SSRWriteDAO inTable(String table) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public SSR getUsingPrimaryKey(long primaryKey) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<SSR> query(HashedCpr patientCpr, DoctorOrganisationIdentifier doctorOrganisationIdentifier) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
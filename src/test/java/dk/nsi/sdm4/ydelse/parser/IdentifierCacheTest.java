@@ -0,0 +1,128 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
+import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IdentifierCacheTest {
+	private final IdentifierCache identifiers = new IdentifierCache();
+
+	@Test
+	public void sharesAnIdentifierThatHasBeenCreatedBefore() {
+		HashedCpr patient = identifiers.patientCpr(chars("0123456789ABCDEF0123456789ABCDEF01234567"), 40);
+		DoctorOrganisationIdentifier doctor = identifiers.doctorOrganisationIdentifier(chars("34002"), 5);
+
+		assertSame(patient, identifiers.patientCpr(chars("0123456789ABCDEF0123456789ABCDEF01234567"), 40));
+		assertSame(doctor, identifiers.doctorOrganisationIdentifier(chars("34002xyz"), 5));
+		assertNotSame(doctor, identifiers.doctorOrganisationIdentifier(chars("340021"), 6));
+		assertEquals("340021", identifiers.doctorOrganisationIdentifier(chars("340021"), 6).toString());
+
+		assertEquals(1, identifiers.getPatientCprHits());
+		assertEquals(1, identifiers.getPatientCprMisses());
+		assertEquals(2, identifiers.getDoctorOrganisationIdentifierHits());
+		assertEquals(2, identifiers.getDoctorOrganisationIdentifierMisses());
+		assertEquals(2 * IdentifierCache.DOCTOR_ORGANISATION_IDENTIFIER_BYTES + IdentifierCache.HASHED_CPR_BYTES, identifiers.getBytesSaved());
+	}
+
+	@Test
+	public void givesTheRightIdentifiersWhenThereAreMoreThanItHasRoomFor() {
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < 200000; i++) {
+				String cpr = String.format("%040X", i);
+				assertEquals(cpr, identifiers.patientCpr(chars(cpr), 40).getHashedCpr());
+				String doctor = String.format("%06d", i);
+				assertEquals(doctor, identifiers.doctorOrganisationIdentifier(chars(doctor), 6).toString());
+			}
+		}
+		assertTrue(identifiers.getPatientCprMisses() > 200000);
+		assertEquals(400000, identifiers.getPatientCprHits() + identifiers.getPatientCprMisses());
+	}
+
+	@Test
+	public void validatesLikeTheModel() {
+		try {
+			identifiers.patientCpr(chars("0123456789abcdef0123456789abcdef01234567"), 40);
+			fail("Expected lower case to be refused");
+		} catch (IllegalArgumentException e) {
+			// forventet
+		}
+		try {
+			identifiers.doctorOrganisationIdentifier(chars("3400"), 4);
+			fail("Expected a too short ydernummer to be refused");
+		} catch (IllegalArgumentException e) {
+			// forventet
+		}
+		assertEquals(0, identifiers.getBytesSaved());
+	}
+
+	@Test
+	public void anImportSharesTheIdentifiersOfRepeatedPatientsAndDoctors() throws Exception {
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			lines.append(String.format("%06d,%040X,20120101,20120101,ref%d\n", 34002 + i % 10, i % 100, i));
+		}
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			YdelseInserter inserter = new YdelseInserter();
+			inserter.dao = new InMemoryDaos.Table();
+			inserter.checkpointDao = new InMemoryDaos.Checkpoints();
+			inserter.transactionTemplate = new TransactionTemplate(new InMemoryDaos.NoTransactions());
+			inserter.importExecutor = executor;
+			inserter.chunkSize = 256;
+			inserter.parserThreads = 2;
+			ImportHandle handle = inserter.readStreamAndPerformDatabaseOperations(new ByteArrayInputStream(lines.toString().getBytes("US-ASCII")), "ssr.csv");
+			handle.get(10, TimeUnit.SECONDS);
+
+			IdentifierCache cache = handle.getIdentifierCache();
+			assertEquals(2000, cache.getPatientCprHits() + cache.getPatientCprMisses());
+			assertTrue(cache.toString(), cache.getPatientCprMisses() >= 100 && cache.getPatientCprMisses() < 200);
+			assertTrue(cache.toString(), cache.getDoctorOrganisationIdentifierHits() > 1900);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static char[] chars(String s) {
+		char[] chars = new char[40];
+		s.getChars(0, s.length(), chars, 0);
+		return chars;
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImportHandleTest {
+	private static final int LINES = 2000;
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final InMemoryDaos.Table table = new InMemoryDaos.Table();
+	private final InMemoryDaos.Checkpoints checkpoints = new InMemoryDaos.Checkpoints();
+
+	@After
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void runsInTheBackgroundAndReportsProgress() throws Exception {
+		File file = writeInsertions();
+		table.blockFirstInsertion();
+
+		ImportHandle handle = inserter().readFilesAndPerformDatabaseOperations(Arrays.asList(file));
+
+		table.awaitFirstInsertion();
+		assertFalse(handle.isDone());
+		assertTrue(handle.getLinesRead() > 0);
+		assertEquals(0, handle.getBatchesCommitted());
+		table.releaseFirstInsertion();
+
+		List<ImportProgress> progress = handle.get(10, TimeUnit.SECONDS);
+		assertEquals(LINES, progress.get(0).getLinesRead());
+		assertEquals(LINES, handle.getLinesRead());
+		assertEquals(file.length(), handle.getBytesRead());
+		assertTrue(handle.getBatchesCommitted() > 1);
+		assertEquals(LINES, table.references.size());
+	}
+
+	@Test
+	public void stopsAtABatchBoundaryWhenCancelledAndResumesFromThere() throws Exception {
+		File file = writeInsertions();
+		table.blockFirstInsertion();
+
+		ImportHandle handle = inserter().readFilesAndPerformDatabaseOperations(Arrays.asList(file));
+		table.awaitFirstInsertion();
+		assertTrue(handle.cancel(true));
+		table.releaseFirstInsertion();
+
+		assertTrue(handle.awaitStopped(10, TimeUnit.SECONDS));
+		try {
+			handle.get();
+			fail("Expected CancellationException, but none came");
+		} catch (CancellationException e) {
+			// forventet
+		}
+		assertEquals(1, handle.getBatchesCommitted());
+		int inserted = table.references.size();
+		assertTrue("inserted " + inserted, inserted >= 100 && inserted < LINES);
+		assertEquals(inserted, checkpoints.saved.values().iterator().next().getLineNumber());
+
+		inserter().readFilesAndPerformDatabaseOperations(Arrays.asList(file)).get(10, TimeUnit.SECONDS);
+
+		assertEquals(LINES, table.references.size());
+		assertEquals(LINES, new HashSet<String>(table.references).size());
+		assertTrue(checkpoints.saved.isEmpty());
+	}
+
+	private YdelseInserter inserter() {
+		YdelseInserter inserter = new YdelseInserter();
+		inserter.dao = table;
+		inserter.checkpointDao = checkpoints;
+		inserter.transactionTemplate = new TransactionTemplate(new InMemoryDaos.NoTransactions());
+		inserter.importExecutor = executor;
+		inserter.batchSize = 100;
+		inserter.chunkSize = 256;
+		inserter.parserThreads = 2;
+		return inserter;
+	}
+
+	private File writeInsertions() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < LINES; i++) {
+			lines.add(String.format("%06d,%040X,20120101,20120101,ref%d", 34002, i, i));
+		}
+		File file = new File(tmpDir.getRoot(), "ssr.csv");
+		FileUtils.writeLines(file, lines);
+		return file;
+	}
+}
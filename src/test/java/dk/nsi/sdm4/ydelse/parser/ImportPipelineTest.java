@@ -0,0 +1,198 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImportPipelineTest {
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	@Test
+	public void handsOverChunksInFileOrderWhenParsingInParallel() throws Exception {
+		List<SsrChunk> chunks = new ArrayList<SsrChunk>();
+		List<String> expected = new ArrayList<String>();
+		for (int c = 0; c < 200; c++) {
+			List<String> lines = new ArrayList<String>();
+			for (int l = 0; l < 50; l++) {
+				String reference = String.format("reference%07d%08d", c, l);
+				lines.add(",,,," + reference);
+				expected.add(SsrAction.createDeletion(reference).toString());
+			}
+			chunks.add(new SsrChunk.TextChunk(lines, c, c + 1));
+		}
+
+		final List<String> seen = new ArrayList<String>();
+		ImportPipeline pipeline = new ImportPipeline(8, 4);
+		pipeline.run(sourceOf(chunks), new ImportPipeline.ChunkHandler() {
+			@Override
+			public void handle(SsrChunk chunk) {
+				for (SsrAction action : chunk.getActions()) {
+					seen.add(action.toString());
+				}
+			}
+		});
+
+		assertEquals(expected, seen);
+		assertEquals(200, pipeline.getChunksRead());
+		assertEquals(200, pipeline.getChunksHandled());
+		assertEquals(200 * 50, pipeline.getLinesParsed());
+	}
+
+	@Test
+	public void parsesAFileSplitIntoRangesTheSameAsReadingItSequentially() throws Exception {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			if (i % 7 == 0) {
+				content.append(String.format(",,,,reference%015d", i));
+			} else {
+				content.append(String.format("%06d,%040X,%04d0101,%04d0101,ref%d", 100000 + i, i, 1990 + i % 20, 1990 + i % 20, i));
+			}
+			content.append(i % 3 == 0 ? "\r\n" : "\n");
+		}
+		File file = tmpDir.newFile("ssr.csv");
+		FileUtils.writeStringToFile(file, content.toString());
+
+		List<String> expected = new ArrayList<String>();
+		SsrLineReader sequential = new SsrLineReader(new FileInputStream(file));
+		try {
+			String line;
+			while ((line = sequential.readLine()) != null) {
+				expected.add(SSRLineParser.parseLine(line).toString());
+			}
+		} finally {
+			sequential.close();
+		}
+
+		final List<String> seen = new ArrayList<String>();
+		new ImportPipeline(8, 16).run(new MappedSsrFileReader(file, 4096, 1000), new ImportPipeline.ChunkHandler() {
+			@Override
+			public void handle(SsrChunk chunk) {
+				for (SsrAction action : chunk.getActions()) {
+					seen.add(action.toString());
+				}
+			}
+		});
+
+		assertEquals(expected, seen);
+	}
+
+	@Test
+	public void keepsActionsBeforeAMalformedLine() throws Exception {
+		SsrChunk chunk = new SsrChunk.TextChunk(Arrays.asList(",,,,first", "malformed", ",,,,never"), 0, 42);
+		final List<SsrChunk> handled = new ArrayList<SsrChunk>();
+
+		new ImportPipeline(2, 2).run(sourceOf(Arrays.asList(chunk)), new ImportPipeline.ChunkHandler() {
+			@Override
+			public void handle(SsrChunk chunk) {
+				handled.add(chunk);
+			}
+		});
+
+		assertEquals(1, handled.get(0).getActions().size());
+		assertEquals(1, handled.get(0).getLineCount());
+		assertTrue(handled.get(0).getFailure() instanceof ParserException);
+	}
+
+	@Test
+	public void stopsReadingWhenTheHandlerFails() throws Exception {
+		List<SsrChunk> chunks = new ArrayList<SsrChunk>();
+		for (int c = 0; c < 1000; c++) {
+			chunks.add(new SsrChunk.TextChunk(Arrays.asList(",,,,ref"), c, c + 1));
+		}
+		ImportPipeline pipeline = new ImportPipeline(2, 2);
+
+		try {
+			pipeline.run(sourceOf(chunks), new ImportPipeline.ChunkHandler() {
+				@Override
+				public void handle(SsrChunk chunk) {
+					throw new IllegalStateException("database is down");
+				}
+			});
+			fail("Expected the handler's exception");
+		} catch (IllegalStateException e) {
+			assertEquals("database is down", e.getMessage());
+		}
+		assertTrue(pipeline.getChunksRead() < 1000);
+	}
+
+	@Test
+	public void passesOnReaderFailures() throws Exception {
+		SsrChunkSource failingSource = new SsrChunkSource() {
+			@Override
+			public SsrChunk nextChunk() throws IOException {
+				throw new IOException("disk is gone");
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+
+		try {
+			new ImportPipeline(2, 2).run(failingSource, new ImportPipeline.ChunkHandler() {
+				@Override
+				public void handle(SsrChunk chunk) {
+				}
+			});
+			fail("Expected the reader's exception");
+		} catch (IOException e) {
+			assertEquals("disk is gone", e.getMessage());
+		}
+	}
+
+	private SsrChunkSource sourceOf(final List<SsrChunk> chunks) {
+		return new SsrChunkSource() {
+			private int next;
+
+			@Override
+			public SsrChunk nextChunk() {
+				return next < chunks.size() ? chunks.get(next++) : null;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+}
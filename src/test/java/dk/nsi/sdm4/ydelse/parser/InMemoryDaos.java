@@ -0,0 +1,266 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.ImportCheckpointDAO;
+import dk.nsi.sdm4.ydelse.common.exception.DAOException;
+import dk.nsi.sdm4.ydelse.dao.SSRReloadDAO;
+import dk.nsi.sdm4.ydelse.dao.SSRWriteDAO;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
+import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+import dk.nsi.sdm4.ydelse.relation.model.ImportCheckpoint;
+import dk.nsi.sdm4.ydelse.relation.model.SSR;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tabel, checkpoints og transaktioner i hukommelsen, så importens tråde og batches kan testes uden database
+ */
+class InMemoryDaos {
+	static class Table implements SSRWriteDAO {
+		final List<String> references = new ArrayList<String>();
+		final Map<String, Table> otherTables = new HashMap<String, Table>();
+		private CountDownLatch firstInsertion;
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		void blockFirstInsertion() {
+			firstInsertion = new CountDownLatch(1);
+		}
+
+		void awaitFirstInsertion() throws InterruptedException {
+			assertTrue(firstInsertion.await(10, TimeUnit.SECONDS));
+		}
+
+		void releaseFirstInsertion() {
+			released.countDown();
+		}
+
+		@Override
+		public long insert(SSR ssr) {
+			if (references.isEmpty() && firstInsertion != null) {
+				firstInsertion.countDown();
+				try {
+					released.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			references.add(ssr.getExternalReference());
+			return references.size();
+		}
+
+		@Override
+		public void deleteByExternalReference(String externalReference) {
+			references.remove(externalReference);
+		}
+
+		@Override
+		public int deleteByExternalReferences(List<String> externalReferences) {
+			int before = references.size();
+			for (String externalReference : externalReferences) {
+				deleteByExternalReference(externalReference);
+			}
+			return before - references.size();
+		}
+
+		@Override
+		public void execute(List<SsrAction> actions) {
+			for (SsrAction action : actions) {
+				action.execute(this);
+			}
+		}
+
+		@Override
+		public SSRWriteDAO inTable(String table) {
+			assertTrue("no table " + table, otherTables.containsKey(table));
+			return otherTables.get(table);
+		}
+
+		@Override
+		public SSR getUsingPrimaryKey(long primaryKey) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<SSR> query(HashedCpr patientCpr, DoctorOrganisationIdentifier doctorOrganisationIdentifier) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Staging-tabellen og den forrige tabel ligger som andre tabeller i SSR-tabellen, og et swap bytter deres indhold
+	 */
+	static class Reload implements SSRReloadDAO {
+		static final String STAGING = "staging";
+		static final String PREVIOUS = "previous";
+
+		private final Table table;
+		final List<String> outcomes = new ArrayList<String>();
+		int indexRebuilds;
+
+		Reload(Table table) {
+			this.table = table;
+		}
+
+		@Override
+		public String getStagingTable() {
+			return STAGING;
+		}
+
+		@Override
+		public boolean stagingTableExists() {
+			return table.otherTables.containsKey(STAGING);
+		}
+
+		@Override
+		public void createStagingTable() {
+			table.otherTables.put(STAGING, new Table());
+		}
+
+		@Override
+		public void rebuildIndexes() {
+			indexRebuilds++;
+		}
+
+		@Override
+		public long countRows() {
+			return table.references.size();
+		}
+
+		@Override
+		public long countStagingRows() {
+			return table.otherTables.get(STAGING).references.size();
+		}
+
+		@Override
+		public void swap() {
+			Table previous = new Table();
+			previous.references.addAll(table.references);
+			table.references.clear();
+			table.references.addAll(table.otherTables.remove(STAGING).references);
+			table.otherTables.put(PREVIOUS, previous);
+		}
+
+		@Override
+		public void rollback() {
+			Table previous = table.otherTables.remove(PREVIOUS);
+			if (previous == null) {
+				throw new DAOException("There is no previous table to roll back to");
+			}
+			table.references.clear();
+			table.references.addAll(previous.references);
+		}
+
+		@Override
+		public void recordReload(String outcome, long rows) {
+			outcomes.add(outcome + " " + rows);
+		}
+
+		@Override
+		public void recordRollback() {
+			outcomes.add(ROLLED_BACK);
+		}
+	}
+
+	/**
+	 * Skrivebanerne gemmer checkpoints fra hver sin tråd
+	 */
+	static class Checkpoints implements ImportCheckpointDAO {
+		final Map<String, ImportCheckpoint> saved = new HashMap<String, ImportCheckpoint>();
+
+		private String key(ImportCheckpoint file) {
+			return file.getFileName() + ":" + file.getFileSize() + ":" + file.getFileChecksum();
+		}
+
+		@Override
+		public synchronized List<ImportCheckpoint> find(ImportCheckpoint file) {
+			List<ImportCheckpoint> found = new ArrayList<ImportCheckpoint>();
+			for (ImportCheckpoint checkpoint : saved.values()) {
+				if (checkpoint.isSameFileAs(file)) {
+					found.add(checkpoint);
+				}
+			}
+			Collections.sort(found, new Comparator<ImportCheckpoint>() {
+				@Override
+				public int compare(ImportCheckpoint a, ImportCheckpoint b) {
+					return a.getLane() - b.getLane();
+				}
+			});
+			return found;
+		}
+
+		@Override
+		public synchronized void save(ImportCheckpoint checkpoint) {
+			saved.put(key(checkpoint) + ":" + checkpoint.getLane(), checkpoint);
+		}
+
+		@Override
+		public synchronized void delete(ImportCheckpoint file) {
+			for (ImportCheckpoint checkpoint : find(file)) {
+				saved.remove(key(checkpoint) + ":" + checkpoint.getLane());
+			}
+		}
+
+		@Override
+		public long findDeltaGeneration() {
+			return 0;
+		}
+
+		@Override
+		public void saveDeltaGeneration(long generation) {
+		}
+	}
+
+	static class NoTransactions implements PlatformTransactionManager {
+		@Override
+		public TransactionStatus getTransaction(TransactionDefinition definition) {
+			return new SimpleTransactionStatus();
+		}
+
+		@Override
+		public void commit(TransactionStatus status) {
+		}
+
+		@Override
+		public void rollback(TransactionStatus status) {
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedSsrFileReaderTest {
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	@Test
+	public void findsLinesAndFields() throws IOException {
+		MappedSsrFileReader reader = readerFor("a, b ,c,,e\n,,,, ref \n", 1024);
+		SsrLine line = SSRLineParser.newLine();
+
+		assertTrue(reader.next(line));
+		assertEquals(5, line.getFieldCount());
+		assertEquals("a", line.fieldAsString(0));
+		assertEquals("b", line.fieldAsString(1));
+		assertTrue(line.isBlank(3));
+		assertEquals("a, b ,c,,e", line.toString());
+
+		assertTrue(reader.next(line));
+		assertEquals("ref", line.fieldAsString(4));
+		assertTrue(line.isBlank(0));
+
+		assertFalse(reader.next(line));
+		reader.close();
+	}
+
+	@Test
+	public void findsTheSameLinesWhateverTheWindowSize() throws IOException {
+		String content = "first,line\r\nsecond\rthird,,\n\nfifth line without terminator";
+		List<String> expected = Arrays.asList("first,line", "second", "third,,", "", "fifth line without terminator");
+
+		for (int windowSize = 32; windowSize <= 64; windowSize++) {
+			MappedSsrFileReader reader = readerFor(content, windowSize);
+			assertEquals("window size " + windowSize, expected, readAll(reader));
+			assertEquals(content.length(), reader.getBytesRead());
+			assertEquals(5, reader.getLineNumber());
+			reader.close();
+		}
+	}
+
+	@Test
+	public void resumesAtTheEndOfAnyChunk() throws IOException {
+		String content = "first,line\r\nsecond\rthird,,\n\nfifth\r\nsixth line without terminator";
+		List<String> all = readAll(readerFor(content, 1024));
+
+		for (int windowSize = 32; windowSize <= 64; windowSize++) {
+			MappedSsrFileReader chunks = readerFor(content, windowSize);
+			int linesBefore = 0;
+			MappedSsrChunk chunk;
+			while ((chunk = (MappedSsrChunk) chunks.nextChunk()) != null) {
+				SsrLine line = SSRLineParser.newLine();
+				while (chunk.nextLine(line)) {
+					linesBefore++;
+				}
+
+				MappedSsrFileReader resumed = readerFor(content, windowSize);
+				resumed.resumeAt(chunk.getEndOffset(), linesBefore);
+				assertEquals("window size " + windowSize + ", offset " + chunk.getEndOffset(),
+						all.subList(linesBefore, all.size()), readAll(resumed));
+				resumed.close();
+			}
+			chunks.close();
+		}
+	}
+
+	@Test
+	public void countsTooManyFields() throws IOException {
+		MappedSsrFileReader reader = readerFor("1,2,3,4,5,6,7", 1024);
+		SsrLine line = SSRLineParser.newLine();
+
+		assertTrue(reader.next(line));
+		assertEquals(7, line.getFieldCount());
+		reader.close();
+	}
+
+	@Test
+	public void emptyFileHasNoLines() throws IOException {
+		MappedSsrFileReader reader = readerFor("", 1024);
+
+		assertFalse(reader.next(SSRLineParser.newLine()));
+		reader.close();
+	}
+
+	private List<String> readAll(MappedSsrFileReader reader) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		SsrLine line = SSRLineParser.newLine();
+		while (reader.next(line)) {
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+
+	private MappedSsrFileReader readerFor(String content, int windowSize) throws IOException {
+		File file = tmpDir.newFile();
+		FileUtils.writeStringToFile(file, content, "US-ASCII");
+		return new MappedSsrFileReader(file, windowSize, windowSize / 3);
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParseErrorCountersTest {
+	@Test
+	public void addsUpTheCountsOfAllThreads() throws Exception {
+		final ParseErrorCounters counters = new ParseErrorCounters(4);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int thread = 0; thread < 8; thread++) {
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = 0; i < 100000; i++) {
+							counters.increment(ParseError.TREATMENT_START_TIME_MISSING);
+							if (i % 10 == 0) {
+								counters.increment(ParseError.TREATMENT_DAYS_DIFFER);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(800000, counters.get(ParseError.TREATMENT_START_TIME_MISSING));
+		assertEquals(80000, counters.get(ParseError.TREATMENT_DAYS_DIFFER));
+		assertEquals(0, counters.get(ParseError.TREATMENT_END_TIME_MALFORMED));
+		assertEquals(880000, counters.getTotal());
+	}
+
+	@Test
+	public void listsEveryErrorForTheLog() {
+		ParseErrorCounters counters = new ParseErrorCounters(1);
+		counters.increment(ParseError.TREATMENT_END_TIME_MISSING);
+
+		assertEquals("treatmentStartTimeMissing=0, treatmentEndTimeMissing=1, treatmentStartTimeMalformed=0, "
+				+ "treatmentEndTimeMalformed=0, treatmentDaysDiffer=0", counters.toString());
+	}
+}
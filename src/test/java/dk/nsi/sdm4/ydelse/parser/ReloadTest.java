@@ -0,0 +1,211 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+import dk.nsi.sdm4.ydelse.dao.SSRReloadDAO;
+import dk.nsi.sdm4.ydelse.relation.model.ImportCheckpoint;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReloadTest {
+	private static final int LINES = 2000;
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final InMemoryDaos.Table table = new InMemoryDaos.Table();
+	private final InMemoryDaos.Checkpoints checkpoints = new InMemoryDaos.Checkpoints();
+	private final InMemoryDaos.Reload reload = new InMemoryDaos.Reload(table);
+
+	@After
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void swapsInTheStagingTableAndCanRollBack() throws Exception {
+		table.references.addAll(Arrays.asList("old1", "old2"));
+		File file = writeInsertions();
+
+		inserter().readFilesAndPerformDatabaseOperations(Arrays.asList(file)).get(10, TimeUnit.SECONDS);
+
+		assertEquals(LINES, table.references.size());
+		assertEquals(reference(0), table.references.get(0));
+		assertEquals(1, reload.indexRebuilds);
+		assertEquals(Arrays.asList(SSRReloadDAO.SWAPPED + " " + LINES), reload.outcomes);
+		assertFalse(reload.stagingTableExists());
+
+		inserter().rollbackReload();
+
+		assertEquals(Arrays.asList("old1", "old2"), table.references);
+		assertEquals(SSRReloadDAO.ROLLED_BACK, reload.outcomes.get(1));
+	}
+
+	@Test
+	public void leavesTheTableAloneWhenTheReloadHasTooFewRows() throws Exception {
+		for (int i = 0; i < 3 * LINES; i++) {
+			table.references.add("old" + i);
+		}
+		File file = writeInsertions();
+
+		try {
+			inserter().readFilesAndPerformDatabaseOperations(Arrays.asList(file)).get(10, TimeUnit.SECONDS);
+			fail("Expected the reload to be rejected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ParserException);
+		}
+
+		assertEquals(3 * LINES, table.references.size());
+		assertEquals("old0", table.references.get(0));
+		assertEquals(0, reload.indexRebuilds);
+		assertEquals(Arrays.asList(SSRReloadDAO.REJECTED + " " + LINES), reload.outcomes);
+	}
+
+	@Test
+	public void resumesAnInterruptedReloadInItsStagingTable() throws Exception {
+		File file = writeInsertions();
+		reload.createStagingTable();
+		InMemoryDaos.Table staging = table.otherTables.get(InMemoryDaos.Reload.STAGING);
+		for (int i = 0; i < LINES / 2; i++) {
+			staging.references.add(reference(i));
+		}
+		checkpoints.save(checkpointAtLine(file, LINES / 2, InMemoryDaos.Reload.STAGING));
+
+		inserter().readFilesAndPerformDatabaseOperations(Arrays.asList(file)).get(10, TimeUnit.SECONDS);
+
+		assertEquals(LINES, staging.references.size());
+		assertEquals(staging.references, table.references);
+		assertEquals(LINES, new HashSet<String>(table.references).size());
+	}
+
+	@Test
+	public void startsOverWhenTheStagingTableOfAnInterruptedReloadIsGone() throws Exception {
+		File file = writeInsertions();
+		checkpoints.save(checkpointAtLine(file, LINES / 2, InMemoryDaos.Reload.STAGING));
+
+		inserter().readFilesAndPerformDatabaseOperations(Arrays.asList(file)).get(10, TimeUnit.SECONDS);
+
+		assertEquals(LINES, table.references.size());
+		assertEquals(reference(0), table.references.get(0));
+	}
+
+	@Test
+	public void doesNotResumeAnImportIntoSsrInAStaleStagingTable() throws Exception {
+		File file = writeInsertions();
+		reload.createStagingTable();
+		table.otherTables.get(InMemoryDaos.Reload.STAGING).references.add("stale");
+		checkpoints.save(checkpointAtLine(file, LINES / 2, ImportCheckpoint.SSR_TABLE));
+
+		inserter().readFilesAndPerformDatabaseOperations(Arrays.asList(file)).get(10, TimeUnit.SECONDS);
+
+		assertEquals(LINES, table.references.size());
+		assertEquals(reference(0), table.references.get(0));
+		assertFalse(table.references.contains("stale"));
+		assertTrue(checkpoints.saved.isEmpty());
+	}
+
+	@Test
+	public void doesNotResumeAnInterruptedReloadInSsr() throws Exception {
+		File file = writeInsertions();
+		checkpoints.save(checkpointAtLine(file, LINES / 2, InMemoryDaos.Reload.STAGING));
+		YdelseInserter inserter = inserter();
+		inserter.importMode = YdelseInserter.FULL_IMPORT;
+
+		inserter.readFilesAndPerformDatabaseOperations(Arrays.asList(file)).get(10, TimeUnit.SECONDS);
+
+		assertEquals(LINES, table.references.size());
+		assertEquals(reference(0), table.references.get(0));
+		assertTrue(reload.outcomes.isEmpty());
+		assertTrue(checkpoints.saved.isEmpty());
+	}
+
+	private YdelseInserter inserter() {
+		YdelseInserter inserter = new YdelseInserter();
+		inserter.dao = table;
+		inserter.checkpointDao = checkpoints;
+		inserter.reloadDao = reload;
+		inserter.reloadWriteDao = table;
+		inserter.importMode = YdelseInserter.RELOAD_IMPORT;
+		inserter.transactionTemplate = new TransactionTemplate(new InMemoryDaos.NoTransactions());
+		inserter.importExecutor = executor;
+		inserter.batchSize = 100;
+		inserter.chunkSize = 256;
+		inserter.parserThreads = 2;
+		return inserter;
+	}
+
+	private File writeInsertions() throws IOException {
+		File file = new File(tmpDir.getRoot(), "ssr.csv");
+		FileUtils.writeLines(file, lines(LINES));
+		return file;
+	}
+
+	private ImportCheckpoint checkpointAtLine(File file, int line, String table) throws IOException {
+		long offset = 0;
+		for (String written : lines(line)) {
+			offset += written.length() + System.getProperty("line.separator").length();
+		}
+		return ImportCheckpoint.atStartOf(file).startIn(table).at(offset, line);
+	}
+
+	/**
+	 * Referencerne er fyldt op med mellemrum til 24 tegn
+	 */
+	private static String reference(int i) {
+		return String.format("%-24s", "ref" + i);
+	}
+
+	private static List<String> lines(int count) {
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			lines.add(String.format("%06d,%040X,20120101,20120101,ref%d", 34002, i, i));
+		}
+		return lines;
+	}
+}
@@ -27,22 +27,27 @@
 package dk.nsi.sdm4.ydelse.parser;
 
 import dk.nsi.sdm4.core.parser.ParserException;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
 import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
 import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
 import dk.nsi.sdm4.ydelse.relation.model.SSR;
 import org.apache.commons.io.FileUtils;
 import org.joda.time.DateTime;
+import org.joda.time.Days;
 import org.joda.time.Interval;
+import org.joda.time.LocalDate;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class SSRLineParserTest {
@@ -71,6 +76,38 @@ public class SSRLineParserTest {
         } catch (ParserException e) {
             assertEquals(expectedError, e.getMessage());
         }
+
+        if (!line.contains("\n")) {
+            try {
+                SSRLineParser.parseLine(asSsrLine(line));
+                fail("Should not be able to parse line " + line + " from bytes, expected error: " + expectedError);
+            } catch (ParserException e) {
+                assertEquals(expectedError, e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void parsesTheSameFromBytesAsFromStrings() throws ParserException {
+        HashedCpr hashedCpr = HashedCpr.buildFromUnhashedString("0101861234");
+        String[] lines = {
+                "12345," + hashedCpr + ",20110115,20110115,AnExternalReferenceToSSR",
+                " 034002 , " + hashedCpr + " ,20110217,20110217, 00BB293C57BCBEC8  ",
+                " , , , ,81374D61938C34C8                                  ",
+                "12345," + hashedCpr + ",,,AnExternalReferenceToSSR",
+                "12345," + hashedCpr + ",20110115,20110116,AnExternalReferenceToSSR"
+        };
+
+        for (String line : lines) {
+            assertEquals(line, SSRLineParser.parseLine(line).toString(), SSRLineParser.parseLine(asSsrLine(line)).toString());
+        }
+    }
+
+    private SsrLine asSsrLine(String line) {
+        SsrLine ssrLine = SSRLineParser.newLine();
+        byte[] bytes = line.getBytes();
+        ssrLine.tokenize(ByteBuffer.wrap(bytes), 0, bytes.length);
+        return ssrLine;
     }
 
     @Test
@@ -79,8 +116,8 @@ public class SSRLineParserTest {
 
         SsrAction ssrAction = SSRLineParser.parseLine("12345," + hashedCpr
                 + ",20110115,20110115,AnExternalReferenceToSSR");
-        assertEquals(SsrAction.ActionType.INSERTION, ssrAction.actionType);
-        SSR ssr = ssrAction.ssrForInsertion;
+        assertTrue(ssrAction.isInsertion());
+        SSR ssr = ssrAction.getSsrForInsertion();
         assertEquals(DoctorOrganisationIdentifier.newInstance("12345"), ssr.getDoctorOrganisationIdentifier());
         assertEquals(hashedCpr, ssr.getPatientCpr());
         assertEquals(new DateTime(2011, 1, 15, 0, 0, 0, 0), ssr.getTreatmentInterval().getStart());
@@ -91,8 +128,72 @@ public class SSRLineParserTest {
     @Test
     public void testParseLineDeletionSuccess() throws ParserException {
         SsrAction ssrAction = SSRLineParser.parseLine(",,,,AnExternalReferenceToSSR");
-        assertEquals(SsrAction.ActionType.DELETION, ssrAction.actionType);
-        assertEquals("AnExternalReferenceToSSR", ssrAction.externalReferenceForDeletion);
+        assertTrue(ssrAction.isDeletion());
+        assertEquals("AnExternalReferenceToSSR", ssrAction.getExternalReferenceForDeletion());
     }
 
+    @Test
+    public void parsesIntoAReusableRecord() throws ParserException {
+        HashedCpr hashedCpr = HashedCpr.buildFromUnhashedString("0101861234");
+        SsrRecord record = new SsrRecord();
+
+        SSRLineParser.parseLine(asSsrLine(" 034002 , " + hashedCpr + " ,20110217,20110217, 00BB293C57BCBEC8  "), record);
+        assertTrue(record.isInsertion());
+        assertEquals(Days.daysBetween(new LocalDate(1970, 1, 1), new LocalDate(2011, 2, 17)).getDays(), record.getTreatmentDay());
+        assertEquals(6, record.doctorOrganisationIdLength());
+        assertEquals('0', record.doctorOrganisationIdByteAt(0));
+        assertEquals(hashedCpr.getHashedCpr().charAt(39), record.patientCprByteAt(39));
+        assertEquals('0', record.externalReferenceByteAt(0));
+        assertEquals(' ', record.externalReferenceByteAt(SSR.REFERENCE_LENGTH - 1));
+        assertEquals("00BB293C57BCBEC8        ", record.getExternalReference());
+        assertEquals(new DateTime(2011, 2, 17, 0, 0, 0, 0), record.getTreatmentInterval().getStart());
+
+        SSRLineParser.parseLine(asSsrLine(" , , , ,81374D61938C34C8"), record);
+        assertTrue(record.isDeletion());
+        assertEquals("SsrAction(deletion)[81374D61938C34C8        ]", record.toAction().toString());
+
+        SSRLineParser.parseLine(asSsrLine("12345," + hashedCpr + ",20110230,20110230,AnExternalReferenceToSSR"), record);
+        assertTrue(record.isNoop());
+    }
+
+    @Test
+    public void rejectsTheSameCprAndReferencesAsTheModelClasses() {
+        String hashedCpr = HashedCpr.buildFromUnhashedString("0101861234").getHashedCpr();
+        String[] lines = {
+                "12345," + hashedCpr.substring(1) + ",20110115,20110115,AnExternalReferenceToSSR",
+                "12345," + hashedCpr.toLowerCase() + ",20110115,20110115,AnExternalReferenceToSSR",
+                "12345," + hashedCpr + ",20110115,20110115,AnExternalReferenceToSSRThatIsTooLong"
+        };
+
+        for (String line : lines) {
+            try {
+                SSRLineParser.parseLine(asSsrLine(line), new SsrRecord());
+                fail("Should not be able to parse line " + line);
+            } catch (IllegalArgumentException e) {
+                // the model classes throw this for invalid values, and so does the parser
+            }
+        }
+    }
+
+    @Test
+    public void recordsWhyALineWithoutAValidTreatmentDayIsSkipped() {
+        String hashedCpr = HashedCpr.buildFromUnhashedString("0101861234").getHashedCpr();
+        assertSkippedBecauseOf(ParseError.TREATMENT_START_TIME_MISSING, "12345," + hashedCpr + ",,20110115,ref");
+        assertSkippedBecauseOf(ParseError.TREATMENT_END_TIME_MISSING, "12345," + hashedCpr + ",20110115,,ref");
+        assertSkippedBecauseOf(ParseError.TREATMENT_START_TIME_MALFORMED, "12345," + hashedCpr + ",20110230,20110115,ref");
+        assertSkippedBecauseOf(ParseError.TREATMENT_END_TIME_MALFORMED, "12345," + hashedCpr + ",20110115,2011-01-15,ref");
+        assertSkippedBecauseOf(ParseError.TREATMENT_DAYS_DIFFER, "12345," + hashedCpr + ",20110115,20110116,ref");
+        assertSkippedBecauseOf(ParseError.TREATMENT_START_TIME_MISSING, ",,,,");
+
+        SsrRecord record = new SsrRecord();
+        SSRLineParser.parseLine(asSsrLine("12345," + hashedCpr + ",20110115,20110115,ref"), record);
+        assertEquals(null, record.getError());
+    }
+
+    private void assertSkippedBecauseOf(ParseError error, String line) {
+        SsrRecord record = new SsrRecord();
+        SSRLineParser.parseLine(asSsrLine(line), record);
+        assertTrue(line, record.isNoop());
+        assertEquals(line, error, record.getError());
+    }
 }
@@ -0,0 +1,161 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SsrActionFileTest {
+	private static final List<String> LINES = Arrays.asList(
+			"34002,0123456789ABCDEF0123456789ABCDEF01234567,20120101,20120101,ref1",
+			"123456,FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF,19691231,19691231,ref2 with \u00e6\u00f8\u00e5",
+			"34002,0123456789ABCDEF0123456789ABCDEF01234567,,,ref3",
+			" , , , ,ref1",
+			"34002,0000000000000000000000000000000000000000,15821004,15821004,123456789012345678901234");
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void readsTheSameActionsAsParsedFromTheText() throws IOException {
+		List<String> expected = new ArrayList<String>();
+		SsrActionFile.Writer writer = new SsrActionFile.Writer(tmpDir.newFile("actions" + SsrActionFile.EXTENSION));
+		for (String line : LINES) {
+			SsrAction action = SSRLineParser.parseLine(line);
+			writer.write(action);
+			if (!action.isNoop()) {
+				expected.add(action.toString());
+			}
+		}
+		writer.close();
+
+		assertEquals(4, writer.getCount());
+		assertEquals(SsrActionFile.HEADER_SIZE + 4 * SsrActionFile.RECORD_SIZE, writer.getFile().length());
+		assertTrue(SsrActionFile.isActionFile(writer.getFile()));
+		for (int chunkSize = 1; chunkSize <= 5 * SsrActionFile.RECORD_SIZE; chunkSize += SsrActionFile.RECORD_SIZE) {
+			assertEquals(expected, readAll(new SsrActionFileReader(writer.getFile(), 2 * SsrActionFile.RECORD_SIZE + 1, chunkSize), 0, 0));
+		}
+		long secondChunk = SsrActionFile.HEADER_SIZE + SsrActionFile.RECORD_SIZE;
+		assertEquals(expected.subList(1, 4), readAll(new SsrActionFileReader(writer.getFile(), SsrActionFile.RECORD_SIZE), secondChunk, 1));
+	}
+
+	@Test
+	public void refusesAFileThatEndsInTheMiddleOfARecord() throws IOException {
+		SsrActionFile.Writer writer = new SsrActionFile.Writer(tmpDir.newFile("actions" + SsrActionFile.EXTENSION));
+		writer.write(SSRLineParser.parseLine(LINES.get(0)));
+		writer.close();
+		RandomAccessFile truncated = new RandomAccessFile(writer.getFile(), "rw");
+		truncated.setLength(truncated.length() - 1);
+		truncated.close();
+
+		try {
+			new SsrActionFileReader(writer.getFile());
+			fail("Expected a truncated file to be refused");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+		}
+		assertFalse(SsrActionFile.isActionFile(tmpDir.newFile("empty")));
+	}
+
+	@Test
+	public void importsAnActionFileLikeTheTextItWasWrittenFrom() throws Exception {
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			lines.add(String.format("%06d,%040X,20120101,20120101,ref%d", 34002, i, i % 1500));
+			if (i % 100 == 99) {
+				lines.add(" , , , ,ref" + (i - 50));
+			}
+		}
+		File text = new File(tmpDir.newFolder("text"), "ssr.csv");
+		FileUtils.writeLines(text, lines);
+		File actions = new File(tmpDir.newFolder("actions"), "ssr" + SsrActionFile.EXTENSION);
+
+		InMemoryDaos.Table fromText = new InMemoryDaos.Table();
+		inserter(fromText).readFilesAndPerformDatabaseOperations(Arrays.asList(text)).get(10, TimeUnit.SECONDS);
+		assertEquals(2020, inserter(new InMemoryDaos.Table()).writeActionFile(Arrays.asList(text), actions));
+		assertFalse(new File(actions.getPath() + ".part").exists());
+		InMemoryDaos.Table fromActions = new InMemoryDaos.Table();
+		List<ImportProgress> progress = inserter(fromActions).readFilesAndPerformDatabaseOperations(Arrays.asList(actions)).get(10, TimeUnit.SECONDS);
+
+		assertEquals(fromText.references, fromActions.references);
+		assertEquals(2020, progress.get(0).getLinesRead());
+		assertEquals(actions.length(), progress.get(0).getBytesRead());
+	}
+
+	private List<String> readAll(SsrActionFileReader reader, long offset, long recordNumber) throws IOException {
+		reader.resumeAt(offset, recordNumber);
+		List<String> actions = new ArrayList<String>();
+		SsrChunk chunk;
+		while ((chunk = reader.nextChunk()) != null) {
+			chunk.parse();
+			for (SsrAction action : chunk.getActions()) {
+				actions.add(action.toString());
+			}
+		}
+		reader.close();
+		return actions;
+	}
+
+	private YdelseInserter inserter(InMemoryDaos.Table table) {
+		YdelseInserter inserter = new YdelseInserter();
+		inserter.dao = table;
+		inserter.checkpointDao = new InMemoryDaos.Checkpoints();
+		inserter.transactionTemplate = new TransactionTemplate(new InMemoryDaos.NoTransactions());
+		inserter.importExecutor = executor;
+		inserter.batchSize = 100;
+		inserter.chunkSize = 256;
+		inserter.parserThreads = 2;
+		return inserter;
+	}
+}
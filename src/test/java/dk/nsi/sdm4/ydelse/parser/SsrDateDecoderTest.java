@@ -0,0 +1,157 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class SsrDateDecoderTest {
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+	{
+		format.setLenient(false);
+	}
+
+	@Test
+	public void decodesRandomDatesLikeSimpleDateFormat() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			int year = random.nextBoolean() ? random.nextInt(10000) : 1900 + random.nextInt(200);
+			assertDecodedLikeSimpleDateFormat(String.format("%04d%02d%02d", year, random.nextInt(14), random.nextInt(33)));
+			assertDecodedLikeSimpleDateFormat(String.format("%08d", random.nextInt(100000000)));
+		}
+	}
+
+	@Test
+	public void decodesEveryDayOfTheSpecialYearsLikeSimpleDateFormat() {
+		int[] years = {0, 1, 4, 100, 1500, 1581, 1582, 1583, 1600, 1700, 1900, 1970, 2000, 2011, 2100, 9999};
+		for (int year : years) {
+			for (int month = 0; month <= 13; month++) {
+				for (int day = 0; day <= 32; day++) {
+					assertDecodedLikeSimpleDateFormat(String.format("%04d%02d%02d", year, month, day));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void decodesFieldsThatAreNotEightDigitsLikeSimpleDateFormat() {
+		String[] dates = {"2011011", "201101151", "20110115x", "2011011x", "2011-1-15", "+2011011", "-2011011",
+				"2O110115", "1 110115", "x", "20110115 20110116"};
+		for (String date : dates) {
+			assertDecodedLikeSimpleDateFormat(date);
+		}
+	}
+
+	@Test
+	public void findsTheDayThatStartOfDayStarts() {
+		for (int day = -800000; day <= 3000000; day += 7) {
+			assertEquals(day, SsrDateDecoder.dayOf(SsrDateDecoder.startOfDay(day)));
+		}
+	}
+
+	@Test
+	public void decodesTheSameDaysFromTheCacheWhenManyThreadsShareIt() throws Exception {
+		Random random = new Random(42);
+		final String[] dates = new String[500];
+		final int[] expected = new int[dates.length];
+		for (int i = 0; i < dates.length; i++) {
+			dates[i] = String.format("%04d%02d%02d", 1900 + random.nextInt(200), 1 + random.nextInt(12), 1 + random.nextInt(28));
+			expected[i] = expectedDay(dates[i]);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int thread = 0; thread < 4; thread++) {
+				final long seed = thread;
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						Random random = new Random(seed);
+						SsrLine line = SSRLineParser.newLine();
+						int wrong = 0;
+						for (int i = 0; i < 200000; i++) {
+							int date = random.nextInt(dates.length);
+							line.tokenize(dates[date]);
+							if (SsrDateDecoder.decode(line, 0) != expected[date]) {
+								wrong++;
+							}
+						}
+						return wrong;
+					}
+				}));
+			}
+			for (Future<Integer> result : results) {
+				assertEquals(0, result.get().intValue());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void assertDecodedLikeSimpleDateFormat(String date) {
+		SsrLine line = SSRLineParser.newLine();
+		line.tokenize(date);
+		int day = SsrDateDecoder.decode(line, 0);
+		assertEquals(date, expectedDay(date), day);
+		if (day != SsrDateDecoder.NOT_A_DAY) {
+			assertEquals(date, parse(date).getTime(), SsrDateDecoder.startOfDay(day));
+		}
+	}
+
+	private int expectedDay(String date) {
+		Date parsed = parse(date);
+		if (parsed == null) {
+			return SsrDateDecoder.NOT_A_DAY;
+		}
+		long localMillis = parsed.getTime() + TimeZone.getDefault().getOffset(parsed.getTime());
+		return (int) Math.floor(localMillis / (double) MILLIS_PER_DAY);
+	}
+
+	private Date parse(String date) {
+		try {
+			return format.parse(date.trim());
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SsrLineReaderTest {
+	@Test
+	public void readsLinesWithAllKindsOfTerminators() throws IOException {
+		SsrLineReader reader = readerFor("first\nsecond\r\nthird\rfourth");
+
+		assertEquals("first", reader.readLine());
+		assertEquals("second", reader.readLine());
+		assertEquals("third", reader.readLine());
+		assertEquals("fourth", reader.readLine());
+		assertNull(reader.readLine());
+		assertEquals(4, reader.getLineNumber());
+	}
+
+	@Test
+	public void keepsTrackOfByteOffsetOfNextLine() throws IOException {
+		SsrLineReader reader = readerFor("ab\r\ncd\nef\n");
+
+		reader.readLine();
+		assertEquals(3, reader.getBytesRead()); // the \n of the \r\n has not been seen yet
+		reader.readLine();
+		assertEquals(7, reader.getBytesRead());
+		reader.readLine();
+		assertEquals(10, reader.getBytesRead());
+		assertNull(reader.readLine());
+		assertEquals(10, reader.getBytesRead());
+	}
+
+	@Test
+	public void handlesLinesLongerThanTheBuffer() throws IOException {
+		String longLine = "0123456789012345678901234567890123456789";
+		SsrLineReader reader = new SsrLineReader(new ByteArrayInputStream((longLine + "\nx\n").getBytes()), 4);
+
+		assertEquals(longLine, reader.readLine());
+		assertEquals("x", reader.readLine());
+		assertNull(reader.readLine());
+		assertEquals(longLine.length() + 3, reader.getBytesRead());
+	}
+
+	@Test
+	public void resumesAtTheOffsetOfAnyLine() throws IOException {
+		String content = "ab\r\ncd\nef\rgh";
+		SsrLineReader reader = readerFor(content);
+		reader.readLine();
+		long afterFirstLine = reader.getBytesRead(); // just after the \r
+
+		SsrLineReader resumed = readerFor(content);
+		resumed.resumeAt(afterFirstLine, 1);
+
+		assertEquals("cd", resumed.readLine());
+		assertEquals("ef", resumed.readLine());
+		assertEquals("gh", resumed.readLine());
+		assertNull(resumed.readLine());
+		assertEquals(4, resumed.getLineNumber());
+		assertEquals(content.length(), resumed.getBytesRead());
+
+		SsrLineReader resumedAfterLineFeed = readerFor(content);
+		resumedAfterLineFeed.resumeAt(4, 1);
+		assertEquals("cd", resumedAfterLineFeed.readLine());
+	}
+
+	@Test(expected = EOFException.class)
+	public void cannotResumePastTheEnd() throws IOException {
+		readerFor("ab\n").resumeAt(4, 1);
+	}
+
+	@Test
+	public void emptyStreamHasNoLines() throws IOException {
+		SsrLineReader reader = readerFor("");
+
+		assertNull(reader.readLine());
+		assertEquals(0, reader.getLineNumber());
+	}
+
+	private SsrLineReader readerFor(String content) {
+		return new SsrLineReader(new ByteArrayInputStream(content.getBytes()));
+	}
+}
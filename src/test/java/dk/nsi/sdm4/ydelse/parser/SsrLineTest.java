@@ -0,0 +1,121 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SsrLineTest {
+	@Test
+	public void findsTheSameFieldsAsSplitAndTrimAtEveryPositionInTheBuffer() {
+		Random random = new Random(1337);
+		for (int n = 0; n < 5000; n++) {
+			String line = randomLine(random);
+			int offset = random.nextInt(16);
+			byte[] bytes = new byte[offset + line.length() + random.nextInt(16)];
+			for (int i = 0; i < line.length(); i++) {
+				bytes[offset + i] = (byte) line.charAt(i);
+			}
+			List<String> expected = splitAndTrim(line);
+
+			for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+				SsrLine ssrLine = SSRLineParser.newLine();
+				ssrLine.tokenize(ByteBuffer.wrap(bytes).order(order), offset, offset + line.length());
+				assertEquals(line, expected, fields(ssrLine));
+				assertEquals(line, ssrLine.toString());
+			}
+
+			SsrLine textLine = SSRLineParser.newLine();
+			textLine.tokenize(line);
+			assertEquals(line, expected, fields(textLine));
+		}
+	}
+
+	@Test
+	public void exposesTheOffsetsOfTheTrimmedFields() {
+		SsrLine line = SSRLineParser.newLine();
+		line.tokenize(ByteBuffer.wrap("xx 12 ,ab,, c ,0123456789abcdef".getBytes()), 2, 31);
+
+		assertEquals(5, line.getFieldCount());
+		assertEquals(3, line.fieldStart(0));
+		assertEquals(5, line.fieldEnd(0));
+		assertTrue(line.isBlank(2));
+		assertEquals(12, line.fieldStart(3));
+		assertEquals(13, line.fieldEnd(3));
+		assertEquals(15, line.fieldStart(4));
+		assertEquals(31, line.fieldEnd(4));
+	}
+
+	@Test
+	public void noticesLineBreaksOnlyInLinesGivenAsText() {
+		SsrLine line = SSRLineParser.newLine();
+		line.tokenize("a,b\nc,d,e");
+		assertTrue(line.containsLineBreak());
+
+		line.tokenize("a,b,c,d,e");
+		assertFalse(line.containsLineBreak());
+	}
+
+	private String randomLine(Random random) {
+		String alphabet = ",,, \t0123456789ABCDEF";
+		StringBuilder line = new StringBuilder();
+		int length = random.nextInt(90);
+		for (int i = 0; i < length; i++) {
+			line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return line.toString();
+	}
+
+	/**
+	 * @return the trimmed fields of the line the way SSRLineParser used to find them, only the first five are kept
+	 */
+	private List<String> splitAndTrim(String line) {
+		List<String> fields = new ArrayList<String>();
+		String[] tokens = line.split(",", -1);
+		for (int field = 0; field < tokens.length; field++) {
+			fields.add(field < 5 ? tokens[field].trim() : "");
+		}
+		return fields;
+	}
+
+	private List<String> fields(SsrLine line) {
+		List<String> fields = new ArrayList<String>();
+		for (int field = 0; field < line.getFieldCount(); field++) {
+			fields.add(field < 5 ? line.fieldAsString(field) : "");
+		}
+		return fields;
+	}
+}
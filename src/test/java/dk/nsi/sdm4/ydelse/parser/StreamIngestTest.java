@@ -0,0 +1,225 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+import dk.nsi.sdm4.ydelse.relation.model.ImportCheckpoint;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamIngestTest {
+	private static final int LINES = 2000;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final InMemoryDaos.Table table = new InMemoryDaos.Table();
+	private final InMemoryDaos.Checkpoints checkpoints = new InMemoryDaos.Checkpoints();
+
+	@After
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void importsWhileTheStreamIsStillArriving() throws Exception {
+		PipedOutputStream transfer = new PipedOutputStream();
+		PipedInputStream pipe = new PipedInputStream(transfer, 64 * 1024);
+
+		ImportHandle handle = inserter().readStreamAndPerformDatabaseOperations(pipe, "ssr.csv");
+		transfer.write(lines(0, LINES / 2));
+		transfer.flush();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (handle.getBatchesCommitted() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(handle.getBatchesCommitted() > 0);
+		assertFalse(handle.isDone());
+
+		transfer.write(lines(LINES / 2, LINES));
+		transfer.close();
+		List<ImportProgress> progress = handle.get(10, TimeUnit.SECONDS);
+
+		assertEquals(LINES, progress.get(0).getLinesRead());
+		assertEquals("ssr.csv", progress.get(0).getFile().getName());
+		assertEquals(-1, progress.get(0).getTotalBytes());
+		assertEquals(LINES, new HashSet<String>(table.references).size());
+		assertTrue(checkpoints.saved.isEmpty());
+	}
+
+	@Test
+	public void recognisesACompressedStream() throws Exception {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		OutputStream out = new GZIPOutputStream(compressed);
+		out.write(lines(0, LINES));
+		out.close();
+
+		ImportHandle handle = inserter().readStreamAndPerformDatabaseOperations(new ByteArrayInputStream(compressed.toByteArray()), "from-transfer");
+
+		assertEquals(LINES, handle.get(10, TimeUnit.SECONDS).get(0).getLinesRead());
+		assertEquals(LINES, table.references.size());
+	}
+
+	@Test
+	public void countsTheLinesWithoutAValidTreatmentDay() throws Exception {
+		String withoutDates = String.format("%06d,%040X,,,refA\n%06d,%040X,20120101,20120102,refB\n", 34002, 1, 34002, 2);
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		all.write(lines(0, LINES / 2));
+		all.write(withoutDates.getBytes("US-ASCII"));
+		all.write(lines(LINES / 2, LINES));
+
+		ImportHandle handle = inserter().readStreamAndPerformDatabaseOperations(new ByteArrayInputStream(all.toByteArray()), "ssr.csv");
+		handle.get(10, TimeUnit.SECONDS);
+
+		assertEquals(1, handle.getParseErrors().get(ParseError.TREATMENT_START_TIME_MISSING));
+		assertEquals(1, handle.getParseErrors().get(ParseError.TREATMENT_DAYS_DIFFER));
+		assertEquals(2, handle.getParseErrors().getTotal());
+		assertEquals(LINES, table.references.size());
+	}
+
+	@Test
+	public void quarantinesMalformedLinesAndContinues() throws Exception {
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		all.write(lines(0, LINES / 2));
+		all.write("not an ssr line\n".getBytes("US-ASCII"));
+		all.write(lines(LINES / 2, LINES));
+
+		YdelseInserter inserter = quarantiningInserter();
+		ImportHandle handle = inserter.readStreamAndPerformDatabaseOperations(new ByteArrayInputStream(all.toByteArray()), "ssr.csv");
+		List<ImportProgress> progress = handle.get(10, TimeUnit.SECONDS);
+
+		assertEquals(LINES + 1, progress.get(0).getLinesRead());
+		assertEquals(1, handle.getLinesRejected());
+		assertEquals(LINES, table.references.size());
+		List<String> rejected = FileUtils.readLines(new File(inserter.rejectDir, "ssr.csv.rejected"), "ISO-8859-1");
+		assertEquals(1, rejected.size());
+		assertTrue(rejected.get(0), rejected.get(0).startsWith("ssr.csv\t" + (LINES / 2 + 1) + "\t"));
+		assertTrue(rejected.get(0), rejected.get(0).endsWith("\tnot an ssr line"));
+	}
+
+	@Test
+	public void stopsWhenTooManyLinesAreRejected() throws Exception {
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		all.write(lines(0, LINES / 2));
+		for (int i = 0; i < 3; i++) {
+			all.write("not an ssr line\n".getBytes("US-ASCII"));
+		}
+		all.write(lines(LINES / 2, LINES));
+
+		YdelseInserter inserter = quarantiningInserter();
+		inserter.maxRejects = 2;
+		ImportHandle handle = inserter.readStreamAndPerformDatabaseOperations(new ByteArrayInputStream(all.toByteArray()), "ssr.csv");
+		try {
+			handle.get(10, TimeUnit.SECONDS);
+			fail("Expected the import to stop");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ParserException);
+		}
+		assertEquals(3, FileUtils.readLines(new File(inserter.rejectDir, "ssr.csv.rejected"), "ISO-8859-1").size());
+		assertTrue(table.references.size() < LINES);
+	}
+
+	@Test
+	public void countsTheRejectRatioOverTheLinesOfThisRunWhenResuming() throws Exception {
+		int skipped = 20000;
+		int resumed = 10000;
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		all.write(lines(0, skipped));
+		for (int i = 0; i < 20; i++) {
+			all.write(lines(skipped + i * resumed / 20, skipped + (i + 1) * resumed / 20));
+			all.write("not an ssr line\n".getBytes("US-ASCII"));
+		}
+		File file = tmp.newFile("ssr.csv");
+		FileUtils.writeByteArrayToFile(file, all.toByteArray());
+		checkpoints.save(ImportCheckpoint.atStartOf(file).at(lines(0, skipped).length, skipped));
+
+		// 20 afviste linier er mindre end 0.001 af hele filen, men mere end 0.001 af de linier, der læses i denne kørsel
+		YdelseInserter inserter = quarantiningInserter();
+		inserter.chunkSize = 64 * 1024;
+		try {
+			inserter.readFilesAndPerformDatabaseOperations(Arrays.asList(file)).get(10, TimeUnit.SECONDS);
+			fail("Expected the import to stop");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ParserException);
+			assertTrue(e.getCause().getCause().getMessage(), e.getCause().getCause().getMessage().contains("maxrejectratio"));
+		}
+		assertTrue(table.references.size() < resumed);
+	}
+
+	private YdelseInserter quarantiningInserter() throws IOException {
+		YdelseInserter inserter = inserter();
+		inserter.malformedLines = YdelseInserter.QUARANTINE_MALFORMED_LINES;
+		inserter.rejectDir = tmp.newFolder("rejects");
+		return inserter;
+	}
+
+	private YdelseInserter inserter() {
+		YdelseInserter inserter = new YdelseInserter();
+		inserter.dao = table;
+		inserter.checkpointDao = checkpoints;
+		inserter.transactionTemplate = new TransactionTemplate(new InMemoryDaos.NoTransactions());
+		inserter.importExecutor = executor;
+		inserter.batchSize = 100;
+		inserter.chunkSize = 256;
+		inserter.parserThreads = 2;
+		return inserter;
+	}
+
+	private byte[] lines(int from, int to) throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			lines.append(String.format("%06d,%040X,20120101,20120101,ref%d\n", 34002, i, i));
+		}
+		return lines.toString().getBytes("US-ASCII");
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.matchers.JUnitMatchers.containsString;
+
+public class ValidationReportTest {
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	@Test
+	public void countsEveryKindOfLine() throws IOException {
+		File file = writeLines("ssr.csv", insertion(1), deletion(2), ",,,,ref3", insertion(4), deletion(5));
+
+		ValidationReport report = validate(YdelseInserter.MAPPED_READER, file);
+
+		assertTrue(report.isValid());
+		assertEquals(5, report.getLines());
+		assertEquals(2, report.getInsertions());
+		assertEquals(3, report.getDeletions());
+		assertEquals(0, report.getNoops());
+		assertEquals(1, report.getFiles());
+		assertEquals(file.length(), report.getBytesRead());
+	}
+
+	@Test
+	public void countsLinesWithoutDatesAsNoops() throws IOException {
+		File file = writeLines("ssr.csv", insertion(1), "034002," + String.format("%040X", 2) + ",,,ref2");
+
+		ValidationReport report = validate(YdelseInserter.MAPPED_READER, file);
+
+		assertTrue(report.isValid());
+		assertEquals(1, report.getNoops());
+	}
+
+	@Test
+	public void findsEveryMalformedLineWithItsLineNumberWithEveryReader() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		List<Long> malformed = new ArrayList<Long>();
+		for (int i = 1; i <= 500; i++) {
+			if (i % 37 == 0) {
+				lines.add("034002," + String.format("%040X", i) + ",20120101,20120101");
+				malformed.add((long) i);
+			} else if (i % 41 == 0) {
+				lines.add("x," + String.format("%040X", i) + ",20120101,20120101,ref" + i);
+				malformed.add((long) i);
+			} else {
+				lines.add(i % 2 == 0 ? insertion(i) : deletion(i));
+			}
+		}
+		File file = writeLines("ssr.csv", lines.toArray(new String[lines.size()]));
+
+		for (String readerMode : Arrays.asList(YdelseInserter.MAPPED_READER, YdelseInserter.STREAM_READER)) {
+			for (File input : Arrays.asList(file, gzipped(file))) {
+				ValidationReport report = validate(readerMode, input);
+
+				assertFalse(report.isValid());
+				assertEquals(500, report.getLines());
+				assertEquals(malformed, lineNumbers(report.getMalformedLines()));
+				assertEquals(input, report.getMalformedLines().get(0).getFile());
+				assertEquals(500 - malformed.size(), report.getInsertions() + report.getDeletions());
+			}
+		}
+	}
+
+	@Test
+	public void numbersLinesFromTheStartOfEachFile() throws IOException {
+		File first = writeLines("a.csv", insertion(1), "not an ssr line");
+		File second = writeLines("b.csv", "not an ssr line either", insertion(2));
+
+		ValidationReport report = validate(YdelseInserter.MAPPED_READER, first, second);
+
+		assertEquals(2, report.getFiles());
+		assertEquals(2, report.getMalformedLines().size());
+		assertEquals("a.csv line 2: Too few fields on line: not an ssr line", report.getMalformedLines().get(0).toString());
+		assertEquals(second, report.getMalformedLines().get(1).getFile());
+		assertEquals(1, report.getMalformedLines().get(1).getLineNumber());
+		assertThat(report.getMalformedLines().get(1).getMessage(), containsString("Too few fields"));
+	}
+
+	private ValidationReport validate(String readerMode, File... files) {
+		YdelseInserter inserter = new YdelseInserter();
+		inserter.readerMode = readerMode;
+		inserter.chunkSize = 256; // mange små bidder, så linienumrene skal regnes om på tværs af bidder
+		inserter.parserThreads = 3;
+		return inserter.validateFiles(Arrays.asList(files));
+	}
+
+	private List<Long> lineNumbers(List<ValidationReport.MalformedLine> malformedLines) {
+		List<Long> lineNumbers = new ArrayList<Long>();
+		for (ValidationReport.MalformedLine malformedLine : malformedLines) {
+			lineNumbers.add(malformedLine.getLineNumber());
+		}
+		return lineNumbers;
+	}
+
+	private String insertion(int i) {
+		return String.format("%06d,%040X,20120101,20120101,ref%d", 34002, i, i);
+	}
+
+	private String deletion(int i) {
+		return ",,,,ref" + i;
+	}
+
+	private File writeLines(String name, String... lines) throws IOException {
+		File file = new File(tmpDir.getRoot(), name);
+		FileUtils.writeLines(file, Arrays.asList(lines));
+		return file;
+	}
+
+	private File gzipped(File file) throws IOException {
+		File gzipped = new File(file.getPath() + ".gz");
+		InputStream in = new FileInputStream(file);
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipped));
+		try {
+			IOUtils.copy(in, out);
+		} finally {
+			in.close();
+			out.close();
+		}
+		return gzipped;
+	}
+}
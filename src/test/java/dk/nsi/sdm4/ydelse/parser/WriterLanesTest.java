@@ -0,0 +1,425 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+import dk.nsi.sdm4.ydelse.common.exception.DAOException;
+import dk.nsi.sdm4.ydelse.dao.SsrAction;
+import dk.nsi.sdm4.ydelse.relation.model.ImportCheckpoint;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriterLanesTest {
+	private static final int LANES = 4;
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	private final CountingTransactions transactions = new CountingTransactions();
+	private final RecordingTable table = new RecordingTable();
+	private final AtomicInteger checkpointsSaved = new AtomicInteger();
+	private WriterLanes lanes;
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void closeLanes() {
+		if (lanes != null) {
+			lanes.close();
+		}
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void keepsTheActionsForAReferenceInOneLaneInFileOrder() {
+		lanes = new WriterLanes(LANES, new TransactionTemplate(transactions), TIMEOUT_MILLIS);
+		List<SsrAction> batch = new ArrayList<SsrAction>();
+		for (int i = 0; i < 200; i++) {
+			batch.add(insertion(i));
+		}
+		for (int i = 0; i < 200; i += 2) {
+			batch.add(SsrAction.createDeletion(reference(i)));
+			batch.add(insertion(i));
+		}
+
+		lanes.commit(batch, table, saveCheckpoint());
+
+		assertEquals(LANES, table.executed.size());
+		Set<String> threads = new HashSet<String>(table.threads);
+		for (List<SsrAction> part : table.executed) {
+			int lane = WriterLanes.laneOf(part.get(0), LANES);
+			int previousIndex = -1;
+			for (SsrAction action : part) {
+				assertEquals(lane, WriterLanes.laneOf(action, LANES));
+				int index = batch.indexOf(action);
+				assertTrue("actions must keep their order within a lane", index > previousIndex);
+				previousIndex = index;
+			}
+			assertEquals(part.size(), lanes.getActionsExecuted(lane));
+		}
+		assertEquals(LANES, threads.size());
+		assertEquals(200, table.references.size());
+		assertEquals(200, new HashSet<String>(table.references).size());
+		assertEquals(LANES, transactions.commits.get());
+		assertEquals(0, transactions.rollbacks.get());
+		assertEquals(LANES, checkpointsSaved.get());
+	}
+
+	@Test
+	public void rollsBackOnlyTheLaneThatFails() {
+		List<SsrAction> batch = new ArrayList<SsrAction>();
+		for (int i = 0; i < 200; i++) {
+			batch.add(insertion(i));
+		}
+
+		for (int failingLane = 0; failingLane < LANES; failingLane++) {
+			CountingTransactions transactions = new CountingTransactions();
+			RecordingTable table = new RecordingTable();
+			table.failOn = firstReferenceInLane(batch, failingLane);
+			lanes = new WriterLanes(LANES, new TransactionTemplate(transactions), TIMEOUT_MILLIS);
+			try {
+				lanes.commit(batch, table, saveCheckpoint());
+				fail("Expected lane " + failingLane + " to fail the batch");
+			} catch (DAOException e) {
+				assertTrue(e.getMessage().contains(table.failOn));
+			} finally {
+				lanes.close();
+			}
+
+			assertEquals(LANES - 1, transactions.commits.get());
+			assertEquals(1, transactions.rollbacks.get());
+		}
+	}
+
+	@Test
+	public void givesUpWaitingForALaneThatDoesNotCommitInTime() {
+		List<SsrAction> batch = new ArrayList<SsrAction>();
+		for (int i = 0; i < 200; i++) {
+			batch.add(insertion(i));
+		}
+		table.blockOn = firstReferenceInLane(batch, 1);
+		lanes = new WriterLanes(LANES, new TransactionTemplate(transactions), 100);
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					// Banen frigives under alle omstændigheder
+				}
+				table.released.countDown();
+			}
+		};
+		releaser.start();
+
+		try {
+			lanes.commit(batch, table, saveCheckpoint());
+			fail("Expected the commit to time out");
+		} catch (ParserException e) {
+			assertTrue(e.getMessage().contains("did not commit within 100 ms"));
+			assertEquals("The blocked lane must finish its transaction before the commit gives up", 0, table.released.getCount());
+			assertEquals(LANES, transactions.commits.get());
+			assertEquals(0, transactions.rollbacks.get());
+		}
+	}
+
+	@Test
+	public void oneLaneWritesTheBatchOnTheCallingThreadInOneTransaction() {
+		lanes = new WriterLanes(1, new TransactionTemplate(transactions), TIMEOUT_MILLIS);
+		List<SsrAction> batch = new ArrayList<SsrAction>();
+		for (int i = 0; i < 10; i++) {
+			batch.add(insertion(i));
+		}
+
+		lanes.commit(batch, table, saveCheckpoint());
+
+		assertEquals(1, table.executed.size());
+		assertEquals(batch, table.executed.get(0));
+		assertEquals(Thread.currentThread().getName(), table.threads.get(0));
+		assertEquals(1, transactions.commits.get());
+		assertEquals(1, checkpointsSaved.get());
+	}
+
+	@Test
+	public void resumesEachLaneFromItsOwnCheckpointWhenTheFirstLaneFailsToCommit() throws Exception {
+		File file = tmpDir.newFile("ssr.csv");
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			lines.add(String.format("%06d,%040X,20120101,20120101,ref%d", 34002, i, i));
+		}
+		FileUtils.writeLines(file, lines);
+		BufferedTable table = new BufferedTable();
+		BufferedCheckpoints checkpoints = new BufferedCheckpoints();
+
+		try {
+			inserter(table, checkpoints, new BufferedTransactions(3)).readFilesAndPerformDatabaseOperations(Arrays.asList(file))
+					.get(10, TimeUnit.SECONDS);
+			fail("Expected the first lane to fail its third commit");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ParserException);
+		}
+		List<ImportCheckpoint> reached = checkpoints.find(ImportCheckpoint.atStartOf(file));
+		assertEquals(LANES, reached.size());
+		for (ImportCheckpoint checkpoint : reached) {
+			if (checkpoint.getLane() != 0) {
+				assertTrue("the other lanes have committed their part of the third batch",
+						checkpoint.getLineNumber() > reached.get(0).getLineNumber());
+			}
+		}
+
+		inserter(table, checkpoints, new BufferedTransactions(0)).readFilesAndPerformDatabaseOperations(Arrays.asList(file))
+				.get(10, TimeUnit.SECONDS);
+
+		assertEquals(lines.size(), table.references.size());
+		assertEquals(lines.size(), new HashSet<String>(table.references).size());
+		assertTrue(checkpoints.saved.isEmpty());
+	}
+
+	private YdelseInserter inserter(InMemoryDaos.Table table, InMemoryDaos.Checkpoints checkpoints, PlatformTransactionManager transactions) {
+		YdelseInserter inserter = new YdelseInserter();
+		inserter.dao = table;
+		inserter.checkpointDao = checkpoints;
+		inserter.transactionTemplate = new TransactionTemplate(transactions);
+		inserter.importExecutor = executor;
+		inserter.writerLanes = LANES;
+		inserter.batchSize = 100;
+		inserter.chunkSize = 256;
+		inserter.parserThreads = 2;
+		return inserter;
+	}
+
+	private WriterLanes.LaneCallback saveCheckpoint() {
+		return new WriterLanes.LaneCallback() {
+			@Override
+			public void inTransactionOf(int lane) {
+				checkpointsSaved.incrementAndGet();
+			}
+		};
+	}
+
+	private static String firstReferenceInLane(List<SsrAction> batch, int lane) {
+		for (SsrAction action : batch) {
+			if (WriterLanes.laneOf(action, LANES) == lane) {
+				return action.getSsrForInsertion().getExternalReference();
+			}
+		}
+		throw new AssertionError("No reference in lane " + lane);
+	}
+
+	private static SsrAction insertion(int i) {
+		return SSRLineParser.parseLine(String.format("%06d,%040X,20120101,20120101,ref%d", 34002, i, i));
+	}
+
+	/**
+	 * Referencerne er fyldt op med mellemrum til 24 tegn
+	 */
+	private static String reference(int i) {
+		return String.format("%-24s", "ref" + i);
+	}
+
+	/**
+	 * Husker hver del af batchen, den får, og tråden, der udførte den. En del med blockOn venter, til released tælles ned
+	 */
+	private static class RecordingTable extends InMemoryDaos.Table {
+		final List<List<SsrAction>> executed = new ArrayList<List<SsrAction>>();
+		final List<String> threads = new ArrayList<String>();
+		volatile String failOn;
+		volatile String blockOn;
+		final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public void execute(List<SsrAction> actions) {
+			for (SsrAction action : actions) {
+				if (action.isInsertion() && action.getSsrForInsertion().getExternalReference().equals(blockOn)) {
+					try {
+						released.await();
+					} catch (InterruptedException e) {
+						throw new DAOException("Interrupted while inserting " + blockOn, e);
+					}
+				}
+			}
+			record(actions);
+		}
+
+		private synchronized void record(List<SsrAction> actions) {
+			executed.add(new ArrayList<SsrAction>(actions));
+			threads.add(Thread.currentThread().getName());
+			for (SsrAction action : actions) {
+				if (action.isInsertion() && action.getSsrForInsertion().getExternalReference().equals(failOn)) {
+					throw new DAOException("Could not insert " + failOn);
+				}
+			}
+			super.execute(actions);
+		}
+	}
+
+	/**
+	 * Transaktioner, der først udfører tabellens og checkpointenes ændringer, når de committes. Den første banes
+	 * failingCommit'te commit fejler, efter de andre baner har committet deres del af samme batch
+	 */
+	private static class BufferedTransactions implements PlatformTransactionManager {
+		private static final ThreadLocal<List<Runnable>> pending = new ThreadLocal<List<Runnable>>();
+		private static final Object committed = new Object();
+
+		private final int failingCommit;
+		private final AtomicInteger firstLaneCommits = new AtomicInteger();
+		private final AtomicInteger otherLaneCommits = new AtomicInteger();
+
+		BufferedTransactions(int failingCommit) {
+			this.failingCommit = failingCommit;
+		}
+
+		/**
+		 * Udfører ændringen, når transaktionen på denne tråd committes, eller med det samme uden for en transaktion
+		 */
+		static void later(Runnable change) {
+			if (pending.get() != null) {
+				pending.get().add(change);
+			} else {
+				synchronized (committed) {
+					change.run();
+				}
+			}
+		}
+
+		@Override
+		public TransactionStatus getTransaction(TransactionDefinition definition) {
+			pending.set(new ArrayList<Runnable>());
+			return new SimpleTransactionStatus();
+		}
+
+		@Override
+		public void commit(TransactionStatus status) {
+			List<Runnable> changes = pending.get();
+			pending.remove();
+			if (Thread.currentThread().getName().startsWith("ydelseimporter-writer")) {
+				otherLaneCommits.incrementAndGet();
+			} else if (firstLaneCommits.incrementAndGet() == failingCommit) {
+				long deadline = System.currentTimeMillis() + 10000;
+				while (otherLaneCommits.get() < failingCommit * (LANES - 1) && System.currentTimeMillis() < deadline) {
+					Thread.yield();
+				}
+				throw new TransactionSystemException("Commit of the first writer lane failed");
+			}
+			synchronized (committed) {
+				for (Runnable change : changes) {
+					change.run();
+				}
+			}
+		}
+
+		@Override
+		public void rollback(TransactionStatus status) {
+			pending.remove();
+		}
+	}
+
+	private static class BufferedTable extends InMemoryDaos.Table {
+		@Override
+		public void execute(final List<SsrAction> actions) {
+			BufferedTransactions.later(new Runnable() {
+				@Override
+				public void run() {
+					BufferedTable.super.execute(actions);
+				}
+			});
+		}
+	}
+
+	private static class BufferedCheckpoints extends InMemoryDaos.Checkpoints {
+		@Override
+		public void save(final ImportCheckpoint checkpoint) {
+			BufferedTransactions.later(new Runnable() {
+				@Override
+				public void run() {
+					BufferedCheckpoints.super.save(checkpoint);
+				}
+			});
+		}
+
+		@Override
+		public void delete(final ImportCheckpoint file) {
+			BufferedTransactions.later(new Runnable() {
+				@Override
+				public void run() {
+					BufferedCheckpoints.super.delete(file);
+				}
+			});
+		}
+	}
+
+	private static class CountingTransactions implements PlatformTransactionManager {
+		final AtomicInteger commits = new AtomicInteger();
+		final AtomicInteger rollbacks = new AtomicInteger();
+
+		@Override
+		public TransactionStatus getTransaction(TransactionDefinition definition) {
+			return new SimpleTransactionStatus();
+		}
+
+		@Override
+		public void commit(TransactionStatus status) {
+			if (status.isRollbackOnly()) {
+				rollbacks.incrementAndGet();
+			} else {
+				commits.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void rollback(TransactionStatus status) {
+			rollbacks.incrementAndGet();
+		}
+	}
+}
@@ -30,10 +30,12 @@ import dk.nsi.sdm4.core.parser.ParserException;
 import dk.nsi.sdm4.testutils.TestDbConfiguration;
 import dk.nsi.sdm4.ydelse.common.exception.DAOException;
 import dk.nsi.sdm4.ydelse.config.YdelseimporterApplicationConfig;
+import dk.nsi.sdm4.ydelse.dao.ImportCheckpointDAO;
 import dk.nsi.sdm4.ydelse.dao.SSRTestPurposeDAO;
 import dk.nsi.sdm4.ydelse.dao.impl.SSRTestPurposeDAOImpl;
 import dk.nsi.sdm4.ydelse.relation.model.DoctorOrganisationIdentifier;
 import dk.nsi.sdm4.ydelse.relation.model.HashedCpr;
+import dk.nsi.sdm4.ydelse.relation.model.ImportCheckpoint;
 import dk.nsi.sdm4.ydelse.relation.model.SSR;
 import dk.nsi.sdm4.ydelse.simulation.RandomDataUtilForTestPurposes;
 import dk.nsi.sdm4.ydelse.simulation.RandomSSR;
@@ -56,6 +58,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -107,6 +110,9 @@ public class YdelseparserTest {
 	@Autowired
 	YdelseInserter inserter;
 
+	@Autowired
+	ImportCheckpointDAO checkpointDao;
+
 	@Rule
 	public TemporaryFolder tmpDir = new TemporaryFolder();
 
@@ -134,19 +140,103 @@ public class YdelseparserTest {
 	}
 
 	@Test
-	public void complainsAboutDatasetWithTwoFiles() throws IOException {
-		tmpDir.newFile();
-		tmpDir.newFile();
+	public void appliesFilesInOrderOfTheirNames() throws IOException {
+		File datasetDir = tmpDir.newFolder();
+		final String externalReference = "JustAnOrdinaryReference ";
+		generator.generateSingleInsertion(datasetDir, "ssr_1.csv", externalReference);
+		generator.generateSingleDeletion(datasetDir, "ssr_2.csv", externalReference);
+
+		parser.process(datasetDir, "");
+
+		assertEquals(0, testDao.getAllSSRs().size());
+	}
+
+	@Test
+	public void appliesFilesInOrderOfTheManifest() throws IOException {
+		File datasetDir = tmpDir.newFolder();
+		final String externalReference = "JustAnOrdinaryReference ";
+		generator.generateSingleDeletion(datasetDir, "ssr_1.csv", externalReference);
+		SSR inserted = generator.generateSingleInsertion(datasetDir, "ssr_2.csv", externalReference);
+		FileUtils.writeLines(new File(datasetDir, DatasetFiles.MANIFEST_NAME), Arrays.asList("ssr_2.csv", "ssr_1.csv"));
+
+		parser.process(datasetDir, "");
+
+		assertEquals(0, testDao.getAllSSRs().size());
+
+		FileUtils.writeLines(new File(datasetDir, DatasetFiles.MANIFEST_NAME), Arrays.asList("ssr_1.csv", "ssr_2.csv"));
+
+		parser.process(datasetDir, "");
+
+		assertEquals(Arrays.asList(inserted), testDao.getAllSSRs());
+	}
+
+	@Test
+	public void complainsAboutFilesMissingFromTheManifest() throws IOException {
+		File datasetDir = tmpDir.newFolder();
+		generator.generateSingleDeletion(datasetDir, "ssr_1.csv", "JustAnOrdinaryReference ");
+		generator.generateSingleDeletion(datasetDir, "ssr_2.csv", "JustAnOrdinaryReference ");
+		FileUtils.writeLines(new File(datasetDir, DatasetFiles.MANIFEST_NAME), Arrays.asList("ssr_1.csv"));
 		try {
-			parser.process(tmpDir.getRoot(), "");
+			parser.process(datasetDir, "");
 			fail("Expected ParserException, but none came");
 		} catch (ParserException e) {
-			assertThat(e.getMessage(), containsString("expected 1"));
-			assertThat(e.getMessage(), containsString("2")); // antal filer
-			assertThat(e.getMessage(), containsString(tmpDir.getRoot().getAbsolutePath()));
+			assertThat(e.getMessage(), containsString("not listed"));
+			assertThat(e.getMessage(), containsString("ssr_2.csv"));
+			assertThat(e.getMessage(), containsString(datasetDir.getAbsolutePath()));
 		}
 	}
 
+	@Test
+	public void resumesFromTheLastCheckpointAndRemovesItWhenDone() throws IOException {
+		File datasetDir = tmpDir.newFolder();
+		List<SSR> ssrs = generator.dumpSsrs(datasetDir, randomSSR.randomSSRs(2));
+		File file = datasetDir.listFiles()[0];
+		long offsetOfSecondLine = FileUtils.readLines(file).get(0).length() + System.getProperty("line.separator").length();
+		ImportCheckpoint checkpoint = ImportCheckpoint.atStartOf(file);
+		checkpointDao.save(checkpoint.at(offsetOfSecondLine, 1));
+
+		parser.process(datasetDir, "");
+
+		assertEquals(Arrays.asList(ssrs.get(1)), testDao.getAllSSRs());
+		assertTrue(checkpointDao.find(checkpoint).isEmpty());
+	}
+
+	@Test
+	public void importsNothingFromADatasetWithMalformedLinesWhenValidatingFirst() throws IOException {
+		File datasetDir = tmpDir.newFolder();
+		generator.generateSingleInsertion(datasetDir, "ssr_1.csv", "JustAnOrdinaryReference ");
+		FileUtils.writeLines(new File(datasetDir, "ssr_2.csv"), Arrays.asList(",,,,JustAnOrdinaryReference", "not an ssr line"));
+
+		parser.validation = YdelseParser.VALIDATE_FIRST;
+		try {
+			parser.process(datasetDir, "");
+			fail("Expected ParserException, but none came");
+		} catch (ParserException e) {
+			assertThat(e.getMessage(), containsString("1 malformed lines"));
+			assertThat(e.getMessage(), containsString("ssr_2.csv line 2"));
+		} finally {
+			parser.validation = YdelseParser.NO_VALIDATION;
+		}
+
+		assertEquals(0, testDao.getAllSSRs().size());
+	}
+
+	@Test
+	public void importsNothingWhenOnlyValidating() throws IOException {
+		File datasetDir = tmpDir.newFolder();
+		generator.generateSsrDumps(datasetDir, 10);
+
+		parser.validation = YdelseParser.VALIDATE_ONLY;
+		try {
+			parser.process(datasetDir, "");
+		} finally {
+			parser.validation = YdelseParser.NO_VALIDATION;
+		}
+
+		assertEquals(0, testDao.getAllSSRs().size());
+		assertEquals(10, parser.validate(datasetDir).getInsertions());
+	}
+
     @Test
     @Timed(millis=15000L) // kører på 2-3 sek på min Macbook Pro, så 15 sek burde sikre mod at det løber løbsk uden at fejle på langsomme maskiner
     public void canParseLargishFile() throws IOException, DAOException {
@@ -0,0 +1,75 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.ydelse.relation.model;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+public class HashedCprTest {
+	// the regular expression HashedCpr used before, which it must still agree with
+	private static final Pattern OLD_HASHED_CPR_PATTERN = Pattern.compile("[0-9A-F]*");
+
+	private static final String VALID = "0123456789ABCDEF0123456789ABCDEF01234567";
+
+	@Test
+	public void agreesWithTheOldRegularExpressionForEveryCharacter() {
+		for (int position : new int[] {0, 19, 39}) {
+			for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+				assertAgreesWithTheOldRegularExpression(VALID.substring(0, position) + (char) c + VALID.substring(position + 1));
+			}
+		}
+	}
+
+	@Test
+	public void agreesWithTheOldRegularExpressionForRandomStrings() {
+		String alphabet = "0123456789ABCDEFGabcdef/:@` \u0663";
+		Random random = new Random(42);
+		for (int n = 0; n < 200000; n++) {
+			int length = 38 + random.nextInt(5);
+			StringBuilder hashed = new StringBuilder(length);
+			for (int i = 0; i < length; i++) {
+				hashed.append(random.nextInt(40) == 0 ? alphabet.charAt(random.nextInt(alphabet.length())) : VALID.charAt(random.nextInt(16)));
+			}
+			assertAgreesWithTheOldRegularExpression(hashed.toString());
+		}
+	}
+
+	private static void assertAgreesWithTheOldRegularExpression(String hashed) {
+		boolean accepted;
+		try {
+			assertEquals(hashed, HashedCpr.buildFromHashedString(hashed).getHashedCpr());
+			accepted = true;
+		} catch (IllegalArgumentException e) {
+			accepted = false;
+		}
+		assertEquals(hashed, hashed.length() == 40 && OLD_HASHED_CPR_PATTERN.matcher(hashed).matches(), accepted);
+	}
+}
@@ -52,7 +52,11 @@ public class GenerateTestRegisterDumps {
     }
 
 	public void generateSingleDeletion(File root, String externalReference) {
-		File file = new File(root, "ssr_foo_bar.csv");
+		generateSingleDeletion(root, "ssr_foo_bar.csv", externalReference);
+	}
+
+	public void generateSingleDeletion(File root, String fileName, String externalReference) {
+		File file = new File(root, fileName);
 		SsrWriter writer = new SsrWriter(file);
 		try {
 			writer.write(makeDeletionLine(externalReference));
@@ -61,6 +65,18 @@ public class GenerateTestRegisterDumps {
 		}
 	}
 
+	public SSR generateSingleInsertion(File root, String fileName, String externalReference) {
+		File file = new File(root, fileName);
+		SSR ssr = randomSSR.randomSSR().withExternalReference(externalReference);
+		SsrWriter writer = new SsrWriter(file);
+		try {
+			writer.write(new SsrCommaConcat(ssr).toString());
+		} finally {
+			writer.closeQuietly();
+		}
+		return ssr;
+	}
+
 	public void generateSingleInsertionFollowedByDeletion(File root, String externalReference) {
 		File file = new File(root, "ssr_foo_bar.csv");
 		SsrWriter writer = new SsrWriter(file);